@@ -2,6 +2,7 @@ package be.vinci.ipl.cae.demo;
 
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
+import org.springframework.scheduling.annotation.EnableScheduling;
 
 
 /**
@@ -9,6 +10,7 @@ import org.springframework.boot.autoconfigure.SpringBootApplication;
  */
 @SuppressWarnings("PMD.UseUtilityClass")
 @SpringBootApplication
+@EnableScheduling
 public class DemoApplication {
 
   /**
@@ -2,6 +2,7 @@ package be.vinci.ipl.cae.demo.configuration;
 
 import be.vinci.ipl.cae.demo.models.entities.User;
 import be.vinci.ipl.cae.demo.services.UserService;
+import be.vinci.ipl.cae.demo.services.VerifiedTokenCache.VerifiedToken;
 import jakarta.servlet.FilterChain;
 import jakarta.servlet.ServletException;
 import jakarta.servlet.http.HttpServletRequest;
@@ -52,9 +53,9 @@ public class JwtAuthenticationFilter extends OncePerRequestFilter {
       if (authHeader.startsWith("Bearer ")) {
         token = authHeader.substring(7);
       }
-      String username = userService.verifyJwtToken(token);
-      if (username != null) {
-        User user = userService.readOneFromEmail(username);
+      VerifiedToken verifiedToken = userService.verifyToken(token);
+      if (verifiedToken != null) {
+        User user = userService.readPrincipal(verifiedToken);
         if (user != null) {
           List<GrantedAuthority> authorities = new ArrayList<>();
           if (user.getRole() == User.Role.MANAGER) {
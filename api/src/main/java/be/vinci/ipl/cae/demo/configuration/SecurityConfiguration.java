@@ -1,5 +1,7 @@
 package be.vinci.ipl.cae.demo.configuration;
 
+import org.springframework.boot.actuate.autoconfigure.security.servlet.EndpointRequest;
+import org.springframework.boot.actuate.health.HealthEndpoint;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.security.config.annotation.method.configuration.EnableMethodSecurity;
@@ -30,7 +32,8 @@ public class SecurityConfiguration {
   }
 
   /**
-   * FilterChain for the security configuration.
+   * FilterChain for the security configuration. The controllers are secured by their own
+   * annotations, while the actuator endpoints other than health are reserved to the managers.
    *
    * @param http the HttpSecurity.
    * @return the SecurityFilterChain.
@@ -42,6 +45,10 @@ public class SecurityConfiguration {
         .csrf(AbstractHttpConfigurer::disable)
         .sessionManagement(sessionManagement ->
             sessionManagement.sessionCreationPolicy(SessionCreationPolicy.STATELESS))
+        .authorizeHttpRequests(authorize -> authorize
+            .requestMatchers(EndpointRequest.to(HealthEndpoint.class)).permitAll()
+            .requestMatchers(EndpointRequest.toAnyEndpoint()).hasRole("MANAGER")
+            .anyRequest().permitAll())
         .addFilterBefore(jwtAuthenticationFilter, UsernamePasswordAuthenticationFilter.class)
         .build();
   }
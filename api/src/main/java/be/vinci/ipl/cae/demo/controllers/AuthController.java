@@ -3,6 +3,7 @@ package be.vinci.ipl.cae.demo.controllers;
 import be.vinci.ipl.cae.demo.exceptions.BadRequestException;
 import be.vinci.ipl.cae.demo.exceptions.ConflictException;
 import be.vinci.ipl.cae.demo.exceptions.ResourceNotFoundException;
+import be.vinci.ipl.cae.demo.exceptions.TooManyRequestsException;
 import be.vinci.ipl.cae.demo.exceptions.UnauthorizedException;
 import be.vinci.ipl.cae.demo.models.dtos.AuthenticatedUser;
 import be.vinci.ipl.cae.demo.models.dtos.ChangePassword;
@@ -10,11 +11,13 @@ import be.vinci.ipl.cae.demo.models.dtos.Credentials;
 import be.vinci.ipl.cae.demo.models.dtos.NewUser;
 import be.vinci.ipl.cae.demo.models.dtos.UserDetails;
 import be.vinci.ipl.cae.demo.models.entities.User;
+import be.vinci.ipl.cae.demo.services.LoginThrottleService;
 import be.vinci.ipl.cae.demo.services.UserService;
 import io.swagger.v3.oas.annotations.Operation;
 import io.swagger.v3.oas.annotations.responses.ApiResponse;
 import io.swagger.v3.oas.annotations.responses.ApiResponses;
 import io.swagger.v3.oas.annotations.security.SecurityRequirement;
+import jakarta.servlet.http.HttpServletRequest;
 import org.springframework.security.access.prepost.PreAuthorize;
 import org.springframework.security.core.context.SecurityContextHolder;
 import org.springframework.web.bind.annotation.GetMapping;
@@ -33,14 +36,17 @@ import org.springframework.web.bind.annotation.RestController;
 public class AuthController {
 
   private final UserService userService;
+  private final LoginThrottleService loginThrottleService;
 
   /**
    * Constructor for AuthController.
    *
-   * @param userService the injected UserService.
+   * @param userService          the injected UserService.
+   * @param loginThrottleService the injected LoginThrottleService.
    */
-  public AuthController(UserService userService) {
+  public AuthController(UserService userService, LoginThrottleService loginThrottleService) {
     this.userService = userService;
+    this.loginThrottleService = loginThrottleService;
   }
 
   /**
@@ -103,13 +109,20 @@ public class AuthController {
   @ApiResponses({
       @ApiResponse(responseCode = "200", description = "Login successful"),
       @ApiResponse(responseCode = "400", description = "Invalid credentials format"),
-      @ApiResponse(responseCode = "401", description = "Invalid email or password")
+      @ApiResponse(responseCode = "401", description = "Invalid email or password"),
+      @ApiResponse(responseCode = "429", description = "Too many login attempts")
   })
   @PostMapping("/login")
-  public AuthenticatedUser login(@RequestBody Credentials credentials) {
+  public AuthenticatedUser login(@RequestBody Credentials credentials,
+      HttpServletRequest request) {
     if (isInvalidCredentials(credentials)) {
       throw new BadRequestException("Invalid credentials format");
     }
+    long retryAfterSeconds = loginThrottleService.tryAcquire(credentials.getEmail(),
+        request.getRemoteAddr());
+    if (retryAfterSeconds > 0) {
+      throw new TooManyRequestsException("Too many login attempts", retryAfterSeconds);
+    }
 
     AuthenticatedUser user = userService.login(credentials.getEmail(),
         credentials.getPassword());
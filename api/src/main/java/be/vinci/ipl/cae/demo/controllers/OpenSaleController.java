@@ -2,6 +2,8 @@ package be.vinci.ipl.cae.demo.controllers;
 
 import be.vinci.ipl.cae.demo.exceptions.BadRequestException;
 import be.vinci.ipl.cae.demo.models.dtos.OpenSaleDto;
+import be.vinci.ipl.cae.demo.models.entities.IdempotencyRecord;
+import be.vinci.ipl.cae.demo.services.IdempotencyService;
 import be.vinci.ipl.cae.demo.services.OpenSaleService;
 import io.swagger.v3.oas.annotations.Operation;
 import io.swagger.v3.oas.annotations.responses.ApiResponse;
@@ -11,6 +13,7 @@ import org.springframework.security.access.prepost.PreAuthorize;
 import org.springframework.web.bind.annotation.CrossOrigin;
 import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestHeader;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RestController;
 
@@ -23,15 +26,19 @@ import org.springframework.web.bind.annotation.RestController;
 public class OpenSaleController {
 
   private final OpenSaleService openSaleService;
+  private final IdempotencyService idempotencyService;
 
 
   /**
    * Constructor for OpenSaleController.
    *
-   * @param openSaleService the service to handle open sales-related operations
+   * @param openSaleService    the service to handle open sales-related operations
+   * @param idempotencyService the service running creations once per idempotency key
    */
-  public OpenSaleController(OpenSaleService openSaleService) {
+  public OpenSaleController(OpenSaleService openSaleService,
+      IdempotencyService idempotencyService) {
     this.openSaleService = openSaleService;
+    this.idempotencyService = idempotencyService;
   }
 
   private boolean isInvalidOpenSale(OpenSaleDto openSaleDto) {
@@ -56,13 +63,17 @@ public class OpenSaleController {
       @ApiResponse(responseCode = "400", description = "Bad Request - Invalid input"),
       @ApiResponse(responseCode = "409",
           description = "Product lot must be for sale and with sufficient quantity"),
+      @ApiResponse(responseCode = "422",
+          description = "Idempotency key already used with a different request"),
   })
   @PostMapping("/")
   @PreAuthorize("hasRole('ROLE_MANAGER')")
-  public boolean createAnOpenSale(@RequestBody OpenSaleDto openSaleDto) {
+  public boolean createAnOpenSale(@RequestBody OpenSaleDto openSaleDto,
+      @RequestHeader(value = "Idempotency-Key", required = false) String idempotencyKey) {
     if (isInvalidOpenSale(openSaleDto)) {
       throw new BadRequestException("Invalid open sale");
     }
-    return openSaleService.createOpenSale(openSaleDto);
+    return idempotencyService.execute(IdempotencyRecord.Scope.OPEN_SALE, idempotencyKey,
+        openSaleDto, () -> openSaleService.createOpenSale(openSaleDto));
   }
 }
@@ -5,19 +5,27 @@ import be.vinci.ipl.cae.demo.exceptions.BadRequestException;
 import be.vinci.ipl.cae.demo.exceptions.ResourceNotFoundException;
 import be.vinci.ipl.cae.demo.models.dtos.NewProductLot;
 import be.vinci.ipl.cae.demo.models.dtos.ProductLotDto;
+import be.vinci.ipl.cae.demo.models.dtos.ProductLotPage;
+import be.vinci.ipl.cae.demo.models.dtos.ProductRanking;
+import be.vinci.ipl.cae.demo.models.dtos.ProductSalesStats;
+import be.vinci.ipl.cae.demo.models.entities.Product;
 import be.vinci.ipl.cae.demo.models.entities.ProductLot.State;
 import be.vinci.ipl.cae.demo.services.OpenSaleService;
 import be.vinci.ipl.cae.demo.services.ProductLotService;
 import be.vinci.ipl.cae.demo.services.ProductService;
+import be.vinci.ipl.cae.demo.services.StatisticsCache;
 import io.swagger.v3.oas.annotations.Operation;
 import io.swagger.v3.oas.annotations.responses.ApiResponse;
 import io.swagger.v3.oas.annotations.responses.ApiResponses;
 import io.swagger.v3.oas.annotations.security.SecurityRequirement;
+import java.time.LocalDate;
 import java.time.LocalDateTime;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
+import org.springframework.format.annotation.DateTimeFormat;
+import org.springframework.format.annotation.DateTimeFormat.ISO;
 import org.springframework.http.HttpStatus;
 import org.springframework.security.access.prepost.PreAuthorize;
 import org.springframework.web.bind.annotation.CrossOrigin;
@@ -45,17 +53,20 @@ public class ProductLotController {
   private final ProductLotService productLotService;
   private final ProductService productService;
   private final OpenSaleService openSaleService;
+  private final StatisticsCache statisticsCache;
 
   /**
    * Constructor for the product lot controller.
    *
    * @param productLotService the injected productLotService.
+   * @param statisticsCache   the cache shared by the identical statistics requests.
    */
   public ProductLotController(ProductLotService productLotService, ProductService productService, 
-      OpenSaleService openSaleService) {
+      OpenSaleService openSaleService, StatisticsCache statisticsCache) {
     this.productLotService = productLotService;
     this.productService = productService;
     this.openSaleService = openSaleService;
+    this.statisticsCache = statisticsCache;
   }
 
   /**
@@ -78,6 +89,21 @@ public class ProductLotController {
         && image != null && !image.isEmpty();
   }
 
+  /**
+   * Parses a product lot state, ignoring case.
+   *
+   * @param state The state to parse.
+   * @return the matching state.
+   * @throws BadRequestException if the value is not a state.
+   */
+  private State parseState(String state) {
+    try {
+      return State.valueOf(state.toUpperCase(Locale.ROOT));
+    } catch (IllegalArgumentException e) {
+      throw new BadRequestException("Invalid state value: " + state, e);
+    }
+  }
+
   /**
    * Retrieves product lots filtered by state (optional email for producer-specific filtering).
    */
@@ -94,12 +120,7 @@ public class ProductLotController {
     if (state == null || state.isEmpty()) {
       return productLotService.findAllOrderedByState();
     }
-    State lotState;
-    try {
-      lotState = State.valueOf(state.toUpperCase(Locale.ROOT));
-    } catch (IllegalArgumentException e) {
-      throw new BadRequestException("Invalid state value: " + state, e);
-    }
+    State lotState = parseState(state);
     if (email != null && !email.isEmpty()) {
       return productLotService.findLotsForProducer(email, lotState);
     }
@@ -108,6 +129,40 @@ public class ProductLotController {
 
   }
 
+  /**
+   * Swagger java doc. {@Swagger Doc}
+   */
+  @Operation(summary = "Retrieves one page of product lots ordered by state, with optional "
+      + "filters on state, product type, producer and availability date.")
+  @ApiResponses({
+      @ApiResponse(responseCode = "200", description = "Page of product lots and next cursor"),
+      @ApiResponse(responseCode = "400", description = "Bad Request - Invalid state, size or "
+          + "cursor"),
+  })
+  @GetMapping("/page")
+  public ProductLotPage getLotsPage(
+      @RequestParam(required = false) String state,
+      @RequestParam(required = false) String type,
+      @RequestParam(required = false) String email,
+      @RequestParam(required = false) @DateTimeFormat(iso = ISO.DATE_TIME)
+      LocalDateTime availableFrom,
+      @RequestParam(required = false) @DateTimeFormat(iso = ISO.DATE_TIME)
+      LocalDateTime availableTo,
+      @RequestParam(required = false) String cursor,
+      @RequestParam(defaultValue = "20") int size
+  ) {
+    if (size <= 0) {
+      throw new BadRequestException("Page size must be positive");
+    }
+    State lotState = state == null || state.isBlank() ? null : parseState(state);
+    return productLotService.findLotsPage(lotState,
+        type == null || type.isBlank() ? null : type,
+        email == null || email.isBlank() ? null : email,
+        availableFrom, availableTo,
+        cursor == null || cursor.isBlank() ? null : cursor,
+        size);
+  }
+
   /**
    * Retrieves the most recent product lots for sale.
    */
@@ -223,14 +278,7 @@ public class ProductLotController {
       throw new BadRequestException("State is required");
     }
 
-    State state;
-    try {
-      state = State.valueOf(newState.toUpperCase(Locale.ROOT));
-    } catch (IllegalArgumentException e) {
-      throw new BadRequestException("Invalid state value: " + newState, e);
-    }
-
-    boolean isUpdated = productLotService.updateLotState(id, state);
+    boolean isUpdated = productLotService.updateLotState(id, parseState(newState));
 
     if (!isUpdated) {
       throw new ResourceNotFoundException("Product lot state not found with ID: " + id);
@@ -276,11 +324,26 @@ public class ProductLotController {
       throw new BadRequestException("Invalid month value: " + month);
     }
 
-    if (productService.findByLabelIgnoreCase(productLabel) == null) {
+    Product product = productService.findByLabelIgnoreCase(productLabel);
+    if (product == null) {
       throw new ResourceNotFoundException(
           "Product with label " + productLabel + " does not exist"
       );
     }
+    return statisticsCache.get("stats", product.getProductId(), month, year,
+        () -> computeSalesStatistics(productLabel, month, year));
+  }
+
+  /**
+   * Computes the sales statistics of a product, on a miss of the statistics cache.
+   *
+   * @param productLabel the label of the product
+   * @param month        the month filter, or null
+   * @param year         the year filter, or null
+   * @return the totals and the quantities per day of the product
+   */
+  private Map<String, Object> computeSalesStatistics(String productLabel, Integer month,
+      Integer year) {
     List<ProductLotDto> lots = productLotService.getLotsAndSalesData(productLabel, month, year);
 
     if (lots == null || lots.isEmpty()) {
@@ -312,6 +375,51 @@ public class ProductLotController {
     );
   }
 
+  /**
+   * Swagger java doc. {@Swagger Doc}
+   */
+  @Operation(summary = "Get the sales statistics of several products, or of every product when "
+      + "no label is given, over an optional period [from, to).",
+      security = @SecurityRequirement(name = "bearerAuth"))
+  @ApiResponses({
+      @ApiResponse(responseCode = "200", description = "Statistics of each product, by label"),
+      @ApiResponse(responseCode = "400", description = "Too many labels or empty period"),
+      @ApiResponse(responseCode = "403", description = "Forbidden: Not authorized"),
+      @ApiResponse(responseCode = "401", description = "Manager must be authenticated"),
+  })
+  @GetMapping("/stats/bulk")
+  @PreAuthorize("hasRole('ROLE_MANAGER')")
+  public List<ProductSalesStats> getBulkSalesStatistics(
+      @RequestParam(required = false) List<String> labels,
+      @RequestParam(required = false) @DateTimeFormat(iso = ISO.DATE) LocalDate from,
+      @RequestParam(required = false) @DateTimeFormat(iso = ISO.DATE) LocalDate to
+  ) {
+    return productLotService.getSalesStatistics(labels, from, to);
+  }
+
+  /**
+   * Swagger java doc. {@Swagger Doc}
+   */
+  @Operation(summary = "Rank the products by quantity sold, revenue or sell-through over an "
+      + "optional period [from, to).",
+      security = @SecurityRequirement(name = "bearerAuth"))
+  @ApiResponses({
+      @ApiResponse(responseCode = "200", description = "Top products, by rank"),
+      @ApiResponse(responseCode = "400", description = "Invalid metric, limit or period"),
+      @ApiResponse(responseCode = "403", description = "Forbidden: Not authorized"),
+      @ApiResponse(responseCode = "401", description = "Manager must be authenticated"),
+  })
+  @GetMapping("/rankings")
+  @PreAuthorize("hasRole('ROLE_MANAGER')")
+  public List<ProductRanking> getRankings(
+      @RequestParam(defaultValue = "QUANTITY") ProductRanking.Metric metric,
+      @RequestParam(required = false) @DateTimeFormat(iso = ISO.DATE) LocalDate from,
+      @RequestParam(required = false) @DateTimeFormat(iso = ISO.DATE) LocalDate to,
+      @RequestParam(defaultValue = "10") int limit
+  ) {
+    return productLotService.rankProducts(metric, from, to, limit);
+  }
+
   /**
    * Swagger java doc. {@Swagger Doc}
    */
@@ -341,5 +449,23 @@ public class ProductLotController {
     productLotService.decreaseQuantity(id, qty);
   }
 
+  /**
+   * Swagger java doc. {@Swagger Doc}
+   */
+  @Operation(summary = "Split the stock of a high-demand product lot across several rows",
+      security = @SecurityRequirement(name = "bearerAuth"))
+  @ApiResponses({
+      @ApiResponse(responseCode = "200", description = "Stock shards updated"),
+      @ApiResponse(responseCode = "400", description = "Invalid number of shards"),
+      @ApiResponse(responseCode = "404", description = "Product lot not found"),
+      @ApiResponse(responseCode = "409", description = "Stock shards are not enabled"),
+      @ApiResponse(responseCode = "403", description =
+          "Forbidden - User is not authenticated or not authorized"),
+      @ApiResponse(responseCode = "401", description = "Must be authenticated"),
+  })
+  @PutMapping("/{id}/stock-shards")
+  @PreAuthorize("hasRole('ROLE_MANAGER')")
+  public void setStockShards(@PathVariable("id") Long id, @RequestParam int shards) {
+    productLotService.setStockShards(id, shards);
+  }
 }
-
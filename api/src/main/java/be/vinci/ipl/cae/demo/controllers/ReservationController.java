@@ -1,9 +1,18 @@
 package be.vinci.ipl.cae.demo.controllers;
 
 import be.vinci.ipl.cae.demo.exceptions.BadRequestException;
+import be.vinci.ipl.cae.demo.models.dtos.PickupManifest;
 import be.vinci.ipl.cae.demo.models.dtos.ReservationDto;
+import be.vinci.ipl.cae.demo.models.dtos.ReservationFilter;
 import be.vinci.ipl.cae.demo.models.dtos.ReservationInfo;
+import be.vinci.ipl.cae.demo.models.dtos.ReservationPage;
+import be.vinci.ipl.cae.demo.models.dtos.ReservationStateResult;
+import be.vinci.ipl.cae.demo.models.dtos.ReservationStateUpdate;
 import be.vinci.ipl.cae.demo.models.dtos.ReservedProductsDto;
+import be.vinci.ipl.cae.demo.models.entities.IdempotencyRecord;
+import be.vinci.ipl.cae.demo.models.entities.Reservation;
+import be.vinci.ipl.cae.demo.services.IdempotencyService;
+import be.vinci.ipl.cae.demo.services.ReservationAdmissionService;
 import be.vinci.ipl.cae.demo.services.ReservationService;
 import io.swagger.v3.oas.annotations.Operation;
 import io.swagger.v3.oas.annotations.responses.ApiResponse;
@@ -11,6 +20,9 @@ import io.swagger.v3.oas.annotations.responses.ApiResponses;
 import io.swagger.v3.oas.annotations.security.SecurityRequirement;
 import java.time.LocalDate;
 import java.util.List;
+import java.util.Locale;
+import org.springframework.format.annotation.DateTimeFormat;
+import org.springframework.format.annotation.DateTimeFormat.ISO;
 import org.springframework.security.access.prepost.PreAuthorize;
 import org.springframework.web.bind.annotation.DeleteMapping;
 import org.springframework.web.bind.annotation.GetMapping;
@@ -18,6 +30,7 @@ import org.springframework.web.bind.annotation.PatchMapping;
 import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestHeader;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
@@ -30,14 +43,22 @@ import org.springframework.web.bind.annotation.RestController;
 public class ReservationController {
 
   private final ReservationService reservationService;
+  private final ReservationAdmissionService reservationAdmissionService;
+  private final IdempotencyService idempotencyService;
 
   /**
    * Constructor for the reservation controller.
    *
-   * @param reservationService the injected reservationService.
+   * @param reservationService          the injected reservationService.
+   * @param reservationAdmissionService the injected reservationAdmissionService.
+   * @param idempotencyService          the injected idempotencyService.
    */
-  public ReservationController(ReservationService reservationService) {
+  public ReservationController(ReservationService reservationService,
+      ReservationAdmissionService reservationAdmissionService,
+      IdempotencyService idempotencyService) {
     this.reservationService = reservationService;
+    this.reservationAdmissionService = reservationAdmissionService;
+    this.idempotencyService = idempotencyService;
   }
 
   private boolean isInvalidReservation(ReservationDto reservationDto) {
@@ -55,18 +76,24 @@ public class ReservationController {
   @ApiResponses({
       @ApiResponse(responseCode = "201", description = "CREATED"),
       @ApiResponse(responseCode = "409", description = "Not enough remaining products"),
+      @ApiResponse(responseCode = "422",
+          description = "Idempotency key already used with a different request"),
       @ApiResponse(responseCode = "400", description = "Bad request"),
       @ApiResponse(responseCode = "404", description = "Product lot not found"),
       @ApiResponse(responseCode = "403", description = "Forbidden – missing or invalid token"),
       @ApiResponse(responseCode = "401", description = "Must be authenticated"),
+      @ApiResponse(responseCode = "429", description = "Too many reservations in progress"),
   })
   @PostMapping
   @PreAuthorize("hasRole('ROLE_CUSTOMER')")
-  public void createReservation(@RequestBody ReservationDto reservationDto) {
+  public void createReservation(@RequestBody ReservationDto reservationDto,
+      @RequestHeader(value = "Idempotency-Key", required = false) String idempotencyKey) {
     if (isInvalidReservation(reservationDto)) {
       throw new BadRequestException("Invalid reservation");
     }
-    reservationService.createReservation(reservationDto);
+    reservationAdmissionService.admit(() -> idempotencyService.execute(
+        IdempotencyRecord.Scope.RESERVATION, idempotencyKey, reservationDto,
+        () -> reservationService.createReservation(reservationDto)));
   }
 
   /**
@@ -152,6 +179,79 @@ public class ReservationController {
     return reservationService.getAllReservations();
   }
 
+  /**
+   * Swagger java doc. {@Swagger Doc}
+   */
+  @GetMapping("/manifest")
+  @PreAuthorize("hasRole('ROLE_MANAGER')")
+  @Operation(summary = "Get the pickup manifest of a recovery date: total quantity per product "
+      + "lot and pick list per customer of the reservations still to be retrieved.",
+      security = @SecurityRequirement(name = "bearerAuth"))
+  @ApiResponses({
+      @ApiResponse(responseCode = "200", description = "Pickup manifest of the date"),
+      @ApiResponse(responseCode = "400", description = "Missing or invalid date"),
+      @ApiResponse(responseCode = "403", description = "Forbidden: Not a manager"),
+      @ApiResponse(responseCode = "401", description = "Must be authenticated"),
+  })
+  public PickupManifest getPickupManifest(
+      @RequestParam(required = false) @DateTimeFormat(iso = ISO.DATE) LocalDate date) {
+    if (date == null) {
+      throw new BadRequestException("Missing recovery date");
+    }
+    return reservationService.getPickupManifest(date);
+  }
+
+  /**
+   * Swagger java doc. {@Swagger Doc}
+   */
+  @GetMapping("/page")
+  @PreAuthorize("hasAnyRole('ROLE_CUSTOMER', 'ROLE_MANAGER')")
+  @Operation(summary = "Get one page of reservations, most recent first, with optional filters "
+      + "and summary per state. Managers see all clients, customers their own reservations.",
+      security = @SecurityRequirement(name = "bearerAuth"))
+  @ApiResponses({
+      @ApiResponse(responseCode = "200", description = "Page of reservations and next cursor"),
+      @ApiResponse(responseCode = "400", description = "Invalid state, size or cursor"),
+      @ApiResponse(responseCode = "403", description = "Forbidden: Not authorized"),
+      @ApiResponse(responseCode = "401", description = "Must be authenticated"),
+  })
+  public ReservationPage getReservationsPage(
+      @RequestParam(required = false) String state,
+      @RequestParam(required = false) String email,
+      @RequestParam(required = false) @DateTimeFormat(iso = ISO.DATE) LocalDate recoveryFrom,
+      @RequestParam(required = false) @DateTimeFormat(iso = ISO.DATE) LocalDate recoveryTo,
+      @RequestParam(required = false) String cursor,
+      @RequestParam(defaultValue = "20") int size,
+      @RequestParam(defaultValue = "false") boolean summary
+  ) {
+    checkPageSize(size);
+    return reservationService.findReservationsPage(
+        toFilter(state, email, recoveryFrom, recoveryTo), blankToNull(cursor), size, summary);
+  }
+
+  private static void checkPageSize(int size) {
+    if (size <= 0) {
+      throw new BadRequestException("Page size must be positive");
+    }
+  }
+
+  private static String blankToNull(String value) {
+    return value == null || value.isBlank() ? null : value;
+  }
+
+  private static ReservationFilter toFilter(String state, String email, LocalDate recoveryFrom,
+      LocalDate recoveryTo) {
+    Reservation.State reservationState = null;
+    if (blankToNull(state) != null) {
+      try {
+        reservationState = Reservation.State.valueOf(state.toUpperCase(Locale.ROOT));
+      } catch (IllegalArgumentException e) {
+        throw new BadRequestException("Invalid reservation state: " + state, e);
+      }
+    }
+    return new ReservationFilter(reservationState, blankToNull(email), recoveryFrom, recoveryTo);
+  }
+
 
   /**
    * Swagger java doc. {@Swagger Doc}
@@ -175,4 +275,25 @@ public class ReservationController {
     reservationService.updateReservationState(id, newState);
   }
 
+  /**
+   * Swagger java doc. {@Swagger Doc}
+   */
+  @PatchMapping("/state")
+  @PreAuthorize("hasRole('ROLE_MANAGER')")
+  @Operation(summary = "Update the states of several reservations in one transaction",
+      security = @SecurityRequirement(name = "bearerAuth"))
+  @ApiResponses({
+      @ApiResponse(responseCode = "200", description = "Outcome of each update"),
+      @ApiResponse(responseCode = "400", description = "Empty list or too many updates"),
+      @ApiResponse(responseCode = "403", description = "Forbidden: Not authorized"),
+      @ApiResponse(responseCode = "401", description = "Must be authenticated"),
+  })
+  public List<ReservationStateResult> updateReservationStates(
+      @RequestBody List<ReservationStateUpdate> updates) {
+    if (updates == null || updates.isEmpty()) {
+      throw new BadRequestException("Invalid state updates");
+    }
+    return reservationService.updateReservationStates(updates);
+  }
+
 }
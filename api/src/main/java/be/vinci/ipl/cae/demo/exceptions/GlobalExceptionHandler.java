@@ -3,6 +3,7 @@ package be.vinci.ipl.cae.demo.exceptions;
 import jakarta.servlet.http.HttpServletRequest;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.security.access.AccessDeniedException;
@@ -102,6 +103,26 @@ public class GlobalExceptionHandler {
     return new ResponseEntity<>(errorDetailsClient, HttpStatus.CONFLICT);
   }
 
+  /**
+   * Handle UnprocessableEntityException.
+   *
+   * @param ex      the exception.
+   * @param request the request.
+   * @return the response entity.
+   */
+  @ExceptionHandler(UnprocessableEntityException.class)
+  public ResponseEntity<?> handleUnprocessableEntityException(UnprocessableEntityException ex,
+      WebRequest request, HttpServletRequest httpRequest) {
+    ErrorDetails errorDetailsClient = createErrorDetails(HttpStatus.UNPROCESSABLE_ENTITY, ex,
+        request, httpRequest, false);
+    ErrorDetails errorDetailsLog = createErrorDetails(HttpStatus.UNPROCESSABLE_ENTITY, ex,
+        request, httpRequest, true);
+
+    logger.info("Unprocessable entity: {}", errorDetailsLog);
+
+    return new ResponseEntity<>(errorDetailsClient, HttpStatus.UNPROCESSABLE_ENTITY);
+  }
+
   /**
    * Handle UnauthorizedException.
    *
@@ -127,6 +148,46 @@ public class GlobalExceptionHandler {
     return new ResponseEntity<>(errorDetailsClient, HttpStatus.UNAUTHORIZED);
   }
 
+  /**
+   * Handle ServiceUnavailableException.
+   *
+   * @param ex      the exception.
+   * @param request the request.
+   * @return the response entity, with a Retry-After header.
+   */
+  @ExceptionHandler(ServiceUnavailableException.class)
+  public ResponseEntity<?> handleServiceUnavailableException(ServiceUnavailableException ex,
+      WebRequest request, HttpServletRequest httpRequest) {
+    return retryLater(HttpStatus.SERVICE_UNAVAILABLE, ex, ex.getRetryAfterSeconds(), request,
+        httpRequest);
+  }
+
+  /**
+   * Handle TooManyRequestsException.
+   *
+   * @param ex      the exception.
+   * @param request the request.
+   * @return the response entity, with a Retry-After header.
+   */
+  @ExceptionHandler(TooManyRequestsException.class)
+  public ResponseEntity<?> handleTooManyRequestsException(TooManyRequestsException ex,
+      WebRequest request, HttpServletRequest httpRequest) {
+    return retryLater(HttpStatus.TOO_MANY_REQUESTS, ex, ex.getRetryAfterSeconds(), request,
+        httpRequest);
+  }
+
+  private ResponseEntity<?> retryLater(HttpStatus status, Exception ex, long retryAfterSeconds,
+      WebRequest request, HttpServletRequest httpRequest) {
+    ErrorDetails errorDetailsClient = createErrorDetails(status, ex, request, httpRequest, false);
+    ErrorDetails errorDetailsLog = createErrorDetails(status, ex, request, httpRequest, true);
+
+    logger.warn("Retry later ({}): {}", status, errorDetailsLog);
+
+    return ResponseEntity.status(status)
+        .header(HttpHeaders.RETRY_AFTER, String.valueOf(retryAfterSeconds))
+        .body(errorDetailsClient);
+  }
+
 
   /**
    * Handle ResponseStatusException.
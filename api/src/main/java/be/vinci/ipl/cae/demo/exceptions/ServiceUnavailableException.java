@@ -0,0 +1,42 @@
+package be.vinci.ipl.cae.demo.exceptions;
+
+/**
+ * ServiceUnavailableException to handle temporarily saturated resources.
+ */
+public class ServiceUnavailableException extends RuntimeException {
+
+  private final long retryAfterSeconds;
+
+  /**
+   * Constructor for ServiceUnavailableException.
+   *
+   * @param message           the message.
+   * @param retryAfterSeconds the number of seconds the client should wait before retrying.
+   */
+  public ServiceUnavailableException(String message, long retryAfterSeconds) {
+    super(message);
+    this.retryAfterSeconds = retryAfterSeconds;
+  }
+
+  /**
+   * Constructor for ServiceUnavailableException.
+   *
+   * @param message           the message.
+   * @param retryAfterSeconds the number of seconds the client should wait before retrying.
+   * @param cause             the cause.
+   */
+  public ServiceUnavailableException(String message, long retryAfterSeconds, Throwable cause) {
+    super(message, cause);
+    this.retryAfterSeconds = retryAfterSeconds;
+  }
+
+  /**
+   * Get the number of seconds the client should wait before retrying.
+   *
+   * @return the number of seconds.
+   */
+  public long getRetryAfterSeconds() {
+    return retryAfterSeconds;
+  }
+
+}
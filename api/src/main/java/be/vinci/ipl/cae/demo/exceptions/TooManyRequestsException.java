@@ -0,0 +1,30 @@
+package be.vinci.ipl.cae.demo.exceptions;
+
+/**
+ * TooManyRequestsException to handle clients exceeding a rate limit.
+ */
+public class TooManyRequestsException extends RuntimeException {
+
+  private final long retryAfterSeconds;
+
+  /**
+   * Constructor for TooManyRequestsException.
+   *
+   * @param message           the message.
+   * @param retryAfterSeconds the number of seconds the client should wait before retrying.
+   */
+  public TooManyRequestsException(String message, long retryAfterSeconds) {
+    super(message);
+    this.retryAfterSeconds = retryAfterSeconds;
+  }
+
+  /**
+   * Get the number of seconds the client should wait before retrying.
+   *
+   * @return the number of seconds.
+   */
+  public long getRetryAfterSeconds() {
+    return retryAfterSeconds;
+  }
+
+}
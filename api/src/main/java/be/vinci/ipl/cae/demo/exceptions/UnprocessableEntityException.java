@@ -0,0 +1,17 @@
+package be.vinci.ipl.cae.demo.exceptions;
+
+/**
+ * UnprocessableEntityException to handle well-formed requests that cannot be processed.
+ */
+public class UnprocessableEntityException extends RuntimeException {
+
+  /**
+   * Constructor for UnprocessableEntityException.
+   *
+   * @param message the message.
+   */
+  public UnprocessableEntityException(String message) {
+    super(message);
+  }
+
+}
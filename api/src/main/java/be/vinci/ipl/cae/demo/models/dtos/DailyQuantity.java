@@ -0,0 +1,18 @@
+package be.vinci.ipl.cae.demo.models.dtos;
+
+import java.time.LocalDate;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * Total quantity of a product moved on one day.
+ */
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+public class DailyQuantity {
+
+  private LocalDate day;
+  private Long quantity;
+}
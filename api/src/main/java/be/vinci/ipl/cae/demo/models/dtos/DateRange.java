@@ -0,0 +1,40 @@
+package be.vinci.ipl.cae.demo.models.dtos;
+
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * Period of the statistics: the dates from the inclusive lower bound to the exclusive upper
+ * bound, and the month to match in every year when no year is given. Each part is ignored when
+ * null.
+ */
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+public class DateRange {
+
+  private LocalDate from;
+  private LocalDate to;
+  private Integer month;
+
+  /**
+   * Gets the inclusive lower bound as a date-time, to compare it with a timestamp.
+   *
+   * @return the start of the first day of the range, or null
+   */
+  public LocalDateTime fromTime() {
+    return from == null ? null : from.atStartOfDay();
+  }
+
+  /**
+   * Gets the exclusive upper bound as a date-time, to compare it with a timestamp.
+   *
+   * @return the start of the day following the range, or null
+   */
+  public LocalDateTime toTime() {
+    return to == null ? null : to.atStartOfDay();
+  }
+}
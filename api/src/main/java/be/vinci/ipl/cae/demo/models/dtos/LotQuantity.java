@@ -0,0 +1,17 @@
+package be.vinci.ipl.cae.demo.models.dtos;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * Total quantity of one product lot across several reservation lines.
+ */
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+public class LotQuantity {
+
+  private Long lotId;
+  private Long quantity;
+}
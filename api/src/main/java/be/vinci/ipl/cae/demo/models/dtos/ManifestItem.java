@@ -0,0 +1,19 @@
+package be.vinci.ipl.cae.demo.models.dtos;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * Quantity of one product lot to pull from stock.
+ */
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+public class ManifestItem {
+
+  private Long lotId;
+  private String productLabel;
+  private String productUnit;
+  private long quantity;
+}
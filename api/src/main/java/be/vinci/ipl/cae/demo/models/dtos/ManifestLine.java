@@ -0,0 +1,22 @@
+package be.vinci.ipl.cae.demo.models.dtos;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * Total quantity of one product lot reserved by one customer for a recovery date.
+ */
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+public class ManifestLine {
+
+  private String customerEmail;
+  private String customerFirstname;
+  private String customerLastname;
+  private Long lotId;
+  private String productLabel;
+  private String productUnit;
+  private Long quantity;
+}
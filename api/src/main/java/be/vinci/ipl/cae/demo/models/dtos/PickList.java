@@ -0,0 +1,20 @@
+package be.vinci.ipl.cae.demo.models.dtos;
+
+import java.util.List;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * Products to hand over to one customer, all its reservations of the day merged.
+ */
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+public class PickList {
+
+  private String customerEmail;
+  private String customerFirstname;
+  private String customerLastname;
+  private List<ManifestItem> items;
+}
@@ -0,0 +1,21 @@
+package be.vinci.ipl.cae.demo.models.dtos;
+
+import java.time.LocalDate;
+import java.util.List;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * What to prepare for the reservations still to be retrieved on a recovery date: the total of
+ * each product lot and the pick list of each customer.
+ */
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+public class PickupManifest {
+
+  private LocalDate recoveryDate;
+  private List<ManifestItem> lots;
+  private List<PickList> pickLists;
+}
@@ -0,0 +1,21 @@
+package be.vinci.ipl.cae.demo.models.dtos;
+
+import be.vinci.ipl.cae.demo.models.entities.DailyProductSales;
+import java.time.LocalDate;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * Total quantity of a product moved through one channel on one day.
+ */
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+public class ProductDailyQuantity {
+
+  private String productLabel;
+  private DailyProductSales.Channel channel;
+  private LocalDate day;
+  private Long quantity;
+}
@@ -0,0 +1,18 @@
+package be.vinci.ipl.cae.demo.models.dtos;
+
+import java.util.List;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * One page of product lots with the cursor of the next page (null on the last page).
+ */
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+public class ProductLotPage {
+
+  private List<ProductLotDto> lots;
+  private String nextCursor;
+}
@@ -0,0 +1,50 @@
+package be.vinci.ipl.cae.demo.models.dtos;
+
+/**
+ * Rank of a product among the top sellers of a period, read from a native query.
+ */
+public interface ProductRanking {
+
+  /**
+   * Measure by which the products are ranked.
+   */
+  enum Metric {
+    QUANTITY, REVENUE, SELL_THROUGH
+  }
+
+  /**
+   * Returns the rank of the product, shared by products with the same measure.
+   *
+   * @return the rank, starting at 1
+   */
+  Long getRank();
+
+  /**
+   * Returns the label of the product.
+   *
+   * @return the label
+   */
+  String getProductLabel();
+
+  /**
+   * Returns the quantity retrieved or sold in open sales during the period.
+   *
+   * @return the quantity sold
+   */
+  Long getQuantitySold();
+
+  /**
+   * Returns the quantity sold during the period times the unit price of its lots.
+   *
+   * @return the revenue
+   */
+  Double getRevenue();
+
+  /**
+   * Returns the sold quantity of the lots received during the period over their initial
+   * quantity.
+   *
+   * @return the sell-through ratio, or null if no lot was received during the period
+   */
+  Double getSellThrough();
+}
@@ -0,0 +1,22 @@
+package be.vinci.ipl.cae.demo.models.dtos;
+
+import java.util.Map;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * Sales statistics of one product: the totals of its lots, the quantities sold per day
+ * (reservations retrieved and open sales) and the quantities received per day.
+ */
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+public class ProductSalesStats {
+
+  private String productLabel;
+  private int totalReceived;
+  private int totalSold;
+  private Map<String, Integer> salesPerDay;
+  private Map<String, Integer> receivedPerDay;
+}
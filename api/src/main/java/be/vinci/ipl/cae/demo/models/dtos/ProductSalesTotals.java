@@ -0,0 +1,18 @@
+package be.vinci.ipl.cae.demo.models.dtos;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * Total quantities received and sold of the lots of a product.
+ */
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+public class ProductSalesTotals {
+
+  private String productLabel;
+  private Long totalReceived;
+  private Long totalSold;
+}
@@ -0,0 +1,21 @@
+package be.vinci.ipl.cae.demo.models.dtos;
+
+import be.vinci.ipl.cae.demo.models.entities.Reservation;
+import java.time.LocalDate;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * Filters of the reservation listings, each ignored when null.
+ */
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+public class ReservationFilter {
+
+  private Reservation.State state;
+  private String customerEmail;
+  private LocalDate recoveryFrom;
+  private LocalDate recoveryTo;
+}
@@ -0,0 +1,20 @@
+package be.vinci.ipl.cae.demo.models.dtos;
+
+import java.util.List;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * One page of reservations with the cursor of the next page (null on the last page), and the
+ * summary of all the matching reservations when requested.
+ */
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+public class ReservationPage {
+
+  private List<ReservationInfo> reservations;
+  private String nextCursor;
+  private List<ReservationStateSummary> summary;
+}
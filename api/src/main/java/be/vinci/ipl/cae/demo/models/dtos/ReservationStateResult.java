@@ -0,0 +1,18 @@
+package be.vinci.ipl.cae.demo.models.dtos;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * DTO representing the outcome of one reservation state update, with the reason of a failure.
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class ReservationStateResult {
+
+  private Long id;
+  private boolean updated;
+  private String error;
+}
@@ -0,0 +1,18 @@
+package be.vinci.ipl.cae.demo.models.dtos;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * Number and total value of the reservations in one state.
+ */
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+public class ReservationStateSummary {
+
+  private String state;
+  private long count;
+  private double totalValue;
+}
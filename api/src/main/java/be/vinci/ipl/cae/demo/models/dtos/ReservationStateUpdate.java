@@ -0,0 +1,17 @@
+package be.vinci.ipl.cae.demo.models.dtos;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * DTO representing the requested new state of one reservation.
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class ReservationStateUpdate {
+
+  private Long id;
+  private String newState;
+}
@@ -0,0 +1,44 @@
+package be.vinci.ipl.cae.demo.models.entities;
+
+import jakarta.persistence.Column;
+import jakarta.persistence.EmbeddedId;
+import jakarta.persistence.Entity;
+import jakarta.persistence.JoinColumn;
+import jakarta.persistence.ManyToOne;
+import jakarta.persistence.MapsId;
+import jakarta.persistence.Table;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * Daily sales rollup entity. Holds the quantity of a product that moved through one channel on
+ * one day, so that the statistics read a few pre-aggregated rows instead of every reservation,
+ * open sale and lot. The rows are incremented in the transaction of each movement.
+ */
+@Entity
+@Table(name = "daily_product_sales")
+@Data
+@NoArgsConstructor
+public class DailyProductSales {
+
+  @EmbeddedId
+  private DailyProductSalesId id;
+
+  @ManyToOne
+  @MapsId("product")
+  @JoinColumn(name = "product", nullable = false)
+  private Product product;
+
+  @Column(nullable = false)
+  private long quantity;
+
+  /**
+   * Enum representing the way the quantity moved.
+   */
+  public enum Channel {
+    RETRIEVED,
+    OPEN_SALE,
+    RECEIVED,
+    REMOVED
+  }
+}
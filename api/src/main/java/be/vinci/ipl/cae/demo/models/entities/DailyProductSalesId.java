@@ -0,0 +1,41 @@
+package be.vinci.ipl.cae.demo.models.entities;
+
+import jakarta.persistence.Column;
+import jakarta.persistence.Embeddable;
+import jakarta.persistence.EnumType;
+import jakarta.persistence.Enumerated;
+import java.io.Serializable;
+import java.time.LocalDate;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * Composite primary key for a daily sales rollup row.
+ * Contains the product ID, the day and the sales channel.
+ */
+@Embeddable
+@Data
+@NoArgsConstructor
+public class DailyProductSalesId implements Serializable {
+
+  private Long product;
+
+  @Column(name = "sales_day")
+  private LocalDate day;
+
+  @Enumerated(EnumType.STRING)
+  private DailyProductSales.Channel channel;
+
+  /**
+   * Constructor with parameters.
+   *
+   * @param product the ID of the product
+   * @param day     the day of the movements
+   * @param channel the channel of the movements
+   */
+  public DailyProductSalesId(Long product, LocalDate day, DailyProductSales.Channel channel) {
+    this.product = product;
+    this.day = day;
+    this.channel = channel;
+  }
+}
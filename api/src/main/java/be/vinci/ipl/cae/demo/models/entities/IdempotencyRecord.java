@@ -0,0 +1,58 @@
+package be.vinci.ipl.cae.demo.models.entities;
+
+import jakarta.persistence.Column;
+import jakarta.persistence.Entity;
+import jakarta.persistence.EnumType;
+import jakarta.persistence.Enumerated;
+import jakarta.persistence.GeneratedValue;
+import jakarta.persistence.GenerationType;
+import jakarta.persistence.Id;
+import jakarta.persistence.Table;
+import jakarta.persistence.UniqueConstraint;
+import java.time.LocalDateTime;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * Result of a creation request sent with an idempotency key, so that a retry of the same
+ * request gets the same result instead of running the creation again. The hash of the request
+ * tells a retry apart from another request reusing the key.
+ */
+@Entity
+@Table(name = "idempotency_keys",
+    uniqueConstraints = @UniqueConstraint(columnNames = {"scope", "user_id", "idempotency_key"}))
+@Data
+@NoArgsConstructor
+public class IdempotencyRecord {
+
+  @Id
+  @GeneratedValue(strategy = GenerationType.IDENTITY)
+  private Long id;
+
+  @Enumerated(EnumType.STRING)
+  @Column(nullable = false)
+  private Scope scope;
+
+  @Column(name = "user_id", nullable = false)
+  private Long userId;
+
+  @Column(name = "idempotency_key", nullable = false)
+  private String key;
+
+  @Column(name = "request_hash", nullable = false, length = 44)
+  private String requestHash;
+
+  @Column(nullable = false)
+  private boolean result;
+
+  @Column(nullable = false)
+  private LocalDateTime createdAt;
+
+  /**
+   * Enum representing the kind of creation the key applies to.
+   */
+  public enum Scope {
+    RESERVATION,
+    OPEN_SALE
+  }
+}
@@ -5,6 +5,7 @@ import jakarta.persistence.Entity;
 import jakarta.persistence.GeneratedValue;
 import jakarta.persistence.GenerationType;
 import jakarta.persistence.Id;
+import jakarta.persistence.Index;
 import jakarta.persistence.Table;
 import java.time.LocalDateTime;
 import lombok.Data;
@@ -14,7 +15,8 @@ import lombok.NoArgsConstructor;
  * Open Sale entity.
  */
 @Entity
-@Table(name = "openSales")
+@Table(name = "openSales",
+    indexes = @Index(name = "idx_open_sales_date", columnList = "open_sale_date"))
 @Data
 @NoArgsConstructor
 public class OpenSale {
@@ -7,22 +7,40 @@ import jakarta.persistence.Enumerated;
 import jakarta.persistence.GeneratedValue;
 import jakarta.persistence.GenerationType;
 import jakarta.persistence.Id;
+import jakarta.persistence.Index;
 import jakarta.persistence.JoinColumn;
 import jakarta.persistence.ManyToOne;
 import jakarta.persistence.Table;
 import java.time.LocalDateTime;
 import lombok.Data;
 import lombok.NoArgsConstructor;
+import org.hibernate.annotations.DynamicUpdate;
+import org.hibernate.annotations.GeneratedColumn;
 
 /**
- * ProductLots entity.
+ * ProductLots entity. Updates only write the changed columns, so saving a lot never overwrites
+ * the stock counters changed concurrently by the inventory engine.
  */
 @Entity
-@Table(name = "product_lots")
+@DynamicUpdate
+@Table(name = "product_lots",
+    indexes = {
+        @Index(name = "idx_product_lots_producer_state", columnList = "producer, state"),
+        @Index(name = "idx_product_lots_receipt_date", columnList = "receipt_date"),
+        @Index(name = "idx_product_lots_state_rank_id", columnList = "state_rank, lot_id")
+    })
 @Data
 @NoArgsConstructor
 public class ProductLot {
 
+  /**
+   * Branches of a CASE on a state name giving its display order: pending, accepted, for sale,
+   * rejected then sold out. This is the only definition of the order; both the state rank column
+   * and the position of a page cursor are computed from it.
+   */
+  public static final String STATE_RANK_BRANCHES = "WHEN 'PENDING' THEN 0 WHEN 'ACCEPTED' THEN 1"
+      + " WHEN 'FOR_SALE' THEN 2 WHEN 'REJECTED' THEN 3 ELSE 4 END";
+
   @Id
   @GeneratedValue(strategy = GenerationType.IDENTITY)
   private Long lotId;
@@ -74,6 +92,13 @@ public class ProductLot {
   @Column(nullable = false)
   private State state;
 
+  /**
+   * Display order of the state, computed by the database from the state column, so that every
+   * update of the state keeps it in sync. It is indexed with the ID for the pages of lots.
+   */
+  @GeneratedColumn("CASE state " + STATE_RANK_BRANCHES)
+  private Integer stateRank;
+
   /**
    * State of a product lot.
    */
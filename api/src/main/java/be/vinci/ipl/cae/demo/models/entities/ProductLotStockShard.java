@@ -0,0 +1,44 @@
+package be.vinci.ipl.cae.demo.models.entities;
+
+import jakarta.persistence.Column;
+import jakarta.persistence.EmbeddedId;
+import jakarta.persistence.Entity;
+import jakarta.persistence.JoinColumn;
+import jakarta.persistence.ManyToOne;
+import jakarta.persistence.MapsId;
+import jakarta.persistence.Table;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * Stock shard entity. The remaining stock of a high-demand lot is split across several shards so
+ * that concurrent checkouts update different rows. A shard holds its part of the remaining
+ * quantity and the reserved, sold and removed quantities taken from it since they were last
+ * consolidated into the lot.
+ */
+@Entity
+@Table(name = "product_lot_stock_shards")
+@Data
+@NoArgsConstructor
+public class ProductLotStockShard {
+
+  @EmbeddedId
+  private ProductLotStockShardId id;
+
+  @ManyToOne
+  @MapsId("productLot")
+  @JoinColumn(name = "product_lot", nullable = false)
+  private ProductLot productLot;
+
+  @Column(nullable = false)
+  private int remainingQuantity;
+
+  @Column(nullable = false)
+  private int reservedQuantity;
+
+  @Column(nullable = false)
+  private int soldQuantity;
+
+  @Column(nullable = false)
+  private int removedQuantity;
+}
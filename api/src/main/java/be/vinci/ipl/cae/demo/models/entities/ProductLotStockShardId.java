@@ -0,0 +1,30 @@
+package be.vinci.ipl.cae.demo.models.entities;
+
+import jakarta.persistence.Embeddable;
+import java.io.Serializable;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * Composite primary key for a stock shard.
+ * Contains both the product lot ID and the shard number.
+ */
+@Embeddable
+@Data
+@NoArgsConstructor
+public class ProductLotStockShardId implements Serializable {
+
+  private Long productLot;
+  private int shard;
+
+  /**
+   * Constructor with parameters.
+   *
+   * @param productLot the ID of the product lot
+   * @param shard      the number of the shard, from 0
+   */
+  public ProductLotStockShardId(Long productLot, int shard) {
+    this.productLot = productLot;
+    this.shard = shard;
+  }
+}
@@ -3,6 +3,7 @@ package be.vinci.ipl.cae.demo.models.entities;
 import jakarta.persistence.Column;
 import jakarta.persistence.EmbeddedId;
 import jakarta.persistence.Entity;
+import jakarta.persistence.Index;
 import jakarta.persistence.JoinColumn;
 import jakarta.persistence.ManyToOne;
 import jakarta.persistence.MapsId;
@@ -14,7 +15,8 @@ import lombok.NoArgsConstructor;
  * Product reservation entity.
  */
 @Entity
-@Table(name = "reservation_products")
+@Table(name = "reservation_products",
+    indexes = @Index(name = "idx_reservation_products_reservation", columnList = "reservation"))
 @Data
 @NoArgsConstructor
 public class ProductReservation {
@@ -7,6 +7,7 @@ import jakarta.persistence.Enumerated;
 import jakarta.persistence.GeneratedValue;
 import jakarta.persistence.GenerationType;
 import jakarta.persistence.Id;
+import jakarta.persistence.Index;
 import jakarta.persistence.JoinColumn;
 import jakarta.persistence.ManyToOne;
 import jakarta.persistence.Table;
@@ -20,7 +21,12 @@ import lombok.NoArgsConstructor;
  * Reservation entity.
  */
 @Entity
-@Table(name = "reservations")
+@Table(name = "reservations",
+    indexes = {
+        @Index(name = "idx_reservations_date_id",
+            columnList = "reservation_date DESC, reservation_id DESC"),
+        @Index(name = "idx_reservations_recovery_date", columnList = "recovery_date")
+    })
 @Data
 @NoArgsConstructor
 public class Reservation {
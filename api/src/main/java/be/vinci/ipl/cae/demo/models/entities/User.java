@@ -13,6 +13,7 @@ import jakarta.persistence.Table;
 import java.time.LocalDateTime;
 import lombok.Data;
 import lombok.NoArgsConstructor;
+import org.hibernate.annotations.ColumnDefault;
 
 /**
  * User entity.
@@ -63,6 +64,10 @@ public class User {
   @Column(nullable = false)
   private boolean deactivated = false;
 
+  @ColumnDefault("0")
+  @Column(nullable = false)
+  private int tokenVersion;
+
   /**
    * Role .
    */
@@ -0,0 +1,188 @@
+package be.vinci.ipl.cae.demo.repositories;
+
+import be.vinci.ipl.cae.demo.models.dtos.DailyQuantity;
+import be.vinci.ipl.cae.demo.models.dtos.ProductDailyQuantity;
+import be.vinci.ipl.cae.demo.models.entities.DailyProductSales;
+import be.vinci.ipl.cae.demo.models.entities.DailyProductSalesId;
+import java.time.LocalDate;
+import java.util.Collection;
+import java.util.List;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.CrudRepository;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+
+/**
+ * Daily sales rollup repository. The quantities are added with upserts, so that concurrent
+ * movements of the same product on the same day increment the same row.
+ */
+@Repository
+public interface DailyProductSalesRepository
+    extends CrudRepository<DailyProductSales, DailyProductSalesId> {
+
+  /**
+   * Insert statement shared by the upserts, followed by a SELECT of the added rows.
+   */
+  String INSERT = "INSERT INTO daily_product_sales (product, sales_day, channel, quantity) ";
+
+  /**
+   * Conflict clause shared by the upserts: the quantity is added to the existing row, and the
+   * product of each upserted row is returned.
+   */
+  String ADD_ON_CONFLICT = """
+       ON CONFLICT (product, sales_day, channel)
+      DO UPDATE SET quantity = daily_product_sales.quantity + EXCLUDED.quantity
+      RETURNING product
+      """;
+
+  /**
+   * Adds the quantities of retrieved reservations, on their recovery date.
+   *
+   * @param reservationIds the IDs of the retrieved reservations
+   * @return the IDs of the products of the upserted rows
+   */
+  @Query(nativeQuery = true, value = INSERT + """
+      SELECT l.product, r.recovery_date, 'RETRIEVED', SUM(pr.quantity)
+      FROM reservation_products pr
+        JOIN reservations r ON r.reservation_id = pr.reservation
+        JOIN product_lots l ON l.lot_id = pr.product_lot
+      WHERE pr.reservation IN (:reservationIds)
+      GROUP BY l.product, r.recovery_date
+      """ + ADD_ON_CONFLICT)
+  List<Long> addRetrieved(@Param("reservationIds") Collection<Long> reservationIds);
+
+  /**
+   * Adds the quantities of an open sale, on its day.
+   *
+   * @param openSaleId the ID of the open sale
+   * @return the IDs of the products of the upserted rows
+   */
+  @Query(nativeQuery = true, value = INSERT + """
+      SELECT l.product, CAST(o.open_sale_date AS date), 'OPEN_SALE', SUM(ps.quantity)
+      FROM open_sale_products ps
+        JOIN open_sales o ON o.open_sale_id = ps.open_sale_id
+        JOIN product_lots l ON l.lot_id = ps.product_lot
+      WHERE ps.open_sale_id = :openSaleId
+      GROUP BY l.product, CAST(o.open_sale_date AS date)
+      """ + ADD_ON_CONFLICT)
+  List<Long> addOpenSale(@Param("openSaleId") Long openSaleId);
+
+  /**
+   * Adds a quantity of the product of a lot.
+   *
+   * @param lotId    the ID of the product lot
+   * @param day      the day of the movement
+   * @param channel  the name of the channel of the movement
+   * @param quantity the quantity to add
+   * @return the ID of the product of the lot, or nothing when the lot does not exist
+   */
+  @Query(nativeQuery = true, value = INSERT + """
+      SELECT l.product, :day, :channel, :quantity
+      FROM product_lots l
+      WHERE l.lot_id = :lotId
+      """ + ADD_ON_CONFLICT)
+  List<Long> addForLot(@Param("lotId") Long lotId, @Param("day") LocalDate day,
+      @Param("channel") String channel, @Param("quantity") int quantity);
+
+  /**
+   * Locks the rollup against the upserts until the end of the transaction, so that a rebuild
+   * counts each movement exactly once.
+   */
+  @Modifying
+  @Query(nativeQuery = true, value = "LOCK TABLE daily_product_sales IN EXCLUSIVE MODE")
+  void lock();
+
+  /**
+   * Deletes the rows of the channels that can be rebuilt from the reservations, open sales and
+   * lots. The removed quantities are not dated anywhere else, so they are kept.
+   *
+   * @return the number of deleted rows
+   */
+  @Modifying
+  @Query("""
+      DELETE FROM DailyProductSales s
+      WHERE s.id.channel <> be.vinci.ipl.cae.demo.models.entities.DailyProductSales.Channel.REMOVED
+      """)
+  int deleteRebuildable();
+
+  /**
+   * Rebuilds the rows of the retrieved reservations, the open sales and the received lots (not
+   * rejected) in one statement.
+   *
+   * @return the number of inserted rows
+   */
+  @Modifying
+  @Query(nativeQuery = true, value = INSERT + """
+      SELECT l.product, r.recovery_date, 'RETRIEVED', SUM(pr.quantity)
+      FROM reservation_products pr
+        JOIN reservations r ON r.reservation_id = pr.reservation
+        JOIN product_lots l ON l.lot_id = pr.product_lot
+      WHERE r.state = 'RETRIEVED'
+      GROUP BY l.product, r.recovery_date
+      UNION ALL
+      SELECT l.product, CAST(o.open_sale_date AS date), 'OPEN_SALE', SUM(ps.quantity)
+      FROM open_sale_products ps
+        JOIN open_sales o ON o.open_sale_id = ps.open_sale_id
+        JOIN product_lots l ON l.lot_id = ps.product_lot
+      GROUP BY l.product, CAST(o.open_sale_date AS date)
+      UNION ALL
+      SELECT l.product, CAST(l.receipt_date AS date), 'RECEIVED', SUM(l.initial_quantity)
+      FROM product_lots l
+      WHERE l.receipt_date IS NOT NULL AND l.state <> 'REJECTED'
+      GROUP BY l.product, CAST(l.receipt_date AS date)
+      """)
+  int insertRebuilt();
+
+  /**
+   * Sums the quantities of a product moved through a channel per day. Every filter is ignored
+   * when null.
+   *
+   * @param label   the label of the product
+   * @param channel the channel of the movements
+   * @param from    the inclusive lower bound of the day
+   * @param to      the exclusive upper bound of the day
+   * @param month   the month of the day, in any year
+   * @return the quantity moved each day, ordered by date
+   */
+  @Query("""
+      SELECT new be.vinci.ipl.cae.demo.models.dtos.DailyQuantity(s.id.day, SUM(s.quantity))
+      FROM DailyProductSales s
+        JOIN s.product p
+      WHERE LOWER(p.label) = LOWER(:label)
+        AND s.id.channel = :channel
+        AND (CAST(:from AS LocalDate) IS NULL OR s.id.day >= :from)
+        AND (CAST(:to AS LocalDate) IS NULL OR s.id.day < :to)
+        AND (:month IS NULL OR EXTRACT(MONTH FROM s.id.day) = :month)
+      GROUP BY s.id.day
+      ORDER BY s.id.day
+      """)
+  List<DailyQuantity> sumPerDay(@Param("label") String label,
+      @Param("channel") DailyProductSales.Channel channel, @Param("from") LocalDate from,
+      @Param("to") LocalDate to, @Param("month") Integer month);
+
+  /**
+   * Reads the quantities of several products moved through the sales and receipt channels per
+   * day in one query.
+   *
+   * @param allProducts whether every product is read, ignoring the labels
+   * @param labels      the lower-case labels of the products
+   * @param from        the inclusive lower bound of the day, ignored when null
+   * @param to          the exclusive upper bound of the day, ignored when null
+   * @return the quantity moved by each product through each channel each day
+   */
+  @Query("""
+      SELECT new be.vinci.ipl.cae.demo.models.dtos.ProductDailyQuantity(p.label, s.id.channel,
+        s.id.day, s.quantity)
+      FROM DailyProductSales s
+        JOIN s.product p
+      WHERE (:allProducts = TRUE OR LOWER(p.label) IN :labels)
+        AND s.id.channel <> be.vinci.ipl.cae.demo.models.entities.DailyProductSales.Channel.REMOVED
+        AND (CAST(:from AS LocalDate) IS NULL OR s.id.day >= :from)
+        AND (CAST(:to AS LocalDate) IS NULL OR s.id.day < :to)
+      ORDER BY s.id.day
+      """)
+  List<ProductDailyQuantity> findPerProductAndDay(@Param("allProducts") boolean allProducts,
+      @Param("labels") Collection<String> labels, @Param("from") LocalDate from,
+      @Param("to") LocalDate to);
+}
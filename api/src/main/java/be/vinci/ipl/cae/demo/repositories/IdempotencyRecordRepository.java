@@ -0,0 +1,51 @@
+package be.vinci.ipl.cae.demo.repositories;
+
+import be.vinci.ipl.cae.demo.models.entities.IdempotencyRecord;
+import java.time.LocalDateTime;
+import java.util.Optional;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+
+/**
+ * Idempotency record repository.
+ */
+@Repository
+public interface IdempotencyRecordRepository extends JpaRepository<IdempotencyRecord, Long> {
+
+  /**
+   * Finds the record of an idempotency key.
+   *
+   * @param scope  the kind of creation
+   * @param userId the ID of the user who sent the key
+   * @param key    the idempotency key
+   * @return the record, empty when the key was not used
+   */
+  Optional<IdempotencyRecord> findByScopeAndUserIdAndKey(IdempotencyRecord.Scope scope,
+      Long userId, String key);
+
+  /**
+   * Deletes the records created before a date.
+   *
+   * @param date the date before which records are deleted
+   * @return the number of deleted records
+   */
+  @Modifying
+  @Query("DELETE FROM IdempotencyRecord r WHERE r.createdAt < :date")
+  int deleteCreatedBefore(@Param("date") LocalDateTime date);
+
+  /**
+   * Deletes the oldest records beyond a maximum number.
+   *
+   * @param maxRecords the number of most recent records kept
+   * @return the number of deleted records
+   */
+  @Modifying
+  @Query(nativeQuery = true, value = """
+      DELETE FROM idempotency_keys WHERE id <= (
+        SELECT id FROM idempotency_keys ORDER BY id DESC OFFSET :maxRecords LIMIT 1)
+      """)
+  int deleteOldestBeyond(@Param("maxRecords") int maxRecords);
+}
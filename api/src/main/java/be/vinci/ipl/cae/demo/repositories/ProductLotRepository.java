@@ -1,10 +1,16 @@
 package be.vinci.ipl.cae.demo.repositories;
 
+import be.vinci.ipl.cae.demo.models.dtos.ProductLotDto;
+import be.vinci.ipl.cae.demo.models.dtos.ProductRanking;
+import be.vinci.ipl.cae.demo.models.dtos.ProductSalesTotals;
 import be.vinci.ipl.cae.demo.models.entities.ProductLot;
-import jakarta.persistence.LockModeType;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.Collection;
+import java.util.HashMap;
 import java.util.List;
-import java.util.Optional;
-import org.springframework.data.jpa.repository.Lock;
+import java.util.Map;
+import org.springframework.data.domain.Limit;
 import org.springframework.data.jpa.repository.Query;
 import org.springframework.data.repository.CrudRepository;
 import org.springframework.data.repository.query.Param;
@@ -15,48 +21,266 @@ import org.springframework.stereotype.Repository;
  */
 @Repository
 public interface ProductLotRepository extends CrudRepository<ProductLot, Long> {
+
   /**
-   * Finds all product lots with a specific state.
+   * Select clause building a ProductLotDto from a lot and all the associations it displays, so
+   * that a listing is resolved in one joined statement instead of one query per association.
+   */
+  String LOT_DTO_SELECT = """
+      SELECT new be.vinci.ipl.cae.demo.models.dtos.ProductLotDto(
+        l.lotId, p.label, t.label, i.url, u.email, l.unitPrice, l.remainingQuantity,
+        l.availabilityDate, un.label, p.description, l.initialQuantity, l.soldQuantity,
+        l.reservedQuantity, l.state, CONCAT(u.firstname, ' ', u.lastname))
+      FROM ProductLot l
+      JOIN l.product p
+      LEFT JOIN p.type t
+      LEFT JOIN p.unit un
+      JOIN l.producer pr
+      JOIN pr.user u
+      LEFT JOIN l.image i
+      """;
+
+  /**
+   * Condition keeping the lots that were either part of a RETRIEVED reservation (by recovery
+   * date, between :from and :to) or received and not rejected (by receipt date, between
+   * :fromTime and :toTime) in the given period, optionally in a given :month of any year.
+   */
+  String SOLD_OR_RECEIVED_IN = """
+      (EXISTS (SELECT 1 FROM ProductReservation pres JOIN pres.reservation r
+            WHERE pres.productLot = l
+              AND r.state = be.vinci.ipl.cae.demo.models.entities.Reservation.State.RETRIEVED
+              AND (CAST(:from AS LocalDate) IS NULL OR r.recoveryDate >= :from)
+              AND (CAST(:to AS LocalDate) IS NULL OR r.recoveryDate < :to)
+              AND (:month IS NULL OR EXTRACT(MONTH FROM r.recoveryDate) = :month))
+        OR (l.receiptDate IS NOT NULL
+            AND l.state <> be.vinci.ipl.cae.demo.models.entities.ProductLot.State.REJECTED
+            AND (CAST(:fromTime AS LocalDateTime) IS NULL OR l.receiptDate >= :fromTime)
+            AND (CAST(:toTime AS LocalDateTime) IS NULL OR l.receiptDate < :toTime)
+            AND (:month IS NULL OR EXTRACT(MONTH FROM l.receiptDate) = :month)))
+      """;
+
+  /**
+   * Finds all product lots as DTOs, ordered by state then by ID.
    *
-   * @param state the state of the product lot (e.g., FOR_SALE)
-   * @return a list of product lots matching the given state
+   * @return the list of all product lots
    */
-  List<ProductLot> findByState(ProductLot.State state);
+  @Query(LOT_DTO_SELECT + "ORDER BY l.stateRank, l.lotId")
+  List<ProductLotDto> findAllDtosOrderedByState();
 
   /**
-   * Finds the top 5 product lots with a specific state, 
-   * ordered by availability date in descending order.
+   * Finds all product lots with a specific state as DTOs.
    *
-   * @param state the state of the product lot (e.g., FOR_SALE)
-   * @return a list of the top 5 product lots matching the given state, ordered by receipt date
+   * @param state the state of the product lot
+   * @return the list of product lots matching the given state
    */
-  List<ProductLot> findTop5ByStateOrderByReceiptDateDesc(ProductLot.State state);
+  @Query(LOT_DTO_SELECT + "WHERE l.state = :state ORDER BY l.lotId")
+  List<ProductLotDto> findDtosByState(@Param("state") ProductLot.State state);
 
   /**
-   * Finds all product lots with a product label matching the given label,
-   * ignoring case differences.
+   * Finds the most recently received product lots with a specific state as DTOs.
    *
-   * @param label the label of the product to search for
-   * @return a list of product lots whose product label matches the given label, case-insensitively
+   * @param state the state of the product lot
+   * @param limit the maximum number of lots to return
+   * @return the product lots matching the given state, most recent receipt first
    */
-  List<ProductLot> findByProductLabelIgnoreCase(String label);
+  @Query(LOT_DTO_SELECT + "WHERE l.state = :state ORDER BY l.receiptDate DESC")
+  List<ProductLotDto> findRecentDtosByState(@Param("state") ProductLot.State state, Limit limit);
 
   /**
-   * Finds all product lots with a specific producer ID.
+   * Finds all product lots of a product as DTOs, ignoring case differences in the label.
+   *
+   * @param label the label of the product
+   * @return the list of product lots of the product
+   */
+  @Query(LOT_DTO_SELECT + "WHERE LOWER(p.label) = LOWER(:label)")
+  List<ProductLotDto> findDtosByProductLabel(@Param("label") String label);
+
+  /**
+   * Finds the product lots of a product that were either part of a RETRIEVED reservation or
+   * received (and not rejected) in the given period. Every filter is ignored when null.
+   *
+   * @param label    the label of the product
+   * @param from     the inclusive lower bound of the recovery date
+   * @param to       the exclusive upper bound of the recovery date
+   * @param fromTime the inclusive lower bound of the receipt date
+   * @param toTime   the exclusive upper bound of the receipt date
+   * @param month    the month of the recovery or receipt date, in any year
+   * @return the list of matching product lots
+   */
+  @Query(LOT_DTO_SELECT + "WHERE LOWER(p.label) = LOWER(:label) AND " + SOLD_OR_RECEIVED_IN)
+  List<ProductLotDto> findDtosSoldOrReceivedIn(@Param("label") String label,
+      @Param("from") LocalDate from, @Param("to") LocalDate to,
+      @Param("fromTime") LocalDateTime fromTime, @Param("toTime") LocalDateTime toTime,
+      @Param("month") Integer month);
+
+  /**
+   * Sums the initial and sold quantities of the lots of several products in one grouped query.
+   * Every product is returned, with zero totals when none of its lots matches. The period filters
+   * are those of findDtosSoldOrReceivedIn and only apply when filtered is true.
+   *
+   * @param allProducts whether every product is returned, ignoring the labels
+   * @param labels      the lower-case labels of the products
+   * @param filtered    whether the lots are filtered by period
+   * @param month       the month of the recovery or receipt date, in any year
+   * @param from        the inclusive lower bound of the recovery date
+   * @param to          the exclusive upper bound of the recovery date
+   * @param fromTime    the inclusive lower bound of the receipt date
+   * @param toTime      the exclusive upper bound of the receipt date
+   * @return the totals of each product, ordered by label
+   */
+  @Query("""
+      SELECT new be.vinci.ipl.cae.demo.models.dtos.ProductSalesTotals(p.label,
+        COALESCE(SUM(l.initialQuantity), 0L), COALESCE(SUM(l.soldQuantity), 0L))
+      FROM Product p
+        LEFT JOIN ProductLot l ON l.product = p AND (:filtered = FALSE OR
+      """ + SOLD_OR_RECEIVED_IN + """
+        )
+      WHERE :allProducts = TRUE OR LOWER(p.label) IN :labels
+      GROUP BY p.label
+      ORDER BY p.label
+      """)
+  List<ProductSalesTotals> sumTotalsByProduct(@Param("allProducts") boolean allProducts,
+      @Param("labels") Collection<String> labels, @Param("filtered") boolean filtered,
+      @Param("month") Integer month, @Param("from") LocalDate from, @Param("to") LocalDate to,
+      @Param("fromTime") LocalDateTime fromTime, @Param("toTime") LocalDateTime toTime);
+
+  /**
+   * Ranks the products by quantity sold, revenue or sell-through over a period, in one
+   * statement. The quantities sold are those of the RETRIEVED reservations (by recovery date)
+   * and of the open sales (by date); the sell-through is that of the lots received and not
+   * rejected in the period. Products without any sale, or without any received lot for the
+   * sell-through, are not ranked. Tied products share a rank, so more than limit products may
+   * be returned. A null bound is replaced by an infinite date, so that each date column is
+   * filtered by a plain range its index can serve.
+   *
+   * @param metric the name of the ranking metric
+   * @param from   the inclusive lower bound of the period
+   * @param to     the exclusive upper bound of the period
+   * @param limit  the lowest rank returned
+   * @return the ranked products, ordered by rank then label
+   */
+  @Query(nativeQuery = true, value = """
+      WITH sales AS (
+        SELECT pr.product_lot AS lot, pr.quantity
+        FROM reservations r
+          JOIN reservation_products pr ON pr.reservation = r.reservation_id
+        WHERE r.state = 'RETRIEVED'
+          AND r.recovery_date >= COALESCE(CAST(:from AS date), '-infinity')
+          AND r.recovery_date < COALESCE(CAST(:to AS date), 'infinity')
+        UNION ALL
+        SELECT ps.product_lot, ps.quantity
+        FROM open_sales o
+          JOIN open_sale_products ps ON ps.open_sale_id = o.open_sale_id
+        WHERE o.open_sale_date >= COALESCE(CAST(:from AS date), '-infinity')
+          AND o.open_sale_date < COALESCE(CAST(:to AS date), 'infinity')),
+      sold AS (
+        SELECT l.product, SUM(s.quantity) AS quantity, SUM(s.quantity * l.unit_price) AS revenue
+        FROM sales s
+          JOIN product_lots l ON l.lot_id = s.lot
+        GROUP BY l.product),
+      received AS (
+        SELECT l.product,
+          CAST(SUM(l.sold_quantity) AS float8) / NULLIF(SUM(l.initial_quantity), 0) AS ratio
+        FROM product_lots l
+        WHERE l.receipt_date IS NOT NULL AND l.state <> 'REJECTED'
+          AND l.receipt_date >= COALESCE(CAST(:from AS date), '-infinity')
+          AND l.receipt_date < COALESCE(CAST(:to AS date), 'infinity')
+        GROUP BY l.product),
+      measured AS (
+        SELECT p.label, s.quantity, s.revenue, r.ratio,
+          CASE :metric
+            WHEN 'REVENUE' THEN s.revenue
+            WHEN 'SELL_THROUGH' THEN r.ratio
+            ELSE s.quantity
+          END AS measure
+        FROM products p
+          LEFT JOIN sold s ON s.product = p.product_id
+          LEFT JOIN received r ON r.product = p.product_id),
+      ranked AS (
+        SELECT RANK() OVER (ORDER BY measure DESC) AS rank, label, quantity, revenue, ratio
+        FROM measured
+        WHERE measure IS NOT NULL)
+      SELECT rank AS "rank", label AS "productLabel",
+        COALESCE(quantity, 0) AS "quantitySold", COALESCE(revenue, 0) AS "revenue",
+        ratio AS "sellThrough"
+      FROM ranked
+      WHERE rank <= :limit
+      ORDER BY rank, label
+      """)
+  List<ProductRanking> rankProducts(@Param("metric") String metric, @Param("from") LocalDate from,
+      @Param("to") LocalDate to, @Param("limit") int limit);
+
+  /**
+   * Finds one page of product lots as DTOs, ordered by state rank then by ID. The page starts
+   * right after the given (state, lot ID) position, which the (state rank, ID) index seeks to, so
+   * that deep pages do not scan the previous ones. Every filter is ignored when null, and is
+   * checked along the index, so a filter matching few lots still reads the lots it skips.
+   *
+   * @param state      the state of the product lot
+   * @param type       the label of the product type
+   * @param email      the email of the producer
+   * @param from       the inclusive lower bound of the availability date
+   * @param to         the exclusive upper bound of the availability date
+   * @param afterState the state name of the last lot of the previous page (null for the first)
+   * @param afterId    the ID of the last lot of the previous page (0 for the first)
+   * @param limit      the maximum number of lots to return
+   * @return the page of product lots
+   */
+  @Query(LOT_DTO_SELECT + """
+      WHERE (:state IS NULL OR l.state = :state)
+        AND (:type IS NULL OR LOWER(t.label) = LOWER(CAST(:type AS String)))
+        AND (:email IS NULL OR u.email = :email)
+        AND (CAST(:from AS LocalDateTime) IS NULL OR l.availabilityDate >= :from)
+        AND (CAST(:to AS LocalDateTime) IS NULL OR l.availabilityDate < :to)
+        AND (l.stateRank, l.lotId) >
+          (CASE COALESCE(:afterState, 'PENDING') """ + ProductLot.STATE_RANK_BRANCHES + """
+          , :afterId)
+      ORDER BY l.stateRank, l.lotId
+      """)
+  List<ProductLotDto> findDtoPage(@Param("state") ProductLot.State state,
+      @Param("type") String type, @Param("email") String email,
+      @Param("from") LocalDateTime from, @Param("to") LocalDateTime to,
+      @Param("afterState") String afterState, @Param("afterId") long afterId,
+      Limit limit);
+
+  /**
+   * Finds all product lots with a specific state.
+   *
+   * @param state the state of the product lot (e.g., FOR_SALE)
+   * @return a list of product lots matching the given state
+   */
+  List<ProductLot> findByState(ProductLot.State state);
+
+  /**
+   * Finds all product lots of a producer as DTOs, ordered by ID.
    *
    * @param producerId the ID of the producer
    * @return a list of product lots associated with the given producer ID
    */
-  List<ProductLot> findByProducerUserId(Long producerId);
+  @Query(LOT_DTO_SELECT + "WHERE pr.userId = :producerId ORDER BY l.lotId")
+  List<ProductLotDto> findDtosByProducerId(@Param("producerId") Long producerId);
 
   /**
-   * Retrieves a ProductLot by its ID using a pessimistic write lock.
+   * Finds the product lots of the producer with the given email in a specific state as DTOs,
+   * ordered by ID.
    *
-   * @param id the ID of the product lot to retrieve and lock
-   * @return an Optional containing the found  ProductLot, or empty if not found
+   * @param email the email of the producer
+   * @param state the state of the product lots
+   * @return a list of product lots of that producer in that state
    */
-  @Lock(LockModeType.PESSIMISTIC_WRITE)
-  @Query("SELECT p FROM ProductLot p WHERE p.lotId = :id")
-  Optional<ProductLot> findByIdForUpdate(@Param("id") Long id);
-}
+  @Query(LOT_DTO_SELECT + "WHERE u.email = :email AND l.state = :state ORDER BY l.lotId")
+  List<ProductLotDto> findDtosByProducerEmailAndState(@Param("email") String email,
+      @Param("state") ProductLot.State state);
 
+  /**
+   * Loads the given product lots in a single statement, keyed by their ID.
+   *
+   * @param lotIds the IDs of the product lots
+   * @return the product lots found, keyed by ID
+   */
+  default Map<Long, ProductLot> findMapByIds(Iterable<Long> lotIds) {
+    Map<Long, ProductLot> lots = new HashMap<>();
+    findAllById(lotIds).forEach(lot -> lots.put(lot.getLotId(), lot));
+    return lots;
+  }
+}
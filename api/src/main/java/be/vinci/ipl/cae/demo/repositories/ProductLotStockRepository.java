@@ -0,0 +1,186 @@
+package be.vinci.ipl.cae.demo.repositories;
+
+import be.vinci.ipl.cae.demo.models.entities.ProductLot;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+
+/**
+ * Stock mutations of the product lots. Each mutation is a single conditional UPDATE: the
+ * condition is checked and the quantities and state are changed atomically by the database,
+ * without reading or locking the lot first. Every method returns the number of updated rows,
+ * 0 meaning the lot does not exist or its stock does not allow the mutation. The remaining
+ * stock of a sharded lot lives in its shards, so it is never changed here.
+ */
+@Repository
+public interface ProductLotStockRepository
+    extends org.springframework.data.repository.Repository<ProductLot, Long> {
+
+  /**
+   * Moves a quantity from the remaining stock to the reserved stock, marking the lot as sold out
+   * when nothing remains.
+   *
+   * @param lotId    the ID of the product lot
+   * @param quantity the quantity to reserve
+   * @return the number of updated lots
+   */
+  @Modifying
+  @Query("""
+      UPDATE ProductLot l
+      SET l.remainingQuantity = l.remainingQuantity - :quantity,
+        l.reservedQuantity = l.reservedQuantity + :quantity,
+        l.state = CASE WHEN l.remainingQuantity = :quantity
+          THEN be.vinci.ipl.cae.demo.models.entities.ProductLot.State.SOLD_OUT
+          ELSE l.state END
+      WHERE l.lotId = :lotId AND l.remainingQuantity >= :quantity
+        AND NOT EXISTS (SELECT 1 FROM ProductLotStockShard s WHERE s.id.productLot = l.lotId)
+      """)
+  int reserve(@Param("lotId") Long lotId, @Param("quantity") int quantity);
+
+  /**
+   * Sells a quantity of a lot for sale directly from the remaining stock, marking the lot as sold
+   * out when nothing remains.
+   *
+   * @param lotId    the ID of the product lot
+   * @param quantity the quantity to sell
+   * @return the number of updated lots
+   */
+  @Modifying
+  @Query("""
+      UPDATE ProductLot l
+      SET l.remainingQuantity = l.remainingQuantity - :quantity,
+        l.soldQuantity = l.soldQuantity + :quantity,
+        l.state = CASE WHEN l.remainingQuantity = :quantity
+          THEN be.vinci.ipl.cae.demo.models.entities.ProductLot.State.SOLD_OUT
+          ELSE l.state END
+      WHERE l.lotId = :lotId AND l.remainingQuantity >= :quantity
+        AND l.state = be.vinci.ipl.cae.demo.models.entities.ProductLot.State.FOR_SALE
+        AND NOT EXISTS (SELECT 1 FROM ProductLotStockShard s WHERE s.id.productLot = l.lotId)
+      """)
+  int sell(@Param("lotId") Long lotId, @Param("quantity") int quantity);
+
+  /**
+   * Gives a reserved quantity back to the remaining stock, putting a sold out lot back on sale.
+   *
+   * @param lotId    the ID of the product lot
+   * @param quantity the reserved quantity to release
+   * @return the number of updated lots
+   */
+  @Modifying
+  @Query("""
+      UPDATE ProductLot l
+      SET l.remainingQuantity = l.remainingQuantity + :quantity,
+        l.reservedQuantity = l.reservedQuantity - :quantity,
+        l.state = CASE
+          WHEN l.state = be.vinci.ipl.cae.demo.models.entities.ProductLot.State.SOLD_OUT
+          THEN be.vinci.ipl.cae.demo.models.entities.ProductLot.State.FOR_SALE
+          ELSE l.state END
+      WHERE l.lotId = :lotId AND l.reservedQuantity >= :quantity
+        AND NOT EXISTS (SELECT 1 FROM ProductLotStockShard s WHERE s.id.productLot = l.lotId)
+      """)
+  int release(@Param("lotId") Long lotId, @Param("quantity") int quantity);
+
+  /**
+   * Moves a reserved quantity to the sold stock once the reservation is retrieved.
+   *
+   * @param lotId    the ID of the product lot
+   * @param quantity the reserved quantity to sell
+   * @return the number of updated lots
+   */
+  @Modifying
+  @Query("""
+      UPDATE ProductLot l
+      SET l.reservedQuantity = l.reservedQuantity - :quantity,
+        l.soldQuantity = l.soldQuantity + :quantity
+      WHERE l.lotId = :lotId AND l.reservedQuantity >= :quantity
+      """)
+  int complete(@Param("lotId") Long lotId, @Param("quantity") int quantity);
+
+  /**
+   * Removes a quantity from the remaining stock (loss, damage...), marking the lot as sold out
+   * when nothing remains.
+   *
+   * @param lotId    the ID of the product lot
+   * @param quantity the quantity to remove
+   * @return the number of updated lots
+   */
+  @Modifying
+  @Query("""
+      UPDATE ProductLot l
+      SET l.remainingQuantity = l.remainingQuantity - :quantity,
+        l.removedQuantity = l.removedQuantity + :quantity,
+        l.state = CASE WHEN l.remainingQuantity = :quantity
+          THEN be.vinci.ipl.cae.demo.models.entities.ProductLot.State.SOLD_OUT
+          ELSE l.state END
+      WHERE l.lotId = :lotId AND l.remainingQuantity >= :quantity
+        AND NOT EXISTS (SELECT 1 FROM ProductLotStockShard s WHERE s.id.productLot = l.lotId)
+      """)
+  int remove(@Param("lotId") Long lotId, @Param("quantity") int quantity);
+
+  /**
+   * Recomputes the stock of the lots from the reservation and open sale lines, which are written
+   * in the transaction of each mutation: the reserved quantity is the quantity of the RESERVED
+   * reservations, the sold quantity that of the RETRIEVED reservations and of the open sales, and
+   * the remaining quantity is what is left of the initial quantity once the removed quantity is
+   * also taken out. Only the lots whose stock differs are updated, with the state flipped like
+   * applyDelta does.
+   *
+   * @return the number of updated lots
+   */
+  @Modifying
+  @Query(nativeQuery = true, value = """
+      UPDATE product_lots l
+      SET reserved_quantity = t.reserved,
+        sold_quantity = t.sold,
+        remaining_quantity = t.remaining,
+        state = CASE
+          WHEN t.remaining = 0 AND l.remaining_quantity > 0 THEN 'SOLD_OUT'
+          WHEN t.remaining > 0 AND l.state = 'SOLD_OUT' THEN 'FOR_SALE'
+          ELSE l.state END
+      FROM (SELECT s.lot_id, s.reserved, s.sold,
+              s.initial_quantity - s.reserved - s.sold - s.removed_quantity AS remaining
+            FROM (SELECT lot.lot_id, lot.initial_quantity, lot.removed_quantity,
+                    COALESCE((SELECT SUM(pr.quantity) FROM reservation_products pr
+                        JOIN reservations r ON r.reservation_id = pr.reservation
+                      WHERE pr.product_lot = lot.lot_id AND r.state = 'RESERVED'), 0) AS reserved,
+                    COALESCE((SELECT SUM(pr.quantity) FROM reservation_products pr
+                        JOIN reservations r ON r.reservation_id = pr.reservation
+                      WHERE pr.product_lot = lot.lot_id AND r.state = 'RETRIEVED'), 0)
+                    + COALESCE((SELECT SUM(ps.quantity) FROM open_sale_products ps
+                      WHERE ps.product_lot = lot.lot_id), 0) AS sold
+                  FROM product_lots lot) s) t
+      WHERE l.lot_id = t.lot_id
+        AND (l.reserved_quantity <> t.reserved OR l.sold_quantity <> t.sold
+          OR l.remaining_quantity <> t.remaining)
+      """)
+  int rebuildFromLines();
+
+  /**
+   * Adds already validated stock changes to a lot, flipping it to sold out when its remaining
+   * stock drops to zero and back on sale when a sold out lot gets stock back.
+   *
+   * @param lotId     the ID of the product lot
+   * @param remaining the change of the remaining quantity
+   * @param reserved  the change of the reserved quantity
+   * @param sold      the change of the sold quantity
+   * @return the number of updated lots
+   */
+  @Modifying
+  @Query("""
+      UPDATE ProductLot l
+      SET l.remainingQuantity = l.remainingQuantity + :remaining,
+        l.reservedQuantity = l.reservedQuantity + :reserved,
+        l.soldQuantity = l.soldQuantity + :sold,
+        l.state = CASE
+          WHEN :remaining < 0 AND l.remainingQuantity + :remaining = 0
+          THEN be.vinci.ipl.cae.demo.models.entities.ProductLot.State.SOLD_OUT
+          WHEN :remaining > 0
+            AND l.state = be.vinci.ipl.cae.demo.models.entities.ProductLot.State.SOLD_OUT
+          THEN be.vinci.ipl.cae.demo.models.entities.ProductLot.State.FOR_SALE
+          ELSE l.state END
+      WHERE l.lotId = :lotId
+      """)
+  int applyDelta(@Param("lotId") Long lotId, @Param("remaining") int remaining,
+      @Param("reserved") int reserved, @Param("sold") int sold);
+}
@@ -0,0 +1,228 @@
+package be.vinci.ipl.cae.demo.repositories;
+
+import be.vinci.ipl.cae.demo.models.entities.ProductLotStockShard;
+import be.vinci.ipl.cae.demo.models.entities.ProductLotStockShardId;
+import jakarta.persistence.LockModeType;
+import java.util.List;
+import java.util.Optional;
+import org.springframework.data.jpa.repository.Lock;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.CrudRepository;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+
+/**
+ * Stock shard repository.
+ */
+@Repository
+public interface ProductLotStockShardRepository
+    extends CrudRepository<ProductLotStockShard, ProductLotStockShardId> {
+
+  /**
+   * Counts the shards of a product lot.
+   *
+   * @param lotId the ID of the product lot
+   * @return the number of shards, 0 when the lot is not sharded
+   */
+  int countByIdProductLot(Long lotId);
+
+  /**
+   * Finds the IDs of the sharded product lots.
+   *
+   * @return the IDs of the lots having shards
+   */
+  @Query("SELECT DISTINCT s.id.productLot FROM ProductLotStockShard s")
+  List<Long> findShardedLotIds();
+
+  /**
+   * Adds stock changes to one shard, unless its remaining quantity would become negative. Only
+   * used for changes that do not lower the reserved quantity.
+   *
+   * @param lotId     the ID of the product lot
+   * @param shard     the number of the shard
+   * @param remaining the change of the remaining quantity
+   * @param reserved  the change of the reserved quantity
+   * @param sold      the change of the sold quantity
+   * @param removed   the change of the removed quantity
+   * @return the number of updated shards
+   */
+  @Modifying
+  @Query("""
+      UPDATE ProductLotStockShard s
+      SET s.remainingQuantity = s.remainingQuantity + :remaining,
+        s.reservedQuantity = s.reservedQuantity + :reserved,
+        s.soldQuantity = s.soldQuantity + :sold,
+        s.removedQuantity = s.removedQuantity + :removed
+      WHERE s.id.productLot = :lotId AND s.id.shard = :shard
+        AND s.remainingQuantity + :remaining >= 0
+      """)
+  int update(@Param("lotId") Long lotId, @Param("shard") int shard,
+      @Param("remaining") int remaining, @Param("reserved") int reserved,
+      @Param("sold") int sold, @Param("removed") int removed);
+
+  /**
+   * Moves a reserved quantity out of one shard, to its remaining or sold quantity, unless the
+   * reserved quantity of the whole lot, its row plus the changes held by all its shards, is
+   * lower. A shard only holds the changes since the last consolidation, so its own reserved
+   * quantity may become negative. The caller locks the lot row first, so that the checks of a lot
+   * run one at a time.
+   *
+   * @param lotId     the ID of the product lot
+   * @param shard     the number of the shard
+   * @param quantity  the reserved quantity to move
+   * @param remaining the part of the quantity given back to the remaining quantity
+   * @param sold      the part of the quantity sold
+   * @return the number of updated shards
+   */
+  @Modifying
+  @Query("""
+      UPDATE ProductLotStockShard s
+      SET s.remainingQuantity = s.remainingQuantity + :remaining,
+        s.reservedQuantity = s.reservedQuantity - :quantity,
+        s.soldQuantity = s.soldQuantity + :sold
+      WHERE s.id.productLot = :lotId AND s.id.shard = :shard
+        AND (SELECT l.reservedQuantity FROM ProductLot l WHERE l.lotId = :lotId)
+          + (SELECT SUM(o.reservedQuantity) FROM ProductLotStockShard o
+            WHERE o.id.productLot = :lotId) >= :quantity
+      """)
+  int takeReserved(@Param("lotId") Long lotId, @Param("shard") int shard,
+      @Param("quantity") int quantity, @Param("remaining") int remaining,
+      @Param("sold") int sold);
+
+  /**
+   * Sells a quantity from one shard of a lot on sale. A sharded lot may still be marked sold out
+   * while its shards got stock back, until the next consolidation.
+   *
+   * @param lotId    the ID of the product lot
+   * @param shard    the number of the shard
+   * @param quantity the quantity to sell
+   * @return the number of updated shards
+   */
+  @Modifying
+  @Query("""
+      UPDATE ProductLotStockShard s
+      SET s.remainingQuantity = s.remainingQuantity - :quantity,
+        s.soldQuantity = s.soldQuantity + :quantity
+      WHERE s.id.productLot = :lotId AND s.id.shard = :shard
+        AND s.remainingQuantity >= :quantity
+        AND EXISTS (SELECT 1 FROM ProductLot l WHERE l.lotId = :lotId
+          AND l.state IN (be.vinci.ipl.cae.demo.models.entities.ProductLot.State.FOR_SALE,
+            be.vinci.ipl.cae.demo.models.entities.ProductLot.State.SOLD_OUT))
+      """)
+  int sell(@Param("lotId") Long lotId, @Param("shard") int shard,
+      @Param("quantity") int quantity);
+
+  /**
+   * Consolidates the shards of a lot into the lot in one statement: the quantities taken from
+   * the shards are added to the lot, the remaining quantity of the lot becomes the sum of the
+   * shards, and that sum is spread evenly across the shards again so that large requests do not
+   * fail on a nearly empty shard. The lot and shards locked by other transactions are skipped
+   * rather than waited for, so that a consolidation never queues up with checkouts; skipped
+   * shards keep their changes for the next one, and only their remaining quantity is counted.
+   *
+   * @param lotId the ID of the product lot
+   * @return the number of updated lots
+   */
+  @Modifying
+  @Query(nativeQuery = true, value = """
+      WITH lot AS (
+        SELECT lot_id FROM product_lots WHERE lot_id = :lotId FOR NO KEY UPDATE SKIP LOCKED),
+      old AS (
+        SELECT s.shard, s.remaining_quantity, s.reserved_quantity, s.sold_quantity,
+          s.removed_quantity
+        FROM product_lot_stock_shards s JOIN lot ON s.product_lot = lot.lot_id
+        ORDER BY s.shard FOR UPDATE OF s SKIP LOCKED),
+      totals AS (
+        SELECT COALESCE(SUM(remaining_quantity), 0) AS remaining,
+          COALESCE(SUM(reserved_quantity), 0) AS reserved,
+          COALESCE(SUM(sold_quantity), 0) AS sold,
+          COALESCE(SUM(removed_quantity), 0) AS removed, COUNT(*) AS shards
+        FROM old),
+      spread AS (
+        UPDATE product_lot_stock_shards s
+        SET remaining_quantity = t.remaining / t.shards + CASE
+            WHEN (SELECT COUNT(*) FROM old o WHERE o.shard < s.shard) < t.remaining % t.shards
+            THEN 1 ELSE 0 END,
+          reserved_quantity = 0, sold_quantity = 0, removed_quantity = 0
+        FROM totals t
+        WHERE s.product_lot = :lotId AND s.shard IN (SELECT shard FROM old) AND t.shards > 0
+        RETURNING s.shard),
+      skipped AS (
+        SELECT COALESCE(SUM(remaining_quantity), 0) AS remaining
+        FROM product_lot_stock_shards
+        WHERE product_lot = :lotId AND shard NOT IN (SELECT shard FROM old))
+      UPDATE product_lots l
+      SET remaining_quantity = t.remaining + k.remaining,
+        reserved_quantity = l.reserved_quantity + t.reserved,
+        sold_quantity = l.sold_quantity + t.sold,
+        removed_quantity = l.removed_quantity + t.removed,
+        state = CASE
+          WHEN t.remaining + k.remaining = 0 AND l.state = 'FOR_SALE' THEN 'SOLD_OUT'
+          WHEN t.remaining + k.remaining > 0 AND l.state = 'SOLD_OUT' THEN 'FOR_SALE'
+          ELSE l.state END
+      FROM totals t, skipped k
+      WHERE l.lot_id = :lotId AND t.shards > 0
+      """)
+  int consolidate(@Param("lotId") Long lotId);
+
+  /**
+   * Locks the shards of a lot in shard order until the end of the transaction, waiting for the
+   * checkouts using them.
+   *
+   * @param lotId the ID of the product lot
+   * @return the numbers of the locked shards
+   */
+  @Query(nativeQuery = true, value = """
+      SELECT shard FROM product_lot_stock_shards WHERE product_lot = :lotId
+      ORDER BY shard FOR UPDATE
+      """)
+  List<Integer> lockShards(@Param("lotId") Long lotId);
+
+  /**
+   * Deletes the shards of a lot.
+   *
+   * @param lotId the ID of the product lot
+   */
+  @Modifying
+  @Query("DELETE FROM ProductLotStockShard s WHERE s.id.productLot = :lotId")
+  void deleteByLotId(@Param("lotId") Long lotId);
+
+  /**
+   * Reads the remaining quantity of a lot and locks its row until the end of the transaction.
+   *
+   * @param lotId the ID of the product lot
+   * @return the remaining quantity, empty when the lot does not exist
+   */
+  @Lock(LockModeType.PESSIMISTIC_WRITE)
+  @Query("SELECT l.remainingQuantity FROM ProductLot l WHERE l.lotId = :lotId")
+  Optional<Integer> findRemainingQuantityForUpdate(@Param("lotId") Long lotId);
+
+  /**
+   * Empties the remaining quantity of a lot whose stock is being moved to shards. A checkout
+   * waiting on the lot row then fails instead of taking stock that now lives in the shards.
+   *
+   * @param lotId the ID of the product lot
+   */
+  @Modifying
+  @Query("UPDATE ProductLot l SET l.remainingQuantity = 0 WHERE l.lotId = :lotId")
+  void clearRemainingQuantity(@Param("lotId") Long lotId);
+
+  /**
+   * Creates the shards of a lot, spreading a remaining quantity evenly across them.
+   *
+   * @param lotId     the ID of the product lot
+   * @param shards    the number of shards
+   * @param remaining the remaining quantity to spread
+   */
+  @Modifying
+  @Query(nativeQuery = true, value = """
+      INSERT INTO product_lot_stock_shards (product_lot, shard, remaining_quantity,
+        reserved_quantity, sold_quantity, removed_quantity)
+      SELECT :lotId, g,
+        :remaining / :shards + CASE WHEN g < :remaining % :shards THEN 1 ELSE 0 END, 0, 0, 0
+      FROM generate_series(0, :shards - 1) AS g
+      """)
+  void createShards(@Param("lotId") Long lotId, @Param("shards") int shards,
+      @Param("remaining") int remaining);
+}
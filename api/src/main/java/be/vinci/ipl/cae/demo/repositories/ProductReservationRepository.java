@@ -1,10 +1,16 @@
 package be.vinci.ipl.cae.demo.repositories;
 
-import be.vinci.ipl.cae.demo.models.entities.ProductLot;
+import be.vinci.ipl.cae.demo.models.dtos.LotQuantity;
+import be.vinci.ipl.cae.demo.models.dtos.ManifestLine;
+import be.vinci.ipl.cae.demo.models.dtos.ReservedProductsDto;
 import be.vinci.ipl.cae.demo.models.entities.ProductReservation;
 import be.vinci.ipl.cae.demo.models.entities.Reservation;
+import java.time.LocalDate;
+import java.util.Collection;
 import java.util.List;
+import org.springframework.data.jpa.repository.Query;
 import org.springframework.data.repository.CrudRepository;
+import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 
 /**
@@ -21,10 +27,67 @@ public interface ProductReservationRepository extends CrudRepository<ProductRese
   List<ProductReservation> findAllByReservation(Reservation reservation);
 
   /**
-   * Finds all product reservations associated with any of the given product lots.
+   * Sums the reserved quantities of the given reservations per product lot.
    *
-   * @param lots the list of product lots to match reservations against
-   * @return a list of product reservations linked to the specified product lots
+   * @param reservationIds the IDs of the reservations
+   * @return the total quantity of each product lot, in ascending lot ID order
    */
-  List<ProductReservation> findByProductLotIn(List<ProductLot> lots);
+  @Query("""
+      SELECT new be.vinci.ipl.cae.demo.models.dtos.LotQuantity(pr.productLot.lotId,
+        SUM(pr.quantity))
+      FROM ProductReservation pr
+      WHERE pr.reservation.reservationId IN :reservationIds
+      GROUP BY pr.productLot.lotId
+      ORDER BY pr.productLot.lotId
+      """)
+  List<LotQuantity> sumQuantitiesByLot(
+      @Param("reservationIds") Collection<Long> reservationIds);
+
+  /**
+   * Sums the quantities still to be retrieved on a recovery date per customer and product lot,
+   * in one aggregate query.
+   *
+   * @param recoveryDate the recovery date
+   * @return the total quantity of each product lot for each customer, ordered by customer name
+   *         then lot ID
+   */
+  @Query("""
+      SELECT new be.vinci.ipl.cae.demo.models.dtos.ManifestLine(c.email, c.firstname,
+        c.lastname, l.lotId, p.label, u.label, SUM(pr.quantity))
+      FROM ProductReservation pr
+        JOIN pr.reservation r
+        JOIN r.customer c
+        JOIN pr.productLot l
+        JOIN l.product p
+        JOIN p.unit u
+      WHERE r.recoveryDate = :recoveryDate
+        AND r.state = be.vinci.ipl.cae.demo.models.entities.Reservation.State.RESERVED
+      GROUP BY c.email, c.firstname, c.lastname, l.lotId, p.label, u.label
+      ORDER BY c.lastname, c.firstname, c.email, l.lotId
+      """)
+  List<ManifestLine> findManifestLines(@Param("recoveryDate") LocalDate recoveryDate);
+
+  /**
+   * Retrieves the reserved products of a reservation with their lot, product and unit, in one
+   * projection query. The reservation must belong to the given customer, if any.
+   *
+   * @param reservationId the ID of the reservation
+   * @param customerId    the ID of the customer owning the reservation, null for any customer
+   * @return the reserved products in ascending lot ID order, empty if the reservation does not
+   *         exist or belongs to someone else
+   */
+  @Query("""
+      SELECT new be.vinci.ipl.cae.demo.models.dtos.ReservedProductsDto(l.lotId, p.label,
+        p.description, u.label, l.unitPrice, pr.quantity)
+      FROM ProductReservation pr
+        JOIN pr.reservation r
+        JOIN pr.productLot l
+        JOIN l.product p
+        JOIN p.unit u
+      WHERE r.reservationId = :reservationId
+        AND (CAST(:customerId AS Long) IS NULL OR r.customer.userId = :customerId)
+      ORDER BY l.lotId
+      """)
+  List<ReservedProductsDto> findDetails(@Param("reservationId") long reservationId,
+      @Param("customerId") Long customerId);
 }
@@ -1,9 +1,20 @@
 package be.vinci.ipl.cae.demo.repositories;
 
+import be.vinci.ipl.cae.demo.models.dtos.ReservationInfo;
+import be.vinci.ipl.cae.demo.models.dtos.ReservationStateSummary;
 import be.vinci.ipl.cae.demo.models.entities.Reservation;
 import be.vinci.ipl.cae.demo.models.entities.User;
+import jakarta.persistence.LockModeType;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.Collection;
 import java.util.List;
+import org.springframework.data.domain.Limit;
+import org.springframework.data.jpa.repository.Lock;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
 import org.springframework.data.repository.CrudRepository;
+import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 
 /**
@@ -28,4 +39,195 @@ public interface ReservationRepository extends CrudRepository<Reservation, Long>
   @Override
   List<Reservation> findAll();
 
+  /**
+   * Query building a ReservationInfo from a reservation and its customer, the total price being
+   * summed over the lines of each returned reservation only, so that a limited listing does not
+   * join the lines of the reservations it leaves out.
+   */
+  String RESERVATION_INFO_SELECT = """
+      SELECT new be.vinci.ipl.cae.demo.models.dtos.ReservationInfo(r.reservationId,
+        r.reservationDate, r.recoveryDate, CAST(r.state AS String),
+        COALESCE((SELECT SUM(l.unitPrice * pr.quantity)
+          FROM ProductReservation pr JOIN pr.productLot l
+          WHERE pr.reservation = r), 0.0),
+        c.email, c.firstname, c.lastname)
+      FROM Reservation r
+        JOIN r.customer c
+      """;
+
+  /**
+   * Joins of a reservation with its customer and its lines.
+   */
+  String RESERVATION_JOINS = """
+      FROM Reservation r
+        JOIN r.customer c
+        LEFT JOIN ProductReservation pr ON pr.reservation = r
+        LEFT JOIN pr.productLot l
+      """;
+
+  /**
+   * Filters of the reservation listings, each ignored when null.
+   */
+  String RESERVATION_FILTERS = """
+      WHERE (CAST(:customerId AS Long) IS NULL OR c.userId = :customerId)
+        AND (:state IS NULL OR r.state = :state)
+        AND (:email IS NULL OR c.email = :email)
+        AND (CAST(:recoveryFrom AS LocalDate) IS NULL OR r.recoveryDate >= :recoveryFrom)
+        AND (CAST(:recoveryTo AS LocalDate) IS NULL OR r.recoveryDate < :recoveryTo)
+      """;
+
+  /**
+   * Checks whether a reservation exists and belongs to another customer than the given one.
+   *
+   * @param reservationId the ID of the reservation
+   * @param userId        the ID of the customer
+   * @return true if the reservation belongs to someone else
+   */
+  boolean existsByReservationIdAndCustomerUserIdNot(Long reservationId, Long userId);
+
+  /**
+   * Retrieves the reservations with their customer and total price in one query, the total
+   * being summed over the reservation lines by the database.
+   *
+   * @param customerId the ID of the customer whose reservations are wanted, null for all
+   * @return the reservations ordered by ID
+   */
+  @Query(RESERVATION_INFO_SELECT + """
+      WHERE CAST(:customerId AS Long) IS NULL OR c.userId = :customerId
+      ORDER BY r.reservationId
+      """)
+  List<ReservationInfo> findInfos(@Param("customerId") Long customerId);
+
+  /**
+   * Finds one page of reservations, most recent first. The page starts right after the given
+   * (reservation date, ID) position so that deep pages do not scan the previous ones. Every
+   * filter is ignored when null.
+   *
+   * @param customerId   the ID of the customer
+   * @param state        the state of the reservations
+   * @param email        the email of the customer
+   * @param recoveryFrom the inclusive lower bound of the recovery date
+   * @param recoveryTo   the exclusive upper bound of the recovery date
+   * @param afterDate    the date of the last reservation of the previous page (null for the
+   *                     first)
+   * @param afterId      the ID of the last reservation of the previous page
+   * @param limit        the maximum number of reservations to return
+   * @return the page of reservations
+   */
+  @Query(RESERVATION_INFO_SELECT + RESERVATION_FILTERS + """
+        AND (CAST(:afterDate AS LocalDateTime) IS NULL OR r.reservationDate < :afterDate
+          OR (r.reservationDate = :afterDate AND r.reservationId < :afterId))
+      ORDER BY r.reservationDate DESC, r.reservationId DESC
+      """)
+  List<ReservationInfo> findInfoPage(@Param("customerId") Long customerId,
+      @Param("state") Reservation.State state, @Param("email") String email,
+      @Param("recoveryFrom") LocalDate recoveryFrom, @Param("recoveryTo") LocalDate recoveryTo,
+      @Param("afterDate") LocalDateTime afterDate, @Param("afterId") long afterId, Limit limit);
+
+  /**
+   * Counts the reservations matching the filters and sums their value, per state. Every filter
+   * is ignored when null.
+   *
+   * @param customerId   the ID of the customer
+   * @param recoveryFrom the inclusive lower bound of the recovery date
+   * @param recoveryTo   the exclusive upper bound of the recovery date
+   * @param state        the state of the reservations
+   * @param email        the email of the customer
+   * @return the summary of each state having reservations, ordered by state
+   */
+  @Query("""
+      SELECT new be.vinci.ipl.cae.demo.models.dtos.ReservationStateSummary(
+        CAST(r.state AS String), COUNT(DISTINCT r.reservationId),
+        COALESCE(SUM(l.unitPrice * pr.quantity), 0.0))
+      """ + RESERVATION_JOINS + RESERVATION_FILTERS + "GROUP BY r.state ORDER BY r.state")
+  List<ReservationStateSummary> summarize(@Param("customerId") Long customerId,
+      @Param("recoveryFrom") LocalDate recoveryFrom, @Param("recoveryTo") LocalDate recoveryTo,
+      @Param("state") Reservation.State state, @Param("email") String email);
+
+  /**
+   * Moves a reservation to a new state only if it is still in the expected state, so that two
+   * concurrent transitions cannot both succeed.
+   *
+   * @param reservationId the ID of the reservation
+   * @param from          the expected current state
+   * @param to            the new state
+   * @return the number of updated reservations
+   */
+  @Modifying
+  @Query("""
+      UPDATE Reservation r SET r.state = :to
+      WHERE r.reservationId = :reservationId AND r.state = :from
+      """)
+  int updateStateIf(@Param("reservationId") Long reservationId,
+      @Param("from") Reservation.State from, @Param("to") Reservation.State to);
+
+  /**
+   * Finds and locks a chunk of reservations still reserved after their recovery date, following
+   * a reservation ID. Rows locked by another transaction are skipped, so the chunk never waits on
+   * a reservation being updated.
+   *
+   * @param recoveryDate the date before which reserved reservations are overdue
+   * @param afterId      the ID after which the chunk starts
+   * @param limit        the maximum number of reservations
+   * @return the IDs of the overdue reservations, in ascending order
+   */
+  @Query(nativeQuery = true, value = """
+      SELECT reservation_id FROM reservations
+      WHERE state = 'RESERVED' AND recovery_date < :recoveryDate AND reservation_id > :afterId
+      ORDER BY reservation_id LIMIT :limit FOR UPDATE SKIP LOCKED
+      """)
+  List<Long> findOverdueIdsForUpdate(@Param("recoveryDate") LocalDate recoveryDate,
+      @Param("afterId") long afterId, @Param("limit") int limit);
+
+  /**
+   * Moves the given reservations to a new state, skipping those no longer in the expected state.
+   *
+   * @param reservationIds the IDs of the reservations
+   * @param from           the expected current state
+   * @param to             the new state
+   * @return the number of updated reservations
+   */
+  @Modifying
+  @Query("""
+      UPDATE Reservation r SET r.state = :to
+      WHERE r.reservationId IN :reservationIds AND r.state = :from
+      """)
+  int updateStatesIf(@Param("reservationIds") Collection<Long> reservationIds,
+      @Param("from") Reservation.State from, @Param("to") Reservation.State to);
+
+  /**
+   * Finds the reservations among the given ones that are in a state, and locks them in ID order
+   * until the end of the transaction.
+   *
+   * @param reservationIds the IDs of the reservations
+   * @param state          the expected state
+   * @return the IDs of the reservations in that state, in ascending order
+   */
+  @Lock(LockModeType.PESSIMISTIC_WRITE)
+  @Query("""
+      SELECT r.reservationId FROM Reservation r
+      WHERE r.reservationId IN :reservationIds AND r.state = :state
+      ORDER BY r.reservationId
+      """)
+  List<Long> findIdsInStateForUpdate(@Param("reservationIds") Collection<Long> reservationIds,
+      @Param("state") Reservation.State state);
+
+  /**
+   * Finds the reservations among the given ones that exist.
+   *
+   * @param reservationIds the IDs of the reservations
+   * @return the IDs of the existing reservations
+   */
+  @Query("SELECT r.reservationId FROM Reservation r WHERE r.reservationId IN :reservationIds")
+  List<Long> findExistingIds(@Param("reservationIds") Collection<Long> reservationIds);
+
+  /**
+   * Finds the recovery dates of the given reservations.
+   *
+   * @param reservationIds the IDs of the reservations
+   * @return the distinct recovery dates of the reservations
+   */
+  @Query("SELECT DISTINCT r.recoveryDate FROM Reservation r"
+      + " WHERE r.reservationId IN :reservationIds")
+  List<LocalDate> findRecoveryDates(@Param("reservationIds") Collection<Long> reservationIds);
 }
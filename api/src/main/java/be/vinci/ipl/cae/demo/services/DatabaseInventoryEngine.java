@@ -0,0 +1,55 @@
+package be.vinci.ipl.cae.demo.services;
+
+import be.vinci.ipl.cae.demo.repositories.ProductLotStockRepository;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Service;
+
+/**
+ * Default inventory engine: every mutation is a conditional UPDATE of the lot row, applied in
+ * the caller's transaction.
+ */
+@Service
+@ConditionalOnProperty(name = "inventory.engine", havingValue = "database", matchIfMissing = true)
+public class DatabaseInventoryEngine implements InventoryEngine {
+
+  private final ProductLotStockRepository productLotStockRepository;
+
+  /**
+   * Constructor.
+   *
+   * @param productLotStockRepository the repository updating the lot stocks
+   */
+  public DatabaseInventoryEngine(ProductLotStockRepository productLotStockRepository) {
+    this.productLotStockRepository = productLotStockRepository;
+  }
+
+  @Override
+  public boolean reserve(Long lotId, int quantity) {
+    return productLotStockRepository.reserve(lotId, quantity) > 0;
+  }
+
+  @Override
+  public boolean sell(Long lotId, int quantity) {
+    return productLotStockRepository.sell(lotId, quantity) > 0;
+  }
+
+  @Override
+  public boolean release(Long lotId, int quantity) {
+    return productLotStockRepository.release(lotId, quantity) > 0;
+  }
+
+  @Override
+  public boolean complete(Long lotId, int quantity) {
+    return productLotStockRepository.complete(lotId, quantity) > 0;
+  }
+
+  @Override
+  public boolean remove(Long lotId, int quantity) {
+    return productLotStockRepository.remove(lotId, quantity) > 0;
+  }
+
+  @Override
+  public void evict(Long lotId) {
+    // Nothing is held outside of the database.
+  }
+}
@@ -1,8 +1,18 @@
 package be.vinci.ipl.cae.demo.services;
 
+import be.vinci.ipl.cae.demo.exceptions.BadRequestException;
+import be.vinci.ipl.cae.demo.models.dtos.DailyQuantity;
+import be.vinci.ipl.cae.demo.models.dtos.DateRange;
 import be.vinci.ipl.cae.demo.models.dtos.ProductLotDto;
 import be.vinci.ipl.cae.demo.models.entities.ProductLot;
+import java.nio.charset.StandardCharsets;
 import java.time.LocalDate;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.stream.Collectors;
 import org.springframework.stereotype.Service;
 
 /**
@@ -39,26 +49,70 @@ public class HelperService {
   }
 
   /**
-   * Checks if the email of the producer of the given ProductLot matches the provided email.
+   * Turns a month and a year into a half-open date range, so that the statistics queries can use
+   * the indexes on their dates. A month without year cannot be a single range: it is kept as the
+   * month to match in every year.
    *
-   * @param lot The ProductLot entity
-   * @param email The email to check
-   * @return true if the emails match, false otherwise
+   * @param month The month (1-12), or null for the whole year
+   * @param year  The year, or null for every year
+   * @return the date range of the month and year
+   */
+  public DateRange toDateRange(Integer month, Integer year) {
+    if (year == null) {
+      return new DateRange(null, null, month);
+    }
+    if (month == null) {
+      LocalDate from = LocalDate.of(year, 1, 1);
+      return new DateRange(from, from.plusYears(1), null);
+    }
+    LocalDate from = LocalDate.of(year, month, 1);
+    return new DateRange(from, from.plusMonths(1), null);
+  }
+
+  /**
+   * Converts daily quantities into a map of dates (as String) to quantities, sorted by date.
+   *
+   * @param quantities The quantities per day
+   * @return the map of the quantities per day
+   */
+  public Map<String, Integer> toDailyMap(List<DailyQuantity> quantities) {
+    Map<String, Integer> perDay = new TreeMap<>();
+    for (DailyQuantity quantity : quantities) {
+      perDay.merge(quantity.getDay().toString(), quantity.getQuantity().intValue(), Integer::sum);
+    }
+    return perDay;
+  }
+
+  /**
+   * Encodes the sort key of the last row of a page as an opaque cursor token.
+   *
+   * @param parts The values of the sort key
+   * @return The cursor token
    */
-  public boolean hasSameEmail(ProductLot lot, String email) {
-    return lot.getProducer().getUser().getEmail().equals(email);
+  public String encodeCursor(long... parts) {
+    String raw = Arrays.stream(parts).mapToObj(Long::toString).collect(Collectors.joining(":"));
+    return Base64.getUrlEncoder().withoutPadding()
+        .encodeToString(raw.getBytes(StandardCharsets.UTF_8));
   }
 
   /**
-   * Checks if the given date matches the provided month and year.
+   * Decodes a cursor token produced by encodeCursor.
    *
-   * @param date The date to check
-   * @param month The month to check (can be null)
-   * @param year The year to check (can be null)
-   * @return true if the date matches the month and year, false otherwise
+   * @param cursor The cursor token
+   * @param size   The expected number of values in the sort key
+   * @return The values of the sort key
+   * @throws BadRequestException if the cursor is malformed
    */
-  public boolean matchesDate(LocalDate date, Integer month, Integer year) {
-    return (month == null || date.getMonthValue() == month)
-        && (year == null || date.getYear() == year);
+  public long[] decodeCursor(String cursor, int size) {
+    try {
+      String raw = new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8);
+      long[] parts = Arrays.stream(raw.split(":")).mapToLong(Long::parseLong).toArray();
+      if (parts.length != size) {
+        throw new BadRequestException("Invalid cursor: " + cursor);
+      }
+      return parts;
+    } catch (IllegalArgumentException e) {
+      throw new BadRequestException("Invalid cursor: " + cursor, e);
+    }
   }
 }
@@ -0,0 +1,188 @@
+package be.vinci.ipl.cae.demo.services;
+
+import be.vinci.ipl.cae.demo.exceptions.BadRequestException;
+import be.vinci.ipl.cae.demo.exceptions.UnprocessableEntityException;
+import be.vinci.ipl.cae.demo.models.entities.IdempotencyRecord;
+import be.vinci.ipl.cae.demo.models.entities.User;
+import be.vinci.ipl.cae.demo.repositories.IdempotencyRecordRepository;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.LocalDateTime;
+import java.util.Base64;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.security.core.context.SecurityContextHolder;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+/**
+ * Idempotency service. A creation sent with an idempotency key stores its result under that key,
+ * for its user, in the same transaction; a retry with the same key gets the stored result without
+ * running the creation again, while reusing the key for another request is rejected. Recent keys
+ * are also kept in a bounded in-memory index so that retries do not reach the database, and the
+ * table only keeps the keys of a limited period.
+ */
+@Service
+public class IdempotencyService {
+
+  private static final int MAX_KEY_LENGTH = 255;
+
+  private final IdempotencyRecordRepository idempotencyRecordRepository;
+  private final TransactionTemplate transactionTemplate;
+  private final ObjectMapper objectMapper;
+  private final Map<String, IndexEntry> index = new ConcurrentHashMap<>();
+  private final long ttlHours;
+  private final int maxRecords;
+  private final int indexSize;
+  private final Counter replays;
+
+  /**
+   * Constructor.
+   *
+   * @param idempotencyRecordRepository the repository storing the results
+   * @param transactionManager          the manager of the creation transactions
+   * @param meterRegistry               the registry exposing the replays and the index size
+   * @param objectMapper                the mapper serializing the requests to hash
+   * @param ttlHours                    the time a key is remembered
+   * @param maxRecords                  the maximum number of stored keys
+   * @param indexSize                   the maximum number of keys in the in-memory index
+   */
+  public IdempotencyService(IdempotencyRecordRepository idempotencyRecordRepository,
+      PlatformTransactionManager transactionManager, MeterRegistry meterRegistry,
+      ObjectMapper objectMapper,
+      @Value("${idempotency.ttl-hours:24}") long ttlHours,
+      @Value("${idempotency.max-records:100000}") int maxRecords,
+      @Value("${idempotency.index-size:10000}") int indexSize) {
+    this.idempotencyRecordRepository = idempotencyRecordRepository;
+    this.transactionTemplate = new TransactionTemplate(transactionManager);
+    this.objectMapper = objectMapper;
+    this.ttlHours = ttlHours;
+    this.maxRecords = maxRecords;
+    this.indexSize = indexSize;
+    this.replays = Counter.builder("idempotency.replays").register(meterRegistry);
+    meterRegistry.gaugeMapSize("idempotency.index.size", Tags.empty(), index);
+  }
+
+  /**
+   * Runs a creation once per idempotency key of the current user. Without a key, the creation
+   * always runs. A known key only replays its result for the request it was first sent with.
+   *
+   * @param scope    the kind of creation
+   * @param key      the idempotency key sent by the client, may be null
+   * @param request  the body of the request, compared with the one first sent with the key
+   * @param creation the creation, run in the transaction storing its result
+   * @return the result of the creation, or the stored one for a known key
+   * @throws BadRequestException          if the key is blank or too long
+   * @throws UnprocessableEntityException if the key was first sent with another request
+   */
+  public boolean execute(IdempotencyRecord.Scope scope, String key, Object request,
+      BooleanSupplier creation) {
+    if (key == null) {
+      return creation.getAsBoolean();
+    }
+    if (key.isBlank() || key.length() > MAX_KEY_LENGTH) {
+      throw new BadRequestException("Invalid idempotency key");
+    }
+    User user = (User) SecurityContextHolder.getContext().getAuthentication().getPrincipal();
+    String indexKey = scope + "|" + user.getUserId() + "|" + key;
+    String requestHash = hash(request);
+    long now = System.nanoTime();
+    IndexEntry entry = index.get(indexKey);
+    if (entry != null && entry.expiresAt() - now > 0) {
+      return replay(entry.requestHash(), requestHash, entry.result());
+    }
+    IdempotencyRecord stored = idempotencyRecordRepository
+        .findByScopeAndUserIdAndKey(scope, user.getUserId(), key)
+        .orElse(null);
+    boolean result = stored != null
+        ? replay(stored.getRequestHash(), requestHash, stored.isResult())
+        : create(scope, user.getUserId(), key, requestHash, creation);
+    remember(indexKey, requestHash, result, now);
+    return result;
+  }
+
+  private boolean replay(String storedHash, String requestHash, boolean result) {
+    if (!storedHash.equals(requestHash)) {
+      throw new UnprocessableEntityException(
+          "Idempotency key already used with a different request");
+    }
+    replays.increment();
+    return result;
+  }
+
+  private boolean create(IdempotencyRecord.Scope scope, Long userId, String key,
+      String requestHash, BooleanSupplier creation) {
+    try {
+      return transactionTemplate.execute(status -> {
+        IdempotencyRecord idempotencyRecord = new IdempotencyRecord();
+        idempotencyRecord.setScope(scope);
+        idempotencyRecord.setUserId(userId);
+        idempotencyRecord.setKey(key);
+        idempotencyRecord.setRequestHash(requestHash);
+        idempotencyRecord.setCreatedAt(LocalDateTime.now());
+        // the key is inserted first: a concurrent retry waits on it until this one is done
+        idempotencyRecordRepository.saveAndFlush(idempotencyRecord);
+        idempotencyRecord.setResult(creation.getAsBoolean());
+        return idempotencyRecord.isResult();
+      });
+    } catch (DataIntegrityViolationException e) {
+      IdempotencyRecord stored = idempotencyRecordRepository
+          .findByScopeAndUserIdAndKey(scope, userId, key)
+          .orElseThrow(() -> e);
+      return replay(stored.getRequestHash(), requestHash, stored.isResult());
+    }
+  }
+
+  /**
+   * Hashes the body of a request, as stored with its idempotency key.
+   *
+   * @param request the body of the request
+   * @return the Base64 SHA-256 of the serialized body
+   */
+  String hash(Object request) {
+    try {
+      byte[] hash = MessageDigest.getInstance("SHA-256")
+          .digest(objectMapper.writeValueAsBytes(request));
+      return Base64.getEncoder().encodeToString(hash);
+    } catch (JsonProcessingException | NoSuchAlgorithmException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
+  private void remember(String indexKey, String requestHash, boolean result, long now) {
+    if (index.size() >= indexSize) {
+      index.values().removeIf(cached -> cached.expiresAt() - now <= 0);
+    }
+    if (index.size() < indexSize) {
+      index.put(indexKey,
+          new IndexEntry(requestHash, result, now + TimeUnit.HOURS.toNanos(ttlHours)));
+    }
+  }
+
+  /**
+   * Forgets the expired keys and the oldest ones beyond the maximum number of stored keys.
+   */
+  @Scheduled(fixedDelayString = "${idempotency.purge-interval-ms:600000}")
+  public void purge() {
+    long now = System.nanoTime();
+    index.values().removeIf(cached -> cached.expiresAt() - now <= 0);
+    transactionTemplate.executeWithoutResult(status -> {
+      idempotencyRecordRepository.deleteCreatedBefore(LocalDateTime.now().minusHours(ttlHours));
+      idempotencyRecordRepository.deleteOldestBeyond(maxRecords);
+    });
+  }
+
+  private record IndexEntry(String requestHash, boolean result, long expiresAt) {
+  }
+}
@@ -0,0 +1,354 @@
+package be.vinci.ipl.cae.demo.services;
+
+import be.vinci.ipl.cae.demo.models.entities.ProductLot;
+import be.vinci.ipl.cae.demo.repositories.ProductLotRepository;
+import be.vinci.ipl.cae.demo.repositories.ProductLotStockRepository;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+/**
+ * Inventory engine keeping the stock of the lots in memory, for flash sales where every checkout
+ * targets the same few lots. A lot is loaded from its row on first use, then each mutation is
+ * checked and applied under the lock of that lot only, without touching the database. The
+ * changes are written behind in one transaction every flush interval, lot by lot in ID order.
+ *
+ * <p>A mutation made in a transaction that rolls back is undone. The changes not flushed yet when
+ * the process dies are lost from the rows, so the stock of the lots is recomputed from the
+ * reservation and open sale lines, which commit with each mutation, before the engine starts. A
+ * removal is only recorded by the row, so it is written in the caller's transaction instead. Only
+ * one instance may run this engine, since each instance would trust its own copy of the stock.
+ */
+@Service
+@ConditionalOnProperty(name = "inventory.engine", havingValue = "memory")
+public class InMemoryInventoryEngine implements InventoryEngine {
+
+  private final Logger logger = LoggerFactory.getLogger(InMemoryInventoryEngine.class);
+  private final Map<Long, LotStock> lots = new ConcurrentHashMap<>();
+  private final AtomicLong drops = new AtomicLong();
+  private final ReentrantLock flushLock = new ReentrantLock();
+  private final ProductLotRepository productLotRepository;
+  private final ProductLotStockRepository productLotStockRepository;
+  private final TransactionTemplate flushTransaction;
+  private final long flushIntervalMillis;
+  private final ScheduledExecutorService flusher;
+
+  /**
+   * Constructor.
+   *
+   * @param productLotRepository      the repository loading the lots
+   * @param productLotStockRepository the repository writing the stock changes
+   * @param transactionManager        the manager of the flush transactions
+   * @param meterRegistry             the registry exposing the number of lots held
+   * @param flushIntervalMillis       the delay between two flushes
+   */
+  public InMemoryInventoryEngine(ProductLotRepository productLotRepository,
+      ProductLotStockRepository productLotStockRepository,
+      PlatformTransactionManager transactionManager, MeterRegistry meterRegistry,
+      @Value("${inventory.memory.flush-interval-ms:200}") long flushIntervalMillis) {
+    this.productLotRepository = productLotRepository;
+    this.productLotStockRepository = productLotStockRepository;
+    this.flushTransaction = new TransactionTemplate(transactionManager);
+    this.flushTransaction.setPropagationBehavior(TransactionDefinition.PROPAGATION_REQUIRES_NEW);
+    this.flushIntervalMillis = flushIntervalMillis;
+    this.flusher = Executors.newSingleThreadScheduledExecutor(runnable -> {
+      Thread thread = new Thread(runnable, "inventory-flush");
+      thread.setDaemon(true);
+      return thread;
+    });
+    meterRegistry.gaugeMapSize("inventory.memory.lots", List.of(), lots);
+  }
+
+  /**
+   * Recomputes the stock that a crash may have left unflushed, then starts the periodic flush.
+   */
+  @PostConstruct
+  public void start() {
+    Integer rebuilt = flushTransaction.execute(status ->
+        productLotStockRepository.rebuildFromLines());
+    if (rebuilt != null && rebuilt > 0) {
+      logger.warn("Recomputed the stock of {} lots from their reservation and sale lines",
+          rebuilt);
+    }
+    flusher.scheduleWithFixedDelay(this::flushQuietly, flushIntervalMillis, flushIntervalMillis,
+        TimeUnit.MILLISECONDS);
+  }
+
+  /**
+   * Stops the periodic flush and writes the pending changes.
+   */
+  @PreDestroy
+  public void shutdown() {
+    flusher.shutdownNow();
+    flush();
+  }
+
+  @Override
+  public boolean reserve(Long lotId, int quantity) {
+    return update(lotId, new Delta(lotId, -quantity, quantity, 0), false);
+  }
+
+  @Override
+  public boolean sell(Long lotId, int quantity) {
+    return update(lotId, new Delta(lotId, -quantity, 0, quantity), true);
+  }
+
+  @Override
+  public boolean release(Long lotId, int quantity) {
+    return update(lotId, new Delta(lotId, quantity, -quantity, 0), false);
+  }
+
+  @Override
+  public boolean complete(Long lotId, int quantity) {
+    return update(lotId, new Delta(lotId, 0, -quantity, quantity), false);
+  }
+
+  /**
+   * Removes a quantity from the row of the lot in the caller's transaction, after writing and
+   * dropping the lot held in memory.
+   *
+   * @param lotId    the ID of the product lot
+   * @param quantity the quantity to remove
+   * @return true if the stock was updated
+   */
+  @Override
+  public boolean remove(Long lotId, int quantity) {
+    evict(lotId);
+    return productLotStockRepository.remove(lotId, quantity) > 0;
+  }
+
+  /**
+   * Writes the pending changes of the lot and drops it, so that it is reloaded from its row on
+   * next use. Inside a transaction, the lot is dropped again once the transaction ends, so that
+   * the change made by that transaction is seen.
+   *
+   * @param lotId the ID of the product lot
+   */
+  @Override
+  public void evict(Long lotId) {
+    drop(lotId);
+    if (TransactionSynchronizationManager.isSynchronizationActive()) {
+      TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+        @Override
+        public void afterCompletion(int status) {
+          drop(lotId);
+        }
+      });
+    }
+  }
+
+  /**
+   * Writes the changes made since the previous flush, in one transaction and in lot ID order.
+   * If the write fails, the changes are kept for the next flush.
+   */
+  void flush() {
+    flushLock.lock();
+    try {
+      List<Delta> batch = new ArrayList<>();
+      for (LotStock stock : lots.values()) {
+        Delta pending = stock.drain();
+        if (pending != null) {
+          batch.add(pending);
+        }
+      }
+      if (batch.isEmpty()) {
+        return;
+      }
+      batch.sort(Comparator.comparing(Delta::lotId));
+      try {
+        write(batch);
+      } catch (RuntimeException e) {
+        for (Delta pending : batch) {
+          lots.get(pending.lotId()).restore(pending);
+        }
+        throw e;
+      }
+    } finally {
+      flushLock.unlock();
+    }
+  }
+
+  private void flushQuietly() {
+    try {
+      flush();
+    } catch (RuntimeException e) {
+      logger.warn("Inventory flush failed, retrying on next flush", e);
+    }
+  }
+
+  private void write(List<Delta> batch) {
+    flushTransaction.executeWithoutResult(status -> batch.forEach(pending ->
+        productLotStockRepository.applyDelta(pending.lotId(), pending.remaining(),
+            pending.reserved(), pending.sold())));
+  }
+
+  private void drop(Long lotId) {
+    flushLock.lock();
+    try {
+      LotStock stock = lots.get(lotId);
+      if (stock == null) {
+        return;
+      }
+      stock.lock.lock();
+      try {
+        Delta pending = stock.drain();
+        if (pending != null) {
+          try {
+            write(List.of(pending));
+          } catch (RuntimeException e) {
+            stock.restore(pending);
+            throw e;
+          }
+        }
+        stock.evicted = true;
+        drops.incrementAndGet();
+        lots.remove(lotId);
+      } finally {
+        stock.lock.unlock();
+      }
+    } finally {
+      flushLock.unlock();
+    }
+  }
+
+  private boolean update(Long lotId, Delta change, boolean forSaleOnly) {
+    if (!apply(lotId, change, forSaleOnly)) {
+      return false;
+    }
+    if (TransactionSynchronizationManager.isSynchronizationActive()) {
+      TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+        @Override
+        public void afterCompletion(int status) {
+          if (status == STATUS_ROLLED_BACK && !apply(lotId, change.inverse(), false)) {
+            logger.error("Could not undo a rolled back stock change of lot {}", lotId);
+          }
+        }
+      });
+    }
+    return true;
+  }
+
+  private boolean apply(Long lotId, Delta change, boolean forSaleOnly) {
+    while (true) {
+      LotStock stock = lots.get(lotId);
+      if (stock == null) {
+        // the row is read outside of the map, so that the lots sharing its bin are not blocked
+        long dropped = drops.get();
+        LotStock loaded = productLotRepository.findById(lotId).map(LotStock::new).orElse(null);
+        if (loaded == null) {
+          return false;
+        }
+        // a lot dropped meanwhile may have written changes that the row read did not see
+        stock = lots.compute(lotId, (id, current) ->
+            current != null || drops.get() != dropped ? current : loaded);
+        if (stock == null) {
+          continue;
+        }
+      }
+      stock.lock.lock();
+      try {
+        if (!stock.evicted) {
+          return stock.apply(change, forSaleOnly);
+        }
+      } finally {
+        stock.lock.unlock();
+      }
+    }
+  }
+
+  /**
+   * Stock changes of one lot.
+   */
+  private record Delta(Long lotId, int remaining, int reserved, int sold) {
+
+    Delta inverse() {
+      return new Delta(lotId, -remaining, -reserved, -sold);
+    }
+  }
+
+  /**
+   * Stock of one lot, with the changes not written yet. Guarded by its lock.
+   */
+  private static final class LotStock {
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Long lotId;
+    private ProductLot.State state;
+    private int remaining;
+    private int reserved;
+    private int pendingRemaining;
+    private int pendingReserved;
+    private int pendingSold;
+    private boolean evicted;
+
+    LotStock(ProductLot lot) {
+      this.lotId = lot.getLotId();
+      this.state = lot.getState();
+      this.remaining = lot.getRemainingQuantity();
+      this.reserved = lot.getReservedQuantity();
+    }
+
+    boolean apply(Delta change, boolean forSaleOnly) {
+      if (remaining + change.remaining() < 0 || reserved + change.reserved() < 0
+          || forSaleOnly && state != ProductLot.State.FOR_SALE) {
+        return false;
+      }
+      if (change.remaining() < 0 && remaining + change.remaining() == 0) {
+        state = ProductLot.State.SOLD_OUT;
+      } else if (change.remaining() > 0 && state == ProductLot.State.SOLD_OUT) {
+        state = ProductLot.State.FOR_SALE;
+      }
+      remaining += change.remaining();
+      reserved += change.reserved();
+      restore(change);
+      return true;
+    }
+
+    void restore(Delta change) {
+      lock.lock();
+      try {
+        pendingRemaining += change.remaining();
+        pendingReserved += change.reserved();
+        pendingSold += change.sold();
+      } finally {
+        lock.unlock();
+      }
+    }
+
+    Delta drain() {
+      lock.lock();
+      try {
+        if (pendingRemaining == 0 && pendingReserved == 0 && pendingSold == 0) {
+          return null;
+        }
+        final Delta pending = new Delta(lotId, pendingRemaining, pendingReserved, pendingSold);
+        pendingRemaining = 0;
+        pendingReserved = 0;
+        pendingSold = 0;
+        return pending;
+      } finally {
+        lock.unlock();
+      }
+    }
+  }
+}
@@ -0,0 +1,77 @@
+package be.vinci.ipl.cae.demo.services;
+
+import be.vinci.ipl.cae.demo.exceptions.ConflictException;
+
+/**
+ * Stock mutations of the product lots. Each mutation checks and changes the stock of one lot
+ * atomically and reports whether it was applied; a rejected mutation means the lot does not
+ * exist or its stock does not allow it. The implementation is chosen with the
+ * {@code inventory.engine} property.
+ */
+public interface InventoryEngine {
+
+  /**
+   * Moves a quantity from the remaining stock to the reserved stock.
+   *
+   * @param lotId    the ID of the product lot
+   * @param quantity the quantity to reserve
+   * @return true if the stock was updated
+   */
+  boolean reserve(Long lotId, int quantity);
+
+  /**
+   * Sells a quantity of a lot for sale directly from the remaining stock.
+   *
+   * @param lotId    the ID of the product lot
+   * @param quantity the quantity to sell
+   * @return true if the stock was updated
+   */
+  boolean sell(Long lotId, int quantity);
+
+  /**
+   * Gives a reserved quantity back to the remaining stock.
+   *
+   * @param lotId    the ID of the product lot
+   * @param quantity the reserved quantity to release
+   * @return true if the stock was updated
+   */
+  boolean release(Long lotId, int quantity);
+
+  /**
+   * Moves a reserved quantity to the sold stock.
+   *
+   * @param lotId    the ID of the product lot
+   * @param quantity the reserved quantity to sell
+   * @return true if the stock was updated
+   */
+  boolean complete(Long lotId, int quantity);
+
+  /**
+   * Removes a quantity from the remaining stock.
+   *
+   * @param lotId    the ID of the product lot
+   * @param quantity the quantity to remove
+   * @return true if the stock was updated
+   */
+  boolean remove(Long lotId, int quantity);
+
+  /**
+   * Forgets anything the engine holds about a lot, before its row is changed by other means
+   * (e.g. a state change).
+   *
+   * @param lotId the ID of the product lot
+   */
+  void evict(Long lotId);
+
+  /**
+   * Splits the stock of a high-demand lot across the given number of shards, or merges it back
+   * when the number is 0 or 1.
+   *
+   * @param lotId  the ID of the product lot
+   * @param shards the number of shards
+   * @throws ConflictException if the engine does not support shards
+   */
+  default void setStockShards(Long lotId, int shards) {
+    throw new ConflictException("Stock shards require the sharded inventory engine");
+  }
+}
@@ -0,0 +1,163 @@
+package be.vinci.ipl.cae.demo.services;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import java.util.Comparator;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.LongSupplier;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+/**
+ * Login throttle service. Each email and each client address owns a token bucket: a login attempt
+ * takes a token from both, and tokens come back at a fixed rate. The address bucket is larger
+ * since several users may share an address. Buckets are kept in a concurrent map and updated with
+ * compare-and-set only. A periodic sweep, outside of the login path, drops the buckets that are
+ * full again, then the least recently used ones beyond the maximum number of buckets.
+ */
+@Service
+public class LoginThrottleService {
+
+  private final Map<String, Bucket> buckets = new ConcurrentHashMap<>();
+  private final Limit emailLimit;
+  private final Limit addressLimit;
+  private final int maxBuckets;
+  private final LongSupplier clock;
+  private final Counter rejections;
+
+  /**
+   * Constructor.
+   *
+   * @param meterRegistry           the registry exposing the rejected attempts
+   * @param emailCapacity           the number of attempts allowed in a burst for an email
+   * @param emailRefillsPerMinute   the number of attempts given back every minute to an email
+   * @param addressCapacity         the number of attempts allowed in a burst for an address
+   * @param addressRefillsPerMinute the number of attempts given back every minute to an address
+   * @param maxBuckets              the maximum number of buckets kept after a sweep
+   */
+  @Autowired
+  public LoginThrottleService(MeterRegistry meterRegistry,
+      @Value("${auth.login-throttle.capacity:5}") int emailCapacity,
+      @Value("${auth.login-throttle.refills-per-minute:5}") int emailRefillsPerMinute,
+      @Value("${auth.login-throttle.address-capacity:20}") int addressCapacity,
+      @Value("${auth.login-throttle.address-refills-per-minute:20}") int addressRefillsPerMinute,
+      @Value("${auth.login-throttle.max-buckets:100000}") int maxBuckets) {
+    this(meterRegistry, new Limit(emailCapacity, emailRefillsPerMinute),
+        new Limit(addressCapacity, addressRefillsPerMinute), maxBuckets, System::nanoTime);
+  }
+
+  LoginThrottleService(MeterRegistry meterRegistry, Limit emailLimit, Limit addressLimit,
+      int maxBuckets, LongSupplier clock) {
+    this.emailLimit = emailLimit;
+    this.addressLimit = addressLimit;
+    this.maxBuckets = maxBuckets;
+    this.clock = clock;
+    this.rejections = Counter.builder("auth.login.throttled").register(meterRegistry);
+    meterRegistry.gaugeMapSize("auth.login.throttle.buckets", Tags.empty(), buckets);
+  }
+
+  /**
+   * Take a login attempt for the given email and client address. The address is checked first,
+   * so that attempts refused for an address do not use the tokens of the email.
+   *
+   * @param email         the email used to log in
+   * @param remoteAddress the address of the client
+   * @return 0 if the attempt is allowed, otherwise the number of seconds before the next one
+   */
+  public long tryAcquire(String email, String remoteAddress) {
+    long now = clock.getAsLong();
+    long waitNanos = bucket("address|" + remoteAddress, addressLimit, now).tryTake(now);
+    if (waitNanos == 0) {
+      waitNanos = bucket("email|" + email.toLowerCase(Locale.ROOT), emailLimit, now).tryTake(now);
+    }
+    if (waitNanos == 0) {
+      return 0;
+    }
+    rejections.increment();
+    return Math.max(1, TimeUnit.NANOSECONDS.toSeconds(waitNanos + 999_999_999L));
+  }
+
+  private Bucket bucket(String key, Limit limit, long now) {
+    Bucket bucket = buckets.get(key);
+    return bucket != null ? bucket : buckets.computeIfAbsent(key, k -> new Bucket(limit, now));
+  }
+
+  /**
+   * Drops the buckets that are full again, since a new bucket would behave the same, then the
+   * least recently used ones beyond the maximum number of buckets.
+   */
+  @Scheduled(fixedDelayString = "${auth.login-throttle.sweep-interval-ms:10000}")
+  public void sweep() {
+    long now = clock.getAsLong();
+    buckets.values().removeIf(bucket -> bucket.isFull(now));
+    int excess = buckets.size() - maxBuckets;
+    if (excess > 0) {
+      buckets.entrySet().stream()
+          .sorted(Comparator.comparingLong(entry -> entry.getValue().updatedAt()))
+          .limit(excess)
+          .map(Map.Entry::getKey)
+          .toList()
+          .forEach(buckets::remove);
+    }
+  }
+
+  /**
+   * Size and refill rate of a bucket.
+   *
+   * @param capacity      the number of attempts allowed in a burst
+   * @param tokensPerNano the number of attempts given back every nanosecond
+   */
+  record Limit(double capacity, double tokensPerNano) {
+
+    Limit(int capacity, int refillsPerMinute) {
+      this(capacity, refillsPerMinute / (double) TimeUnit.MINUTES.toNanos(1));
+    }
+  }
+
+  private record State(double tokens, long updatedAt) {
+  }
+
+  private static final class Bucket {
+
+    private final Limit limit;
+    private final AtomicReference<State> state;
+
+    private Bucket(Limit limit, long now) {
+      this.limit = limit;
+      this.state = new AtomicReference<>(new State(limit.capacity(), now));
+    }
+
+    private double tokensAt(State current, long now) {
+      return Math.min(limit.capacity(),
+          current.tokens() + (now - current.updatedAt()) * limit.tokensPerNano());
+    }
+
+    private boolean isFull(long now) {
+      return tokensAt(state.get(), now) >= limit.capacity();
+    }
+
+    private long updatedAt() {
+      return state.get().updatedAt();
+    }
+
+    private long tryTake(long now) {
+      while (true) {
+        State current = state.get();
+        double tokens = tokensAt(current, now);
+        if (tokens < 1) {
+          return (long) Math.ceil((1 - tokens) / limit.tokensPerNano());
+        }
+        if (state.compareAndSet(current, new State(tokens - 1, now))) {
+          return 0;
+        }
+      }
+    }
+  }
+}
@@ -1,10 +1,12 @@
 package be.vinci.ipl.cae.demo.services;
 
+import be.vinci.ipl.cae.demo.exceptions.BadRequestException;
 import be.vinci.ipl.cae.demo.exceptions.ConflictException;
 import be.vinci.ipl.cae.demo.exceptions.ResourceNotFoundException;
 import be.vinci.ipl.cae.demo.models.dtos.OpenSaleDto;
 import be.vinci.ipl.cae.demo.models.dtos.OpenSaleInfo;
 import be.vinci.ipl.cae.demo.models.dtos.OpenSaleProductDto;
+import be.vinci.ipl.cae.demo.models.entities.DailyProductSales;
 import be.vinci.ipl.cae.demo.models.entities.OpenSale;
 import be.vinci.ipl.cae.demo.models.entities.ProductLot;
 import be.vinci.ipl.cae.demo.models.entities.ProductOpenSale;
@@ -16,8 +18,6 @@ import java.time.LocalDateTime;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
-import java.util.TreeMap;
-import java.util.stream.Collectors;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 
@@ -31,7 +31,8 @@ public class OpenSaleService {
   private final OpenSaleRepository openSaleRepository;
   private final ProductLotRepository productLotRepository;
   private final ProductOpenSaleRepository productOpenSaleRepository;
-  private final HelperService helperService;
+  private final InventoryEngine inventoryEngine;
+  private final SalesRollupService salesRollupService;
 
   /**
    * Constructor.
@@ -39,11 +40,12 @@ public class OpenSaleService {
   public OpenSaleService(OpenSaleRepository openSaleRepository,
       ProductLotRepository productLotRepository, 
       ProductOpenSaleRepository productOpenSaleRepository, 
-      HelperService helperService) {
+      InventoryEngine inventoryEngine, SalesRollupService salesRollupService) {
     this.openSaleRepository = openSaleRepository;
     this.productLotRepository = productLotRepository;
     this.productOpenSaleRepository = productOpenSaleRepository;
-    this.helperService = helperService;
+    this.inventoryEngine = inventoryEngine;
+    this.salesRollupService = salesRollupService;
   }
 
 
@@ -75,33 +77,30 @@ public class OpenSaleService {
     OpenSale openSale = new OpenSale();
     openSale.setOpenSaleDate(LocalDateTime.now());
 
-    List<ProductOpenSale> productOpenSales = new ArrayList<>();
+    List<Long> lotIds = new ArrayList<>();
     for (OpenSaleProductDto openSaleProductDto : openSaleDto.getReservedProducts()) {
-      ProductLot productLot = 
-          productLotRepository.findByIdForUpdate(openSaleProductDto.getProductLotId())
-          .orElseThrow(() ->
-            new ResourceNotFoundException("Product lot not found for ID: " 
-                + openSaleProductDto.getProductLotId()));
-
-      if (productLot.getState() != ProductLot.State.FOR_SALE) {
-        throw new ConflictException("The product lot is not available for sale.");
+      Long lotId = openSaleProductDto.getProductLotId();
+      if (openSaleProductDto.getQuantity() <= 0) {
+        throw new BadRequestException("Quantity must be positive for product lot ID: " + lotId);
       }
-      if (productLot.getRemainingQuantity() < openSaleProductDto.getQuantity()) {
-        throw new ConflictException("Insufficient quantity for product lot ID: " 
-          + productLot.getLotId());
+      if (!inventoryEngine.sell(lotId, openSaleProductDto.getQuantity())) {
+        ProductLot productLot = productLotRepository.findById(lotId)
+            .orElseThrow(() ->
+              new ResourceNotFoundException("Product lot not found for ID: " + lotId));
+        if (productLot.getState() != ProductLot.State.FOR_SALE) {
+          throw new ConflictException("The product lot is not available for sale.");
+        }
+        throw new ConflictException("Insufficient quantity for product lot ID: " + lotId);
       }
+      lotIds.add(lotId);
+    }
 
-      productLot.setRemainingQuantity(productLot.getRemainingQuantity() 
-          - openSaleProductDto.getQuantity());
-      productLot.setSoldQuantity(productLot.getSoldQuantity() 
-          + openSaleProductDto.getQuantity());
-
-      if (productLot.getRemainingQuantity() == 0) {
-        productLot.setState(ProductLot.State.SOLD_OUT);
-      }
-      productLotRepository.save(productLot);
+    openSaleRepository.save(openSale);
 
-      openSaleRepository.save(openSale);
+    Map<Long, ProductLot> lots = productLotRepository.findMapByIds(lotIds);
+    List<ProductOpenSale> productOpenSales = new ArrayList<>();
+    for (OpenSaleProductDto openSaleProductDto : openSaleDto.getReservedProducts()) {
+      ProductLot productLot = lots.get(openSaleProductDto.getProductLotId());
 
       ProductOpenSale productOpenSale = new ProductOpenSale();
       productOpenSale.setId(new ProductOpenSaleId(productLot.getLotId(), 
@@ -113,6 +112,7 @@ public class OpenSaleService {
       productOpenSales.add(productOpenSale);
     }
     productOpenSaleRepository.saveAll(productOpenSales);
+    salesRollupService.recordOpenSale(openSale.getOpenSaleId());
     return true;
   }
 
@@ -128,24 +128,22 @@ public class OpenSaleService {
 
 
   /**
-   * Retrieves all open sales for a specific product label.
+   * Retrieves the total quantity of a product sold in open sales.
    *
    * @param productLabel the product label to filter by.
    * @param month the month to filter by (optional).
    * @param year the year to filter by (optional).
-   * @return a list of open sales for the specified product label.
+   * @return the total quantity sold in open sales.
    */
   public int calculateOpenSalesTotalSold(String productLabel, Integer month, Integer year) {
-    List<ProductOpenSale> sales = productOpenSaleRepository.findAllByProductLabel(productLabel);
-    return sales.stream()
-        .filter(sale -> helperService.matchesDate(sale.getOpenSale()
-            .getOpenSaleDate().toLocalDate(), month, year))
-        .mapToInt(ProductOpenSale::getQuantity)
+    return calculateOpenSalesPerDay(productLabel, month, year).values().stream()
+        .mapToInt(Integer::intValue)
         .sum();
   }
 
   /**
-   * Retrieves the total quantity of open sales for a specific product label per day.
+   * Retrieves the total quantity of open sales for a specific product label per day, read from
+   * the daily sales rollup.
    *
    * @param label the product label to filter by.
    * @param month the month to filter by (optional).
@@ -153,15 +151,6 @@ public class OpenSaleService {
    * @return a map of dates and their corresponding total quantities.
    */
   public Map<String, Integer> calculateOpenSalesPerDay(String label, Integer month, Integer year) {
-    List<ProductOpenSale> sales = productOpenSaleRepository.findAllByProductLabel(label);
-    return sales.stream()
-        .filter(sale -> helperService.matchesDate(sale.getOpenSale()
-            .getOpenSaleDate().toLocalDate(), month, year))
-        .collect(Collectors.toMap(
-            sale -> sale.getOpenSale().getOpenSaleDate().toLocalDate().toString(),
-            ProductOpenSale::getQuantity,
-            Integer::sum,
-            TreeMap::new
-        ));
+    return salesRollupService.sumPerDay(label, DailyProductSales.Channel.OPEN_SALE, month, year);
   }
 }
@@ -0,0 +1,124 @@
+package be.vinci.ipl.cae.demo.services;
+
+import be.vinci.ipl.cae.demo.exceptions.ServiceUnavailableException;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PreDestroy;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.security.crypto.bcrypt.BCryptPasswordEncoder;
+import org.springframework.stereotype.Service;
+
+/**
+ * Password hashing service. The bcrypt work runs on a dedicated pool with a bounded queue, so a
+ * burst of logins cannot take every request thread; when the queue is full the call fails fast.
+ */
+@Service
+public class PasswordHashingService {
+
+  private final BCryptPasswordEncoder passwordEncoder;
+  private final ThreadPoolExecutor executor;
+  private final long timeoutMillis;
+  private final long retryAfterSeconds;
+  private final Timer hashTimer;
+  private final Counter rejections;
+
+  /**
+   * Constructor.
+   *
+   * @param passwordEncoder   the bcrypt encoder
+   * @param meterRegistry     the registry exposing the queue depth and hash latency
+   * @param threads           the number of hashing threads
+   * @param queueCapacity     the number of hashes allowed to wait for a thread
+   * @param timeoutMillis     the maximum time a caller waits for its hash
+   * @param retryAfterSeconds the delay suggested to rejected clients
+   */
+  public PasswordHashingService(BCryptPasswordEncoder passwordEncoder,
+      MeterRegistry meterRegistry,
+      @Value("${auth.password-hashing.threads:4}") int threads,
+      @Value("${auth.password-hashing.queue-capacity:64}") int queueCapacity,
+      @Value("${auth.password-hashing.timeout-ms:5000}") long timeoutMillis,
+      @Value("${auth.password-hashing.retry-after-seconds:2}") long retryAfterSeconds) {
+    this.passwordEncoder = passwordEncoder;
+    this.timeoutMillis = timeoutMillis;
+    this.retryAfterSeconds = retryAfterSeconds;
+    AtomicInteger threadCount = new AtomicInteger();
+    this.executor = new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS,
+        new ArrayBlockingQueue<>(queueCapacity),
+        runnable -> {
+          Thread thread = new Thread(runnable, "password-hashing-" + threadCount.incrementAndGet());
+          thread.setDaemon(true);
+          return thread;
+        },
+        new ThreadPoolExecutor.AbortPolicy());
+    this.hashTimer = Timer.builder("auth.password.hashing").register(meterRegistry);
+    this.rejections = Counter.builder("auth.password.hashing.rejected").register(meterRegistry);
+    meterRegistry.gauge("auth.password.hashing.queue", executor, pool -> pool.getQueue().size());
+  }
+
+  /**
+   * Hash a raw password.
+   *
+   * @param rawPassword the password to hash
+   * @return the bcrypt hash
+   * @throws ServiceUnavailableException if the hashing pool is saturated
+   */
+  public String encode(CharSequence rawPassword) {
+    return run(() -> passwordEncoder.encode(rawPassword));
+  }
+
+  /**
+   * Check a raw password against a bcrypt hash.
+   *
+   * @param rawPassword     the password to check
+   * @param encodedPassword the stored hash
+   * @return true if the password matches, false otherwise
+   * @throws ServiceUnavailableException if the hashing pool is saturated
+   */
+  public boolean matches(CharSequence rawPassword, String encodedPassword) {
+    return run(() -> passwordEncoder.matches(rawPassword, encodedPassword));
+  }
+
+  private <T> T run(Callable<T> hashing) {
+    Future<T> future;
+    try {
+      future = executor.submit(() -> hashTimer.recordCallable(hashing));
+    } catch (RejectedExecutionException e) {
+      rejections.increment();
+      throw new ServiceUnavailableException("Too many concurrent authentications",
+          retryAfterSeconds, e);
+    }
+    try {
+      return future.get(timeoutMillis, TimeUnit.MILLISECONDS);
+    } catch (TimeoutException e) {
+      future.cancel(true);
+      rejections.increment();
+      throw new ServiceUnavailableException("Password hashing timed out", retryAfterSeconds,
+          e);
+    } catch (InterruptedException e) {
+      future.cancel(true);
+      Thread.currentThread().interrupt();
+      throw new ServiceUnavailableException("Password hashing interrupted", retryAfterSeconds,
+          e);
+    } catch (ExecutionException e) {
+      throw new IllegalStateException("Password hashing failed", e);
+    }
+  }
+
+  /**
+   * Stop the hashing threads.
+   */
+  @PreDestroy
+  public void shutdown() {
+    executor.shutdownNow();
+  }
+}
@@ -0,0 +1,123 @@
+package be.vinci.ipl.cae.demo.services;
+
+import be.vinci.ipl.cae.demo.models.dtos.PickupManifest;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import java.time.LocalDate;
+import java.util.Collection;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+/**
+ * Cache of the pickup manifests, keyed by recovery date. A manifest stays cached until a
+ * reservation of its date is created or changes state; the time limit only bounds the
+ * staleness of the product labels.
+ */
+@Component
+public class PickupManifestCache {
+
+  private final Map<LocalDate, Entry> entries = new ConcurrentHashMap<>();
+  private final AtomicLong evictions = new AtomicLong();
+  private final long ttlNanos;
+  private final int maxSize;
+  private final Counter hits;
+  private final Counter misses;
+
+  /**
+   * Constructor.
+   *
+   * @param meterRegistry the registry exposing the hit and miss counters
+   * @param ttlSeconds    the time a manifest stays valid
+   * @param maxSize       the maximum number of cached manifests
+   */
+  public PickupManifestCache(MeterRegistry meterRegistry,
+      @Value("${reservations.manifest-cache.ttl-seconds:3600}") long ttlSeconds,
+      @Value("${reservations.manifest-cache.max-size:64}") int maxSize) {
+    this.ttlNanos = TimeUnit.SECONDS.toNanos(ttlSeconds);
+    this.maxSize = maxSize;
+    this.hits = Counter.builder("reservations.manifest.cache")
+        .tag("result", "hit").register(meterRegistry);
+    this.misses = Counter.builder("reservations.manifest.cache")
+        .tag("result", "miss").register(meterRegistry);
+    meterRegistry.gaugeMapSize("reservations.manifest.cache.size", Tags.empty(), entries);
+  }
+
+  /**
+   * Returns the manifest of the given recovery date, loading and caching it on a miss.
+   *
+   * @param recoveryDate the recovery date
+   * @param loader       computes the manifest when it is not cached
+   * @return the manifest of the date
+   */
+  public PickupManifest get(LocalDate recoveryDate, Function<LocalDate, PickupManifest> loader) {
+    long now = System.nanoTime();
+    Entry entry = entries.get(recoveryDate);
+    if (entry != null && entry.expiresAt() - now > 0) {
+      hits.increment();
+      return entry.manifest();
+    }
+    misses.increment();
+    final long evictionsBeforeLoad = evictions.get();
+    PickupManifest manifest = loader.apply(recoveryDate);
+    // a reservation may have changed during the load: the loaded manifest may then be stale
+    if (evictions.get() == evictionsBeforeLoad && hasRoom(now)) {
+      entries.put(recoveryDate, new Entry(manifest, now + ttlNanos));
+    }
+    return manifest;
+  }
+
+  private boolean hasRoom(long now) {
+    if (entries.size() >= maxSize) {
+      entries.values().removeIf(cached -> cached.expiresAt() - now <= 0);
+    }
+    return entries.size() < maxSize;
+  }
+
+  /**
+   * Removes the manifest of the given recovery date, or every manifest if the date is null.
+   * Inside a transaction, it is removed again once the transaction ends, so that a manifest
+   * loaded before the commit is not kept.
+   *
+   * @param recoveryDate the recovery date of the changed reservation, or null if unknown
+   */
+  public void evict(LocalDate recoveryDate) {
+    drop(recoveryDate);
+    if (TransactionSynchronizationManager.isSynchronizationActive()) {
+      TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+        @Override
+        public void afterCompletion(int status) {
+          drop(recoveryDate);
+        }
+      });
+    }
+  }
+
+  /**
+   * Removes the manifests of the given recovery dates, and again once the transaction ends.
+   *
+   * @param recoveryDates the recovery dates of the changed reservations
+   */
+  public void evictDates(Collection<LocalDate> recoveryDates) {
+    recoveryDates.forEach(this::evict);
+  }
+
+  private void drop(LocalDate recoveryDate) {
+    evictions.incrementAndGet();
+    if (recoveryDate == null) {
+      entries.clear();
+    } else {
+      entries.remove(recoveryDate);
+    }
+  }
+
+  private record Entry(PickupManifest manifest, long expiresAt) {
+  }
+}
@@ -0,0 +1,108 @@
+package be.vinci.ipl.cae.demo.services;
+
+import be.vinci.ipl.cae.demo.models.entities.User;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+/**
+ * Bounded, time-limited cache of the authenticated principals, keyed by email.
+ * Only the fields needed to authorize a request are kept (ID, role, deactivated flag, token
+ * version).
+ */
+@Component
+public class PrincipalCache {
+
+  private final Map<String, Entry> entries = new ConcurrentHashMap<>();
+  private final AtomicLong evictions = new AtomicLong();
+  private final long ttlNanos;
+  private final int maxSize;
+  private final Counter hits;
+  private final Counter misses;
+
+  /**
+   * Constructor.
+   *
+   * @param meterRegistry the registry exposing the hit and miss counters
+   * @param ttlSeconds    the time an entry stays valid
+   * @param maxSize       the maximum number of cached principals
+   */
+  public PrincipalCache(MeterRegistry meterRegistry,
+      @Value("${auth.principal-cache.ttl-seconds:60}") long ttlSeconds,
+      @Value("${auth.principal-cache.max-size:10000}") int maxSize) {
+    this.ttlNanos = TimeUnit.SECONDS.toNanos(ttlSeconds);
+    this.maxSize = maxSize;
+    this.hits = Counter.builder("auth.principal.cache")
+        .tag("result", "hit").register(meterRegistry);
+    this.misses = Counter.builder("auth.principal.cache")
+        .tag("result", "miss").register(meterRegistry);
+    meterRegistry.gaugeMapSize("auth.principal.cache.size", Tags.empty(), entries);
+  }
+
+  /**
+   * Returns the principal of the given email, loading and caching it on a miss.
+   *
+   * @param email  the email of the user
+   * @param loader loads the full user when it is not cached
+   * @return a principal holding the email, ID, role, deactivated flag and token version, or null
+   *         if the user does not exist
+   */
+  public User get(String email, Function<String, User> loader) {
+    long now = System.nanoTime();
+    Entry entry = entries.get(email);
+    if (entry != null && entry.expiresAt() - now > 0) {
+      hits.increment();
+      return entry.toPrincipal(email);
+    }
+    misses.increment();
+    final long evictionsBeforeLoad = evictions.get();
+    User user = loader.apply(email);
+    if (user == null) {
+      entries.remove(email);
+      return null;
+    }
+    entry = new Entry(user.getUserId(), user.getRole(), user.isDeactivated(),
+        user.getTokenVersion(), now + ttlNanos);
+    if (entries.size() >= maxSize) {
+      entries.values().removeIf(cached -> cached.expiresAt() - now <= 0);
+    }
+    // an eviction during the load may concern this user: the loaded state may then be stale
+    if (entries.size() < maxSize && evictions.get() == evictionsBeforeLoad) {
+      entries.put(email, entry);
+    }
+    return entry.toPrincipal(email);
+  }
+
+  /**
+   * Removes the principal of the given email so the next request reloads it.
+   *
+   * @param email the email of the user
+   */
+  public void evict(String email) {
+    evictions.incrementAndGet();
+    if (email != null) {
+      entries.remove(email);
+    }
+  }
+
+  private record Entry(Long userId, User.Role role, boolean deactivated, int tokenVersion,
+      long expiresAt) {
+
+    User toPrincipal(String email) {
+      User principal = new User();
+      principal.setUserId(userId);
+      principal.setEmail(email);
+      principal.setRole(role);
+      principal.setDeactivated(deactivated);
+      principal.setTokenVersion(tokenVersion);
+      return principal;
+    }
+  }
+}
@@ -23,18 +23,15 @@ public class ProducerService {
   private final ProducerRepository producerRepository;
   private final ProductLotRepository productLotRepository;
   private final UserRepository userRepository;
-  private final HelperService helperService;
 
   /**
    * Constructor.
    */
   public ProducerService(ProducerRepository producerRepository,
-      ProductLotRepository productLotRepository, UserRepository userRepository,
-      HelperService helperService) {
+      ProductLotRepository productLotRepository, UserRepository userRepository) {
     this.productLotRepository = productLotRepository;
     this.producerRepository = producerRepository;
     this.userRepository = userRepository;
-    this.helperService = helperService;
   }
 
 
@@ -83,10 +80,7 @@ public class ProducerService {
     if (user.getRole() != Role.PRODUCER) {
       throw new BadRequestException("Email must be a producer user");
     }
-    return productLotRepository.findByProducerUserId(user.getUserId()).stream()
-        .filter(lot -> helperService.hasSameEmail(lot, email))
-        .map(helperService::toDto)
-        .toList();
+    return productLotRepository.findDtosByProducerId(user.getUserId());
   }
 
 }
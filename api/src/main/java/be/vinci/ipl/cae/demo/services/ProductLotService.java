@@ -3,33 +3,38 @@ package be.vinci.ipl.cae.demo.services;
 import be.vinci.ipl.cae.demo.exceptions.BadRequestException;
 import be.vinci.ipl.cae.demo.exceptions.ConflictException;
 import be.vinci.ipl.cae.demo.exceptions.ResourceNotFoundException;
+import be.vinci.ipl.cae.demo.models.dtos.DateRange;
 import be.vinci.ipl.cae.demo.models.dtos.NewProductLot;
+import be.vinci.ipl.cae.demo.models.dtos.ProductDailyQuantity;
 import be.vinci.ipl.cae.demo.models.dtos.ProductDto;
 import be.vinci.ipl.cae.demo.models.dtos.ProductLotDto;
+import be.vinci.ipl.cae.demo.models.dtos.ProductLotPage;
+import be.vinci.ipl.cae.demo.models.dtos.ProductRanking;
+import be.vinci.ipl.cae.demo.models.dtos.ProductSalesStats;
+import be.vinci.ipl.cae.demo.models.dtos.ProductSalesTotals;
+import be.vinci.ipl.cae.demo.models.entities.DailyProductSales;
 import be.vinci.ipl.cae.demo.models.entities.Producer;
 import be.vinci.ipl.cae.demo.models.entities.Product;
 import be.vinci.ipl.cae.demo.models.entities.ProductImage;
 import be.vinci.ipl.cae.demo.models.entities.ProductLot;
-import be.vinci.ipl.cae.demo.models.entities.ProductLot.State;
-import be.vinci.ipl.cae.demo.models.entities.ProductReservation;
 import be.vinci.ipl.cae.demo.models.entities.ProductType;
-import be.vinci.ipl.cae.demo.models.entities.Reservation;
 import be.vinci.ipl.cae.demo.repositories.ProductImageRepository;
 import be.vinci.ipl.cae.demo.repositories.ProductLotRepository;
-import be.vinci.ipl.cae.demo.repositories.ProductReservationRepository;
 import com.azure.storage.blob.BlobClientBuilder;
 import com.azure.storage.blob.models.BlobHttpHeaders;
 import java.io.IOException;
+import java.time.LocalDate;
 import java.time.LocalDateTime;
+import java.util.ArrayList;
 import java.util.HashMap;
-import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Locale;
 import java.util.Map;
-import java.util.Set;
 import java.util.TreeMap;
 import java.util.UUID;
-import java.util.stream.Collectors;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.Limit;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 import org.springframework.web.multipart.MultipartFile;
@@ -40,18 +45,40 @@ import org.springframework.web.multipart.MultipartFile;
 @Service
 public class ProductLotService {
 
+  /**
+   * Maximum number of lots returned in one page.
+   */
+  public static final int MAX_PAGE_SIZE = 100;
+
+  /**
+   * Maximum number of stock shards of a lot.
+   */
+  public static final int MAX_STOCK_SHARDS = 64;
+
+  /**
+   * Maximum number of product labels in one statistics request.
+   */
+  public static final int MAX_STATS_PRODUCTS = 100;
+
+  /**
+   * Maximum rank returned by a ranking request.
+   */
+  public static final int MAX_RANKING_SIZE = 100;
+
   private final ProductLotRepository productLotRepository;
   private final ProductService productService;
   private final ProducerService producerService;
   private final ProductTypeService productTypeService;
   private final ProductImageRepository productImageRepository;
-  private final ProductReservationRepository productReservationRepository;
 
   private final String blobServiceEndpoint;
   private final String sasToken;
   private final String containerName;
   private final BlobClientBuilder baseBlobClientBuilder;
   private final HelperService helperService;
+  private final InventoryEngine inventoryEngine;
+  private final SalesRollupService salesRollupService;
+  private final StatisticsCache statisticsCache;
 
   /**
    * Constructor.
@@ -59,35 +86,75 @@ public class ProductLotService {
   public ProductLotService(ProductLotRepository productLotRepository, ProductService productService,
       ProducerService producerService, ProductTypeService productTypeService,
       ProductImageRepository productImageRepository,
-      ProductReservationRepository productReservationRepository,
       @Value("${azure.blob.service-endpoint}") String blobServiceEndpoint,
       @Value("${azure.blob.sas-token}") String sasToken,
       @Value("${azure.blob.container-name}") String containerName,
-      BlobClientBuilder baseBlobClientBuilder, HelperService helperService) {
+      BlobClientBuilder baseBlobClientBuilder, HelperService helperService,
+      InventoryEngine inventoryEngine, SalesRollupService salesRollupService,
+      StatisticsCache statisticsCache) {
     this.productLotRepository = productLotRepository;
     this.productService = productService;
     this.producerService = producerService;
     this.productTypeService = productTypeService;
     this.productImageRepository = productImageRepository;
-    this.productReservationRepository = productReservationRepository;
     this.blobServiceEndpoint = blobServiceEndpoint;
     this.sasToken = sasToken;
     this.containerName = containerName;
     this.baseBlobClientBuilder = baseBlobClientBuilder;
     this.helperService = helperService;
+    this.inventoryEngine = inventoryEngine;
+    this.salesRollupService = salesRollupService;
+    this.statisticsCache = statisticsCache;
   }
 
 
   /**
-   * Retrieves all product lots that match the given state. This method transforms the ProductLot
-   * entities into DTOs (ProductLotResponse) to be returned to the frontend.
+   * Retrieves all product lots ordered by state. The DTOs are built and ordered by the database in
+   * a single query.
    **/
   public List<ProductLotDto> findAllOrderedByState() {
-    List<ProductLot> allLots = (List<ProductLot>) productLotRepository.findAll();
-    return allLots.stream()
-        .sorted((l1, l2) -> getStateOrder(l1.getState()) - getStateOrder(l2.getState()))
-        .map(helperService::toDto)
-        .toList();
+    return productLotRepository.findAllDtosOrderedByState();
+  }
+
+  /**
+   * Retrieves one page of product lots ordered by state then by ID, using keyset pagination so that
+   * deep pages cost the same as the first one. Every filter is ignored when null.
+   *
+   * @param state  the state to filter by
+   * @param type   the product type label to filter by
+   * @param email  the producer email to filter by
+   * @param from   the inclusive lower bound of the availability date
+   * @param to     the exclusive upper bound of the availability date
+   * @param cursor the cursor returned with the previous page, or null for the first page
+   * @param size   the number of lots wanted, capped to MAX_PAGE_SIZE
+   * @return the page of product lots and the cursor of the next page
+   */
+  public ProductLotPage findLotsPage(ProductLot.State state, String type, String email,
+      LocalDateTime from, LocalDateTime to, String cursor, int size) {
+    String afterState = null;
+    long afterId = 0;
+    if (cursor != null) {
+      long[] position = helperService.decodeCursor(cursor, 2);
+      ProductLot.State[] states = ProductLot.State.values();
+      if (position[0] < 0 || position[0] >= states.length) {
+        throw new BadRequestException("Invalid cursor: " + cursor);
+      }
+      afterState = states[(int) position[0]].name();
+      afterId = position[1];
+    }
+    int pageSize = Math.min(size, MAX_PAGE_SIZE);
+
+    List<ProductLotDto> lots = productLotRepository.findDtoPage(state, type, email, from, to,
+        afterState, afterId, Limit.of(pageSize + 1));
+    if (lots.size() <= pageSize) {
+      return new ProductLotPage(lots, null);
+    }
+
+    List<ProductLotDto> page = lots.subList(0, pageSize);
+    ProductLotDto last = page.get(pageSize - 1);
+    String nextCursor = helperService.encodeCursor(last.getProductLotState().ordinal(),
+        last.getLotId());
+    return new ProductLotPage(List.copyOf(page), nextCursor);
   }
 
   /**
@@ -147,6 +214,7 @@ public class ProductLotService {
     lot.setState(ProductLot.State.PENDING);
 
     productLotRepository.save(lot);
+    statisticsCache.evict(List.of(product.getProductId()));
 
     return newLot;
   }
@@ -182,23 +250,6 @@ public class ProductLotService {
     return blobClientBuilder.buildClient().getBlobUrl();
   }
 
-  /**
-   * Helper method to get the order of the state.
-   *
-   * @param state The state to order
-   * @return The order of the state
-   */
-  private int getStateOrder(ProductLot.State state) {
-
-    return switch (state) {
-      case PENDING -> 0;
-      case ACCEPTED -> 1;
-      case FOR_SALE -> 2;
-      case REJECTED -> 3;
-      case SOLD_OUT -> 4;
-    };
-  }
-
   /**
    * Retrieves all product lots for a specific producer and state.
    *
@@ -207,10 +258,7 @@ public class ProductLotService {
    * @return List of ProductLotDto
    */
   public List<ProductLotDto> findLotsForProducer(String email, ProductLot.State state) {
-    return productLotRepository.findByState(state).stream()
-        .filter(lot -> helperService.hasSameEmail(lot, email))
-        .map(helperService::toDto)
-        .toList();
+    return productLotRepository.findDtosByProducerEmailAndState(email, state);
   }
 
   /**
@@ -220,10 +268,7 @@ public class ProductLotService {
    * @return List of ProductLotDto
    */
   public List<ProductLotDto> findProductLotByState(ProductLot.State state) {
-
-    return productLotRepository.findByState(state).stream()
-        .map(helperService::toDto)
-        .toList();
+    return productLotRepository.findDtosByState(state);
   }
 
   /**
@@ -232,10 +277,7 @@ public class ProductLotService {
    * @return a list of the most recent product lots with state FOR_SALE
    */
   public List<ProductLotDto> findRecentLotsForSale() {
-    return productLotRepository.findTop5ByStateOrderByReceiptDateDesc(
-            ProductLot.State.FOR_SALE).stream()
-        .map(helperService::toDto)
-        .toList();
+    return productLotRepository.findRecentDtosByState(ProductLot.State.FOR_SALE, Limit.of(5));
   }
 
 
@@ -287,7 +329,8 @@ public class ProductLotService {
   }
 
   /**
-   * Updates the state of a product lot identified by its ID.
+   * Updates the state of a product lot identified by its ID. A lot is received the first time it
+   * is put for sale, and its receipt date is kept afterwards.
    *
    * @param id       the ID of the lot to update
    * @param newState the new state to assign to the lot
@@ -296,37 +339,34 @@ public class ProductLotService {
    */
   @Transactional
   public boolean updateLotState(Long id, ProductLot.State newState) {
+    inventoryEngine.evict(id);
     ProductLot lot = productLotRepository.findById(id).orElse(null);
     if (lot == null) {
       return false;
     }
+    final boolean wasReceived = isReceived(lot);
     lot.setState(newState);
-    if (newState == ProductLot.State.FOR_SALE) {
+    if (newState == ProductLot.State.FOR_SALE && lot.getReceiptDate() == null) {
       lot.setReceiptDate(LocalDateTime.now());
     }
     productLotRepository.save(lot);
+    statisticsCache.evict(List.of(lot.getProduct().getProductId()));
+    if (isReceived(lot) != wasReceived) {
+      salesRollupService.recordReceived(id, lot.getReceiptDate().toLocalDate(),
+          wasReceived ? -lot.getInitialQuantity() : lot.getInitialQuantity());
+    }
     return true;
   }
 
-
   /**
-   * Filters a list of product reservations based on their state and recovery date. Only
-   * reservations with a state of "RETRIEVED" and matching the specified month and year (if
-   * provided) are included in the result.
-   *
-   * @param reservations the list of product reservations to filter
-   * @param month        the month to filter by (1-12), or null to ignore the month
-   * @param year         the year to filter by, or null to ignore the year
-   * @return a list of product reservations that match the specified state and date criteria
+   * Tells whether the initial quantity of a lot counts as received on its receipt date, by the
+   * same rule as the rebuild of the daily sales.
    */
-  private List<ProductReservation> filterReservationsByStateAndDate(
-      List<ProductReservation> reservations, Integer month, Integer year) {
-    return reservations.stream()
-        .filter(r -> r.getReservation().getState() == Reservation.State.RETRIEVED)
-        .filter(r -> helperService.matchesDate(r.getReservation().getRecoveryDate(), month, year))
-        .toList();
+  private static boolean isReceived(ProductLot lot) {
+    return lot.getReceiptDate() != null && lot.getState() != ProductLot.State.REJECTED;
   }
 
+
   /**
    * Returns product lots for a given product label, optionally filtered by month and year based on
    * retrieved reservations. If no date is provided, all lots for the product are returned.
@@ -338,44 +378,19 @@ public class ProductLotService {
    * @return a list of matching product lot DTOs, or empty list if none found
    */
   public List<ProductLotDto> getLotsAndSalesData(String productLabel, Integer month, Integer year) {
-    List<ProductLot> allLots = productLotRepository.findByProductLabelIgnoreCase(productLabel);
-
-    if (allLots.isEmpty()) {
-      return List.of();
-    }
-
     if (month == null && year == null) {
-      return allLots.stream()
-          .map(helperService::toDto)
-          .toList();
+      return productLotRepository.findDtosByProductLabel(productLabel);
     }
-
-    List<ProductReservation> reservations = productReservationRepository.findByProductLotIn(
-        allLots);
-    List<ProductReservation> filteredReservations = filterReservationsByStateAndDate(reservations,
-        month, year);
-
-    List<ProductLot> retrievedLots = filteredReservations.stream()
-        .map(ProductReservation::getProductLot)
-        .distinct()
-        .toList();
-
-    List<ProductLot> receivedLots = allLots.stream()
-        .filter(lot -> lot.getReceiptDate() != null && lot.getState() != State.REJECTED)
-        .filter(lot -> helperService.matchesDate(lot.getReceiptDate().toLocalDate(), month, year))
-        .toList();
-
-    Set<ProductLot> combinedLots = new HashSet<>();
-    combinedLots.addAll(retrievedLots);
-    combinedLots.addAll(receivedLots);
-
-    return combinedLots.stream().map(helperService::toDto).toList();
+    DateRange range = helperService.toDateRange(month, year);
+    return productLotRepository.findDtosSoldOrReceivedIn(productLabel, range.getFrom(),
+        range.getTo(), range.fromTime(), range.toTime(), range.getMonth());
   }
 
 
   /**
    * Calculates the total quantity sold per day for a given product label, optionally filtered by
-   * month and year. Only reservations with a state of RETRIEVED are considered.
+   * month and year. Only reservations with a state of RETRIEVED are considered. The quantities
+   * are read from the daily sales rollup.
    *
    * @param productLabel the label of the product
    * @param month        the month to filter reservations (nullable)
@@ -386,30 +401,14 @@ public class ProductLotService {
       String productLabel,
       Integer month,
       Integer year) {
-    List<ProductLot> lots =
-        productLotRepository.findByProductLabelIgnoreCase(productLabel);
-
-    if (lots.isEmpty()) {
-      return Map.of();
-    }
-
-    List<ProductReservation> reservations = productReservationRepository.findByProductLotIn(lots);
-    List<ProductReservation> filteredReservations = filterReservationsByStateAndDate(reservations,
-        month, year);
-
-    return filteredReservations.stream()
-        .collect(Collectors.toMap(
-            r -> r.getReservation().getRecoveryDate().toString(),
-            ProductReservation::getQuantity,
-            Integer::sum,
-            TreeMap::new
-        ));
+    return salesRollupService.sumPerDay(productLabel, DailyProductSales.Channel.RETRIEVED, month,
+        year);
   }
 
 
   /**
    * Calculates the daily received lot quantities for a specific product, optionally filtered by
-   * month and year.
+   * month and year. The quantities are read from the daily sales rollup.
    *
    * @param productLabel the product's label
    * @param month        the month (1-12) to filter by, or null for all months
@@ -420,24 +419,79 @@ public class ProductLotService {
       String productLabel,
       Integer month,
       Integer year) {
-    List<ProductLot> lots =
-        productLotRepository.findByProductLabelIgnoreCase(productLabel);
+    return salesRollupService.sumPerDay(productLabel, DailyProductSales.Channel.RECEIVED, month,
+        year);
+  }
+
 
-    if (lots.isEmpty()) {
-      return Map.of();
+  /**
+   * Computes the sales statistics of several products, or of every product, in two grouped
+   * queries whatever the number of products: the totals of the lots and the quantities per day
+   * read from the daily sales rollup. Labels that match no product are left out.
+   *
+   * @param labels the labels of the products, every product when null or empty
+   * @param from   the inclusive lower bound of the period, or null
+   * @param to     the exclusive upper bound of the period, or null
+   * @return the statistics of each product, ordered by label
+   * @throws BadRequestException if there are too many labels or the period is empty
+   */
+  public List<ProductSalesStats> getSalesStatistics(List<String> labels, LocalDate from,
+      LocalDate to) {
+    boolean allProducts = labels == null || labels.isEmpty();
+    if (!allProducts && labels.size() > MAX_STATS_PRODUCTS) {
+      throw new BadRequestException("At most " + MAX_STATS_PRODUCTS + " products are allowed");
+    }
+    checkPeriod(from, to);
+    List<String> lowerLabels = allProducts ? List.of()
+        : labels.stream().map(label -> label.toLowerCase(Locale.ROOT)).distinct().toList();
+    DateRange range = new DateRange(from, to, null);
+
+    Map<String, ProductSalesStats> stats = new LinkedHashMap<>();
+    for (ProductSalesTotals totals : productLotRepository.sumTotalsByProduct(allProducts,
+        lowerLabels, from != null || to != null, null, from, to, range.fromTime(),
+        range.toTime())) {
+      stats.put(totals.getProductLabel(), new ProductSalesStats(totals.getProductLabel(),
+          totals.getTotalReceived().intValue(), totals.getTotalSold().intValue(),
+          new TreeMap<>(), new TreeMap<>()));
+    }
+    for (ProductDailyQuantity quantity : salesRollupService.findPerProductAndDay(allProducts,
+        lowerLabels, from, to)) {
+      ProductSalesStats productStats = stats.get(quantity.getProductLabel());
+      if (productStats != null) {
+        Map<String, Integer> perDay = quantity.getChannel() == DailyProductSales.Channel.RECEIVED
+            ? productStats.getReceivedPerDay() : productStats.getSalesPerDay();
+        perDay.merge(quantity.getDay().toString(), quantity.getQuantity().intValue(),
+            Integer::sum);
+      }
     }
+    return new ArrayList<>(stats.values());
+  }
 
-    return lots.stream()
-        .filter(r -> r.getReceiptDate() != null && r.getState() != State.REJECTED)
-        .filter(lot -> helperService.matchesDate(lot.getReceiptDate().toLocalDate(), month, year))
-        .collect(Collectors.toMap(
-            r -> r.getReceiptDate().toString(),
-            ProductLot::getInitialQuantity,
-            Integer::sum,
-            TreeMap::new
-        ));
+  /**
+   * Ranks the products by the given metric over a period, in one query. Tied products share a
+   * rank, so more than limit products may be returned.
+   *
+   * @param metric the measure by which the products are ranked
+   * @param from   the inclusive lower bound of the period, or null
+   * @param to     the exclusive upper bound of the period, or null
+   * @param limit  the lowest rank returned
+   * @return the ranked products, ordered by rank then label
+   * @throws BadRequestException if the limit is out of range or the period is empty
+   */
+  public List<ProductRanking> rankProducts(ProductRanking.Metric metric, LocalDate from,
+      LocalDate to, int limit) {
+    if (limit < 1 || limit > MAX_RANKING_SIZE) {
+      throw new BadRequestException("The limit must be between 1 and " + MAX_RANKING_SIZE);
+    }
+    checkPeriod(from, to);
+    return productLotRepository.rankProducts(metric.name(), from, to, limit);
   }
 
+  private void checkPeriod(LocalDate from, LocalDate to) {
+    if (from != null && to != null && !from.isBefore(to)) {
+      throw new BadRequestException("The start of the period must be before its end");
+    }
+  }
 
   /**
    * Aggregates the total initial quantity received and total quantity sold from a list of product
@@ -469,20 +523,29 @@ public class ProductLotService {
     if (quantityToRemove <= 0) {
       throw new BadRequestException("Quantity to remove must be positive");
     }
-    ProductLot lot = productLotRepository.findById(productLotId)
-        .orElseThrow(() -> new ResourceNotFoundException("Product lot not found"));
-
-    if (lot.getRemainingQuantity() < quantityToRemove) {
+    if (!inventoryEngine.remove(productLotId, quantityToRemove)) {
+      if (!productLotRepository.existsById(productLotId)) {
+        throw new ResourceNotFoundException("Product lot not found");
+      }
       throw new ConflictException("Not enough quantity to remove");
     }
+    salesRollupService.recordRemoved(productLotId, quantityToRemove);
+  }
 
-    lot.setRemainingQuantity(lot.getRemainingQuantity() - quantityToRemove);
-    lot.setRemovedQuantity(lot.getRemovedQuantity() + quantityToRemove);
-
-    if (lot.getRemainingQuantity() == 0) {
-      lot.setState(ProductLot.State.SOLD_OUT);
+  /**
+   * Splits the remaining stock of a high-demand product lot across several shards, or merges it
+   * back when the number of shards is 0 or 1.
+   *
+   * @param productLotId the ID of the product lot
+   * @param shards       the number of shards, at most MAX_STOCK_SHARDS
+   * @throws BadRequestException       if the number of shards is invalid
+   * @throws ResourceNotFoundException if the product lot is not found
+   * @throws ConflictException         if the inventory engine does not support shards
+   */
+  public void setStockShards(Long productLotId, int shards) {
+    if (shards < 0 || shards > MAX_STOCK_SHARDS) {
+      throw new BadRequestException("Shards must be between 0 and " + MAX_STOCK_SHARDS);
     }
-    productLotRepository.save(lot);
+    inventoryEngine.setStockShards(productLotId, shards);
   }
-
 }
@@ -0,0 +1,101 @@
+package be.vinci.ipl.cae.demo.services;
+
+import be.vinci.ipl.cae.demo.exceptions.ServiceUnavailableException;
+import be.vinci.ipl.cae.demo.exceptions.TooManyRequestsException;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+/**
+ * Admission control in front of reservation creation. Only a fixed number of reservations run at
+ * once; the others wait in arrival order, up to a maximum wait, in a queue of bounded size. A
+ * request finding the queue full, or waiting too long, is rejected at once instead of holding a
+ * database connection while it waits on row locks.
+ */
+@Service
+public class ReservationAdmissionService {
+
+  private final Semaphore permits;
+  private final AtomicInteger waiting = new AtomicInteger();
+  private final int queueCapacity;
+  private final long maxWaitMillis;
+  private final long retryAfterSeconds;
+  private final Timer waitTimer;
+  private final Counter queueFullRejections;
+  private final Counter timeoutRejections;
+
+  /**
+   * Constructor.
+   *
+   * @param meterRegistry     the registry exposing the queue size, wait time and rejections
+   * @param concurrency       the number of reservations created at the same time
+   * @param queueCapacity     the number of reservations allowed to wait for their turn
+   * @param maxWaitMillis     the maximum time a reservation waits for its turn
+   * @param retryAfterSeconds the delay suggested to rejected clients
+   */
+  public ReservationAdmissionService(MeterRegistry meterRegistry,
+      @Value("${reservations.admission.concurrency:8}") int concurrency,
+      @Value("${reservations.admission.queue-capacity:200}") int queueCapacity,
+      @Value("${reservations.admission.max-wait-ms:2000}") long maxWaitMillis,
+      @Value("${reservations.admission.retry-after-seconds:2}") long retryAfterSeconds) {
+    this.permits = new Semaphore(concurrency, true);
+    this.queueCapacity = queueCapacity;
+    this.maxWaitMillis = maxWaitMillis;
+    this.retryAfterSeconds = retryAfterSeconds;
+    this.waitTimer = Timer.builder("reservations.admission.wait").register(meterRegistry);
+    this.queueFullRejections = Counter.builder("reservations.admission.rejected")
+        .tag("reason", "queue-full").register(meterRegistry);
+    this.timeoutRejections = Counter.builder("reservations.admission.rejected")
+        .tag("reason", "timeout").register(meterRegistry);
+    meterRegistry.gauge("reservations.admission.queue", waiting);
+    meterRegistry.gauge("reservations.admission.active", permits,
+        semaphore -> concurrency - semaphore.availablePermits());
+  }
+
+  /**
+   * Run a reservation creation once admitted.
+   *
+   * @param creation the reservation creation
+   * @param <T>      the type of the result
+   * @return the result of the creation
+   * @throws TooManyRequestsException    if the queue is full or the wait was too long
+   * @throws ServiceUnavailableException if the thread was interrupted while waiting
+   */
+  public <T> T admit(Supplier<T> creation) {
+    int position = waiting.incrementAndGet();
+    if (position > queueCapacity) {
+      waiting.decrementAndGet();
+      queueFullRejections.increment();
+      throw new TooManyRequestsException("Reservation queue is full, queue position " + position,
+          retryAfterSeconds);
+    }
+    boolean admitted;
+    long start = System.nanoTime();
+    try {
+      admitted = permits.tryAcquire(maxWaitMillis, TimeUnit.MILLISECONDS);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new ServiceUnavailableException("Reservation admission interrupted",
+          retryAfterSeconds, e);
+    } finally {
+      waiting.decrementAndGet();
+      waitTimer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+    }
+    if (!admitted) {
+      timeoutRejections.increment();
+      throw new TooManyRequestsException("Reservation queue wait timed out, queue position "
+          + position, retryAfterSeconds);
+    }
+    try {
+      return creation.get();
+    } finally {
+      permits.release();
+    }
+  }
+}
@@ -0,0 +1,158 @@
+package be.vinci.ipl.cae.demo.services;
+
+import be.vinci.ipl.cae.demo.models.dtos.LotQuantity;
+import be.vinci.ipl.cae.demo.models.entities.Reservation;
+import be.vinci.ipl.cae.demo.repositories.ProductReservationRepository;
+import be.vinci.ipl.cae.demo.repositories.ReservationRepository;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+/**
+ * Expires the reservations that were not retrieved. Reservations still reserved a grace period
+ * after their recovery date are abandoned by chunks, each in its own transaction: the chunk is
+ * abandoned in one statement and its reserved quantities are given back with one stock update
+ * per product lot, in ascending lot ID order like reservation creation. When a chunk fails, its
+ * reservations are abandoned one by one, and those that still fail are logged and kept reserved
+ * until the next run, so that they do not hold back the others.
+ */
+@Service
+public class ReservationExpiryService {
+
+  private final Logger logger = LoggerFactory.getLogger(ReservationExpiryService.class);
+
+  private final ReservationRepository reservationRepository;
+  private final ProductReservationRepository productReservationRepository;
+  private final InventoryEngine inventoryEngine;
+  private final PickupManifestCache pickupManifestCache;
+  private final TransactionTemplate transactionTemplate;
+  private final int graceDays;
+  private final int chunkSize;
+  private final Timer batchTimer;
+  private final Counter expired;
+
+  /**
+   * Constructor.
+   *
+   * @param reservationRepository        the repository of the reservations
+   * @param productReservationRepository the repository of the reservation lines
+   * @param inventoryEngine              the engine releasing the reserved stock
+   * @param pickupManifestCache          the cache of the pickup manifests
+   * @param transactionManager           the manager of the chunk transactions
+   * @param meterRegistry                the registry exposing the batch latency and throughput
+   * @param graceDays                    the number of days a reservation is kept after its
+   *                                     recovery date
+   * @param chunkSize                    the maximum number of reservations per transaction
+   */
+  public ReservationExpiryService(ReservationRepository reservationRepository,
+      ProductReservationRepository productReservationRepository,
+      InventoryEngine inventoryEngine, PickupManifestCache pickupManifestCache,
+      PlatformTransactionManager transactionManager,
+      MeterRegistry meterRegistry,
+      @Value("${reservations.expiry.grace-days:1}") int graceDays,
+      @Value("${reservations.expiry.chunk-size:500}") int chunkSize) {
+    this.reservationRepository = reservationRepository;
+    this.productReservationRepository = productReservationRepository;
+    this.inventoryEngine = inventoryEngine;
+    this.pickupManifestCache = pickupManifestCache;
+    this.transactionTemplate = new TransactionTemplate(transactionManager);
+    this.graceDays = graceDays;
+    this.chunkSize = chunkSize;
+    this.batchTimer = Timer.builder("reservations.expiry.batch").register(meterRegistry);
+    this.expired = Counter.builder("reservations.expired").register(meterRegistry);
+  }
+
+  /**
+   * Abandons every overdue reservation, chunk after chunk, and releases its reserved stock.
+   *
+   * @return the number of abandoned reservations
+   */
+  @Scheduled(cron = "${reservations.expiry.cron:0 */15 * * * *}")
+  public int expireOverdueReservations() {
+    LocalDate recoveryDate = LocalDate.now().minusDays(graceDays);
+    long start = System.nanoTime();
+    int total = 0;
+    long afterId = 0;
+    List<Long> reservationIds;
+    do {
+      reservationIds = new ArrayList<>();
+      total += expireChunk(recoveryDate, afterId, reservationIds);
+      if (!reservationIds.isEmpty()) {
+        afterId = reservationIds.get(reservationIds.size() - 1);
+      }
+    } while (reservationIds.size() == chunkSize);
+    if (total > 0 && logger.isInfoEnabled()) {
+      long millis = Math.max(1, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+      logger.info("Abandoned {} overdue reservations in {} ms ({} per second)", total, millis,
+          total * 1000L / millis);
+    }
+    return total;
+  }
+
+  private int expireChunk(LocalDate recoveryDate, long afterId, List<Long> reservationIds) {
+    try {
+      batchTimer.record(() -> transactionTemplate.executeWithoutResult(status -> {
+        reservationIds.addAll(
+            reservationRepository.findOverdueIdsForUpdate(recoveryDate, afterId, chunkSize));
+        abandon(reservationIds);
+      }));
+      return reservationIds.size();
+    } catch (RuntimeException e) {
+      if (reservationIds.isEmpty()) {
+        throw e;
+      }
+      if (logger.isWarnEnabled()) {
+        logger.warn("Could not abandon overdue reservations {} to {} together, abandoning them"
+            + " one by one", reservationIds.get(0), reservationIds.get(reservationIds.size() - 1),
+            e);
+      }
+      int abandoned = 0;
+      for (Long reservationId : reservationIds) {
+        if (expireReservation(reservationId)) {
+          abandoned++;
+        }
+      }
+      return abandoned;
+    }
+  }
+
+  private boolean expireReservation(Long reservationId) {
+    try {
+      return Boolean.TRUE.equals(
+          transactionTemplate.execute(status -> abandon(List.of(reservationId)) > 0));
+    } catch (RuntimeException e) {
+      logger.warn("Could not abandon overdue reservation {}, it stays reserved", reservationId, e);
+      return false;
+    }
+  }
+
+  private int abandon(List<Long> reservationIds) {
+    if (reservationIds.isEmpty()
+        || reservationRepository.updateStatesIf(reservationIds, Reservation.State.RESERVED,
+        Reservation.State.ABANDONED) == 0) {
+      return 0;
+    }
+    pickupManifestCache.evictDates(reservationRepository.findRecoveryDates(reservationIds));
+    for (LotQuantity lotQuantity : productReservationRepository.sumQuantitiesByLot(
+        reservationIds)) {
+      if (!inventoryEngine.release(lotQuantity.getLotId(),
+          lotQuantity.getQuantity().intValue())) {
+        throw new IllegalStateException("Reserved stock of product lot "
+            + lotQuantity.getLotId() + " is lower than its overdue reservations");
+      }
+    }
+    expired.increment(reservationIds.size());
+    return reservationIds.size();
+  }
+}
@@ -3,8 +3,18 @@ package be.vinci.ipl.cae.demo.services;
 import be.vinci.ipl.cae.demo.exceptions.BadRequestException;
 import be.vinci.ipl.cae.demo.exceptions.ConflictException;
 import be.vinci.ipl.cae.demo.exceptions.ResourceNotFoundException;
+import be.vinci.ipl.cae.demo.models.dtos.LotQuantity;
+import be.vinci.ipl.cae.demo.models.dtos.ManifestItem;
+import be.vinci.ipl.cae.demo.models.dtos.ManifestLine;
+import be.vinci.ipl.cae.demo.models.dtos.PickList;
+import be.vinci.ipl.cae.demo.models.dtos.PickupManifest;
 import be.vinci.ipl.cae.demo.models.dtos.ReservationDto;
+import be.vinci.ipl.cae.demo.models.dtos.ReservationFilter;
 import be.vinci.ipl.cae.demo.models.dtos.ReservationInfo;
+import be.vinci.ipl.cae.demo.models.dtos.ReservationPage;
+import be.vinci.ipl.cae.demo.models.dtos.ReservationStateResult;
+import be.vinci.ipl.cae.demo.models.dtos.ReservationStateSummary;
+import be.vinci.ipl.cae.demo.models.dtos.ReservationStateUpdate;
 import be.vinci.ipl.cae.demo.models.dtos.ReservedProductsDto;
 import be.vinci.ipl.cae.demo.models.entities.ProductLot;
 import be.vinci.ipl.cae.demo.models.entities.ProductReservation;
@@ -15,11 +25,21 @@ import be.vinci.ipl.cae.demo.models.entities.User.Role;
 import be.vinci.ipl.cae.demo.repositories.ProductLotRepository;
 import be.vinci.ipl.cae.demo.repositories.ProductReservationRepository;
 import be.vinci.ipl.cae.demo.repositories.ReservationRepository;
+import java.time.LocalDate;
 import java.time.LocalDateTime;
+import java.time.ZoneOffset;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.EnumMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Locale;
+import java.util.Map;
 import java.util.Optional;
+import java.util.Set;
+import java.util.TreeMap;
+import org.springframework.data.domain.Limit;
 import org.springframework.security.access.AccessDeniedException;
 import org.springframework.security.core.context.SecurityContextHolder;
 import org.springframework.stereotype.Service;
@@ -31,9 +51,25 @@ import org.springframework.transaction.annotation.Transactional;
 @Service
 public class ReservationService {
 
+  /**
+   * Maximum number of reservations updated by one bulk state update.
+   */
+  public static final int MAX_STATE_UPDATES = 500;
+
+  /**
+   * Maximum number of reservations in one page.
+   */
+  public static final int MAX_PAGE_SIZE = 100;
+
+  private static final long MICROS_PER_SECOND = 1_000_000L;
+
   private final ReservationRepository reservationRepository;
   private final ProductLotRepository productLotRepository;
   private final ProductReservationRepository productReservationRepository;
+  private final InventoryEngine inventoryEngine;
+  private final HelperService helperService;
+  private final PickupManifestCache pickupManifestCache;
+  private final SalesRollupService salesRollupService;
 
   /**
    * Constructor for ReservationService.
@@ -42,17 +78,29 @@ public class ReservationService {
    * @param productLotRepository         the repository used to handle product lot entities.
    * @param productReservationRepository the repository used to handle product reservation
    *                                     entities.
+   * @param inventoryEngine              the engine updating the lot stocks.
+   * @param helperService                the service encoding the page cursors.
+   * @param pickupManifestCache          the cache of the pickup manifests.
+   * @param salesRollupService           the service adding the retrieved quantities to the
+   *                                     daily sales.
    */
   public ReservationService(ReservationRepository reservationRepository,
       ProductLotRepository productLotRepository,
-      ProductReservationRepository productReservationRepository) {
+      ProductReservationRepository productReservationRepository,
+      InventoryEngine inventoryEngine, HelperService helperService,
+      PickupManifestCache pickupManifestCache, SalesRollupService salesRollupService) {
     this.reservationRepository = reservationRepository;
     this.productLotRepository = productLotRepository;
     this.productReservationRepository = productReservationRepository;
+    this.inventoryEngine = inventoryEngine;
+    this.helperService = helperService;
+    this.pickupManifestCache = pickupManifestCache;
+    this.salesRollupService = salesRollupService;
   }
 
   /**
-   * Creates a new reservation with the specified details.
+   * Creates a new reservation with the specified details. Lines of the same product lot are
+   * merged into one.
    *
    * @param reservationDto the reservation details.
    * @return true if the reservation was successfully created, false otherwise.
@@ -67,91 +115,114 @@ public class ReservationService {
     reservation.setReservationDate(LocalDateTime.now());
     reservation.setRecoveryDate(reservationDto.getRecoveryDate());
 
-    List<ProductReservation> productReservations = new ArrayList<>();
+    Map<Long, Integer> quantities = new TreeMap<>();
     for (ReservedProductsDto reservedProduct : reservationDto.getReservedProducts()) {
-      ProductLot productLot =
-          productLotRepository.findByIdForUpdate(reservedProduct.getProductLotId())
-          .orElseThrow(() ->
-              new ResourceNotFoundException("Product lot not found "
-                  + reservedProduct.getProductLotId()));
-
-      if (productLot.getRemainingQuantity() < reservedProduct.getQuantity()) {
-        throw new ConflictException("Insufficient quantity for product: " + productLot.getLotId());
+      if (reservedProduct.getQuantity() <= 0) {
+        throw new BadRequestException("Quantity must be positive for product: "
+            + reservedProduct.getProductLotId());
       }
-      productLot.setRemainingQuantity(productLot.getRemainingQuantity()
-          - reservedProduct.getQuantity());
-      productLot.setReservedQuantity(productLot.getReservedQuantity()
-          + reservedProduct.getQuantity());
+      quantities.merge(reservedProduct.getProductLotId(), reservedProduct.getQuantity(),
+          Integer::sum);
+    }
 
-      if (productLot.getRemainingQuantity() == 0) {
-        productLot.setState(ProductLot.State.SOLD_OUT);
+    // Lots are updated in ascending ID order so that concurrent carts always lock the rows they
+    // share in the same order and cannot deadlock.
+    for (Map.Entry<Long, Integer> line : quantities.entrySet()) {
+      Long lotId = line.getKey();
+      if (!inventoryEngine.reserve(lotId, line.getValue())) {
+        if (!productLotRepository.existsById(lotId)) {
+          throw new ResourceNotFoundException("Product lot not found " + lotId);
+        }
+        throw new ConflictException("Insufficient quantity for product: " + lotId);
       }
-      productLotRepository.save(productLot);
-
     }
 
     reservationRepository.save(reservation);
 
-    for (ReservedProductsDto reservedProduct : reservationDto.getReservedProducts()) {
-      ProductLot productLot =
-          productLotRepository.findByIdForUpdate(reservedProduct.getProductLotId())
-          .orElseThrow(() ->
-              new ResourceNotFoundException("Product lot not found for this id "
-                  + reservedProduct.getProductLotId()));
+    Map<Long, ProductLot> lots = productLotRepository.findMapByIds(quantities.keySet());
+    List<ProductReservation> productReservations = new ArrayList<>();
+    for (Map.Entry<Long, Integer> line : quantities.entrySet()) {
+      ProductLot productLot = lots.get(line.getKey());
 
       ProductReservation productReservation = new ProductReservation();
       productReservation.setId(new ProductReservationId(productLot.getLotId(),
           reservation.getReservationId()));
       productReservation.setProductLot(productLot);
       productReservation.setReservation(reservation);
-      productReservation.setQuantity(reservedProduct.getQuantity());
+      productReservation.setQuantity(line.getValue());
 
       productReservations.add(productReservation);
     }
 
     productReservationRepository.saveAll(productReservations);
+    pickupManifestCache.evict(reservation.getRecoveryDate());
     return true;
   }
 
 
   /**
-   * Converts a Reservation entity into a ReservationInfo DTO.
-   * This method retrieves all the products associated with the given reservation, calculates the
-   * total price of the reservation based on the unit price and quantity of each product, and
-   * creates a ReservationInfo object containing the reservation details.
+   * Retrieves all reservations for the currently authenticated user, including total price.
    *
-   * @param reservation the Reservation entity to be converted.
-   * @return a ReservationInfo object containing the reservation details and total price.
+   * @return a list of ReservationInfo for the current user.
    */
-  private ReservationInfo toReservationInfo(Reservation reservation) {
-    List<ProductReservation> prs = productReservationRepository.findAllByReservation(reservation);
-    double total = prs.stream()
-        .mapToDouble(pr -> pr.getProductLot().getUnitPrice() * pr.getQuantity())
-        .sum();
-
-    User customer = reservation.getCustomer();
-
-    return new ReservationInfo(
-        reservation.getReservationId(),
-        reservation.getReservationDate(),
-        reservation.getRecoveryDate(),
-        reservation.getState().toString(),
-        total,
-        customer.getEmail(),
-        customer.getFirstname(),
-        customer.getLastname()
-    );
+  public List<ReservationInfo> getAllReservationsForCurrentUser() {
+    User customer = (User) SecurityContextHolder.getContext().getAuthentication().getPrincipal();
+    return reservationRepository.findInfos(customer.getUserId());
   }
 
   /**
-   * Retrieves all reservations for the currently authenticated user, including total price.
+   * Retrieves one page of reservations, most recent first, using keyset pagination on
+   * (reservation date, ID) so that deep pages cost the same as the first one. Managers see the
+   * reservations of every customer, customers only their own ones.
    *
-   * @return a list of ReservationInfo for the current user.
+   * @param filter  the filters of the reservations, the customer email being ignored for
+   *                customers
+   * @param cursor  the cursor returned with the previous page, or null for the first page
+   * @param size    the number of reservations wanted, capped to MAX_PAGE_SIZE
+   * @param summary whether to add the count and value of the matching reservations per state
+   * @return the page of reservations and the cursor of the next page
    */
-  public List<ReservationInfo> getAllReservationsForCurrentUser() {
-    User customer = (User) SecurityContextHolder.getContext().getAuthentication().getPrincipal();
-    List<Reservation> reservations = reservationRepository.findAllByCustomer(customer);
-    return reservations.stream().map(this::toReservationInfo).toList();
+  public ReservationPage findReservationsPage(ReservationFilter filter, String cursor, int size,
+      boolean summary) {
+    User user = (User) SecurityContextHolder.getContext().getAuthentication().getPrincipal();
+    if (user.getRole() == Role.MANAGER) {
+      return findReservationsPage(null, filter, cursor, size, summary);
+    }
+    ReservationFilter ownFilter = new ReservationFilter(filter.getState(), null,
+        filter.getRecoveryFrom(), filter.getRecoveryTo());
+    return findReservationsPage(user.getUserId(), ownFilter, cursor, size, summary);
+  }
+
+  private ReservationPage findReservationsPage(Long customerId, ReservationFilter filter,
+      String cursor, int size, boolean summary) {
+    LocalDateTime afterDate = null;
+    long afterId = 0;
+    if (cursor != null) {
+      long[] position = helperService.decodeCursor(cursor, 2);
+      afterDate = LocalDateTime.ofEpochSecond(Math.floorDiv(position[0], MICROS_PER_SECOND),
+          (int) Math.floorMod(position[0], MICROS_PER_SECOND) * 1000, ZoneOffset.UTC);
+      afterId = position[1];
+    }
+    int pageSize = Math.min(size, MAX_PAGE_SIZE);
+
+    List<ReservationInfo> reservations = reservationRepository.findInfoPage(customerId,
+        filter.getState(), filter.getCustomerEmail(), filter.getRecoveryFrom(),
+        filter.getRecoveryTo(), afterDate, afterId, Limit.of(pageSize + 1));
+    List<ReservationStateSummary> states = summary
+        ? reservationRepository.summarize(customerId, filter.getRecoveryFrom(),
+            filter.getRecoveryTo(), filter.getState(), filter.getCustomerEmail())
+        : null;
+    if (reservations.size() <= pageSize) {
+      return new ReservationPage(reservations, null, states);
+    }
+
+    List<ReservationInfo> page = reservations.subList(0, pageSize);
+    ReservationInfo last = page.get(pageSize - 1);
+    LocalDateTime lastDate = last.getReservationDate();
+    String nextCursor = helperService.encodeCursor(
+        lastDate.toEpochSecond(ZoneOffset.UTC) * MICROS_PER_SECOND + lastDate.getNano() / 1000,
+        last.getReservationId());
+    return new ReservationPage(List.copyOf(page), nextCursor, states);
   }
 
   /**
@@ -174,68 +245,94 @@ public class ReservationService {
     if (!res.getCustomer().getUserId().equals(customer.getUserId())) {
       throw new AccessDeniedException("You are not allowed to cancel this reservation");
     }
-    if (res.getState() != Reservation.State.RESERVED) {
+    if (res.getState() != Reservation.State.RESERVED
+        || reservationRepository.updateStateIf(reservationId, Reservation.State.RESERVED,
+        Reservation.State.CANCELED) == 0) {
       throw new
           ConflictException("Reservation cannot be cancelled because it is not in RESERVED state");
     }
 
-    List<ProductReservation> productReservations =
-        productReservationRepository.findAllByReservation(res);
-
-    for (ProductReservation pr : productReservations) {
-      ProductLot lot = pr.getProductLot();
-      int quantity = pr.getQuantity();
+    pickupManifestCache.evict(res.getRecoveryDate());
 
-      lot.setRemainingQuantity(lot.getRemainingQuantity() + quantity);
-      lot.setReservedQuantity(lot.getReservedQuantity() - quantity);
+    for (ProductReservation pr : productReservationRepository.findAllByReservation(res)) {
+      checkStockUpdated(inventoryEngine.release(pr.getProductLot().getLotId(),
+          pr.getQuantity()), pr);
+    }
+    return true;
+  }
 
-      if (lot.getState() == ProductLot.State.SOLD_OUT) {
-        lot.setState(ProductLot.State.FOR_SALE);
-      }
+  /**
+   * Checks that a stock update of a reserved quantity was applied. A reserved quantity larger
+   * than the reserved stock of its lot means the stock is corrupted, so the whole transaction
+   * is rolled back.
+   *
+   * @param updated whether the stock of the lot was updated
+   * @param pr      the product reservation whose quantity was moved
+   */
+  private void checkStockUpdated(boolean updated, ProductReservation pr) {
+    checkStockUpdated(updated, pr.getProductLot().getLotId());
+  }
 
-      productLotRepository.save(lot);
+  private void checkStockUpdated(boolean updated, Long lotId) {
+    if (!updated) {
+      throw new ConflictException("Reserved stock of product lot " + lotId
+          + " is lower than the reserved quantity");
     }
-    res.setState(Reservation.State.CANCELED);
-    reservationRepository.save(res);
-    return true;
   }
 
 
   /**
    * Retrieves the details of the reserved products associated with a specific reservation.
+   * The lines are read with one projection query that also checks that the reservation belongs
+   * to the user, unless the user is a manager.
    *
    * @param reservationId the unique identifier of the reservation
    * @return a list of ReservedProductsDto containing the details of each reserved product. Returns
    *        an empty list if no reservation is found with the given ID.
    */
   public List<ReservedProductsDto> getReservationDetailsById(long reservationId) {
-
-    Optional<Reservation> reservation = reservationRepository.findById(reservationId);
-
-    if (reservation.isEmpty()) {
-      return new ArrayList<>();
-    }
-
     User user = (User) SecurityContextHolder.getContext().getAuthentication().getPrincipal();
-    if (!user.getRole().equals(Role.MANAGER)
-        && !user.getUserId().equals(reservation.get().getCustomer().getUserId())) {
+    Long customerId = user.getRole() == Role.MANAGER ? null : user.getUserId();
+
+    List<ReservedProductsDto> details =
+        productReservationRepository.findDetails(reservationId, customerId);
+    // No line is found either for a missing reservation or for the reservation of someone else.
+    if (details.isEmpty() && customerId != null
+        && reservationRepository.existsByReservationIdAndCustomerUserIdNot(reservationId,
+        customerId)) {
       throw new AccessDeniedException("You are not allowed to view this reservation");
     }
+    return details;
+  }
 
-    return productReservationRepository.findAllByReservation(reservation.get()).stream()
-        .map(pr -> {
-          ReservedProductsDto dto = new ReservedProductsDto();
-          dto.setProductLotId(pr.getProductLot().getLotId());
-          dto.setProductLabel(pr.getProductLot().getProduct().getLabel());
-          dto.setProductDescription(pr.getProductLot().getProduct().getDescription());
-          dto.setProductUnit(pr.getProductLot().getProduct().getUnit().getLabel());
-          dto.setUnitPrice(pr.getProductLot().getUnitPrice());
-          dto.setQuantity(pr.getQuantity());
-          return dto;
-        })
-        .toList();
+  /**
+   * Retrieves what to prepare for the reservations still to be retrieved on a recovery date:
+   * the total quantity of each product lot and the pick list of each customer. The manifest is
+   * computed with one aggregate query and cached until a reservation of that date changes.
+   *
+   * @param recoveryDate the recovery date
+   * @return the pickup manifest of the date
+   */
+  public PickupManifest getPickupManifest(LocalDate recoveryDate) {
+    return pickupManifestCache.get(recoveryDate, this::loadPickupManifest);
   }
 
+  private PickupManifest loadPickupManifest(LocalDate recoveryDate) {
+    Map<Long, ManifestItem> lots = new TreeMap<>();
+    Map<String, PickList> pickLists = new LinkedHashMap<>();
+    for (ManifestLine line : productReservationRepository.findManifestLines(recoveryDate)) {
+      ManifestItem item = new ManifestItem(line.getLotId(), line.getProductLabel(),
+          line.getProductUnit(), line.getQuantity());
+      lots.merge(line.getLotId(), item, (total, added) -> new ManifestItem(total.getLotId(),
+          total.getProductLabel(), total.getProductUnit(),
+          total.getQuantity() + added.getQuantity()));
+      pickLists.computeIfAbsent(line.getCustomerEmail(), email -> new PickList(email,
+              line.getCustomerFirstname(), line.getCustomerLastname(), new ArrayList<>()))
+          .getItems().add(item);
+    }
+    return new PickupManifest(recoveryDate, List.copyOf(lots.values()),
+        List.copyOf(pickLists.values()));
+  }
 
   /**
    * Retrieves all reservations made by all customers.
@@ -246,8 +343,7 @@ public class ReservationService {
    * @return a list of ReservationInfo for all reservations in the system
    */
   public List<ReservationInfo> getAllReservations() {
-    List<Reservation> reservations = reservationRepository.findAll();
-    return reservations.stream().map(this::toReservationInfo).toList();
+    return reservationRepository.findInfos(null);
   }
 
 
@@ -266,6 +362,29 @@ public class ReservationService {
     Reservation reservation = reservationRepository.findById(reservationId)
         .orElseThrow(() -> new ResourceNotFoundException("Reservation not found"));
 
+    Reservation.State targetState = toFinalState(newState);
+    if (reservation.getState() != Reservation.State.RESERVED
+        || reservationRepository.updateStateIf(reservationId, Reservation.State.RESERVED,
+        targetState) == 0) {
+      throw new BadRequestException("Only RESERVED reservations can be updated.");
+    }
+    pickupManifestCache.evict(reservation.getRecoveryDate());
+    if (targetState == Reservation.State.RETRIEVED) {
+      salesRollupService.recordRetrieved(List.of(reservationId));
+    }
+
+    for (ProductReservation pr : productReservationRepository.findAllByReservation(reservation)) {
+      Long lotId = pr.getProductLot().getLotId();
+      checkStockUpdated(targetState == Reservation.State.ABANDONED
+          ? inventoryEngine.release(lotId, pr.getQuantity())
+          : inventoryEngine.complete(lotId, pr.getQuantity()), pr);
+    }
+  }
+
+  private static Reservation.State toFinalState(String newState) {
+    if (newState == null) {
+      throw new BadRequestException("Missing reservation state");
+    }
     Reservation.State targetState;
     try {
       targetState = Reservation.State.valueOf(newState.toUpperCase(Locale.ROOT));
@@ -276,32 +395,92 @@ public class ReservationService {
     if (targetState != Reservation.State.ABANDONED && targetState != Reservation.State.RETRIEVED) {
       throw new BadRequestException("State must be either ABANDONED or RETRIEVED.");
     }
-    if (reservation.getState() != Reservation.State.RESERVED) {
-      throw new BadRequestException("Only RESERVED reservations can be updated.");
-    }
-
-    List<ProductReservation> productReservations =
-        productReservationRepository.findAllByReservation(reservation);
-
-    for (ProductReservation pr : productReservations) {
-      ProductLot lot = pr.getProductLot();
-      int quantity = pr.getQuantity();
-
-      lot.setReservedQuantity(lot.getReservedQuantity() - quantity);
+    return targetState;
+  }
 
-      if (targetState == Reservation.State.ABANDONED) {
-        lot.setRemainingQuantity(lot.getRemainingQuantity() + quantity);
-        if (lot.getState() == ProductLot.State.SOLD_OUT) {
-          lot.setState(ProductLot.State.FOR_SALE);
+  /**
+   * Updates the states of several reservations to ABANDONED or RETRIEVED in one transaction.
+   * The reservations are locked and moved to each new state in one statement, then the reserved
+   * quantities are summed per product lot and each lot stock is updated once, in ascending lot
+   * ID order. An update that cannot be applied is reported in its result without stopping the
+   * others.
+   *
+   * @param updates the reservations and their new states
+   * @return the result of each update, in the order of the updates
+   * @throws BadRequestException if there are more than MAX_STATE_UPDATES updates
+   */
+  @Transactional
+  public List<ReservationStateResult> updateReservationStates(
+      List<ReservationStateUpdate> updates) {
+    if (updates.size() > MAX_STATE_UPDATES) {
+      throw new BadRequestException("At most " + MAX_STATE_UPDATES + " updates are allowed");
+    }
+    String[] errors = new String[updates.size()];
+    Map<Long, Reservation.State> targets = new TreeMap<>();
+    for (int i = 0; i < updates.size(); i++) {
+      ReservationStateUpdate update = updates.get(i);
+      try {
+        Reservation.State targetState = toFinalState(update.getNewState());
+        if (update.getId() == null || targets.putIfAbsent(update.getId(), targetState) != null) {
+          errors[i] = "Missing or duplicate reservation ID";
         }
-      } else {
-        lot.setSoldQuantity(lot.getSoldQuantity() + quantity);
+      } catch (BadRequestException e) {
+        errors[i] = e.getMessage();
       }
+    }
 
-      productLotRepository.save(lot);
+    List<Long> reserved = targets.isEmpty() ? List.of()
+        : reservationRepository.findIdsInStateForUpdate(targets.keySet(),
+            Reservation.State.RESERVED);
+    final Collection<Long> existing = reserved.size() == targets.size() ? reserved
+        : reservationRepository.findExistingIds(targets.keySet());
+    Map<Reservation.State, List<Long>> idsByState = new EnumMap<>(Reservation.State.class);
+    for (Long reservationId : reserved) {
+      idsByState.computeIfAbsent(targets.get(reservationId), state -> new ArrayList<>())
+          .add(reservationId);
     }
 
-    reservation.setState(targetState);
-    reservationRepository.save(reservation);
+    if (!reserved.isEmpty()) {
+      pickupManifestCache.evictDates(reservationRepository.findRecoveryDates(reserved));
+    }
+    Map<Long, int[]> deltas = new TreeMap<>();
+    for (Map.Entry<Reservation.State, List<Long>> group : idsByState.entrySet()) {
+      reservationRepository.updateStatesIf(group.getValue(), Reservation.State.RESERVED,
+          group.getKey());
+      int kind = group.getKey() == Reservation.State.ABANDONED ? 0 : 1;
+      if (kind == 1) {
+        salesRollupService.recordRetrieved(group.getValue());
+      }
+      for (LotQuantity lotQuantity :
+          productReservationRepository.sumQuantitiesByLot(group.getValue())) {
+        deltas.computeIfAbsent(lotQuantity.getLotId(), lotId -> new int[2])[kind] +=
+            lotQuantity.getQuantity().intValue();
+      }
+    }
+    // Lots are updated in ascending ID order, like in createReservation, to avoid deadlocks.
+    for (Map.Entry<Long, int[]> delta : deltas.entrySet()) {
+      int released = delta.getValue()[0];
+      int completed = delta.getValue()[1];
+      if (released > 0) {
+        checkStockUpdated(inventoryEngine.release(delta.getKey(), released), delta.getKey());
+      }
+      if (completed > 0) {
+        checkStockUpdated(inventoryEngine.complete(delta.getKey(), completed), delta.getKey());
+      }
+    }
+
+    Set<Long> updated = new HashSet<>(reserved);
+    Set<Long> found = new HashSet<>(existing);
+    List<ReservationStateResult> results = new ArrayList<>();
+    for (int i = 0; i < updates.size(); i++) {
+      Long reservationId = updates.get(i).getId();
+      String error = errors[i];
+      if (error == null && !updated.contains(reservationId)) {
+        error = found.contains(reservationId) ? "Only RESERVED reservations can be updated."
+            : "Reservation not found";
+      }
+      results.add(new ReservationStateResult(reservationId, error == null, error));
+    }
+    return results;
   }
 }
@@ -0,0 +1,162 @@
+package be.vinci.ipl.cae.demo.services;
+
+import be.vinci.ipl.cae.demo.models.dtos.DateRange;
+import be.vinci.ipl.cae.demo.models.dtos.ProductDailyQuantity;
+import be.vinci.ipl.cae.demo.models.entities.DailyProductSales;
+import be.vinci.ipl.cae.demo.repositories.DailyProductSalesRepository;
+import java.time.LocalDate;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+/**
+ * Daily sales rollup service. Every movement of stock adds its quantity to the row of its
+ * product, day and channel in the transaction that makes it, and the statistics are read from
+ * these rows. Each movement also invalidates the cached statistics of its product. The rollup
+ * can be rebuilt from the reservations, open sales and lots once, when it is introduced on
+ * existing data.
+ */
+@Service
+public class SalesRollupService {
+
+  private final Logger logger = LoggerFactory.getLogger(SalesRollupService.class);
+
+  private final DailyProductSalesRepository dailyProductSalesRepository;
+  private final HelperService helperService;
+  private final StatisticsCache statisticsCache;
+  private final TransactionTemplate transactionTemplate;
+  private final boolean backfillOnStartup;
+
+  /**
+   * Constructor.
+   *
+   * @param dailyProductSalesRepository the repository of the rollup
+   * @param helperService               the helper turning months and years into date ranges
+   * @param statisticsCache             the cache of the statistics of the moved products
+   * @param transactionManager          the manager of the backfill transaction
+   * @param backfillOnStartup           whether the rollup is rebuilt when the application starts
+   */
+  public SalesRollupService(DailyProductSalesRepository dailyProductSalesRepository,
+      HelperService helperService, StatisticsCache statisticsCache,
+      PlatformTransactionManager transactionManager,
+      @Value("${sales-rollup.backfill-on-startup:false}") boolean backfillOnStartup) {
+    this.dailyProductSalesRepository = dailyProductSalesRepository;
+    this.helperService = helperService;
+    this.statisticsCache = statisticsCache;
+    this.transactionTemplate = new TransactionTemplate(transactionManager);
+    this.backfillOnStartup = backfillOnStartup;
+  }
+
+  /**
+   * Adds the quantities of reservations that were just retrieved.
+   *
+   * @param reservationIds the IDs of the retrieved reservations
+   */
+  public void recordRetrieved(Collection<Long> reservationIds) {
+    if (!reservationIds.isEmpty()) {
+      statisticsCache.evict(dailyProductSalesRepository.addRetrieved(reservationIds));
+    }
+  }
+
+  /**
+   * Adds the quantities of an open sale that was just created.
+   *
+   * @param openSaleId the ID of the open sale
+   */
+  public void recordOpenSale(Long openSaleId) {
+    statisticsCache.evict(dailyProductSalesRepository.addOpenSale(openSaleId));
+  }
+
+  /**
+   * Adds the initial quantity of a lot that was just received, or removes it when a received lot
+   * is rejected.
+   *
+   * @param lotId    the ID of the product lot
+   * @param day      the day of the receipt
+   * @param quantity the initial quantity of the lot, negative when it is rejected
+   */
+  public void recordReceived(Long lotId, LocalDate day, int quantity) {
+    statisticsCache.evict(dailyProductSalesRepository.addForLot(lotId, day,
+        DailyProductSales.Channel.RECEIVED.name(), quantity));
+  }
+
+  /**
+   * Adds a quantity that was just removed from a lot, on the current day.
+   *
+   * @param lotId    the ID of the product lot
+   * @param quantity the removed quantity
+   */
+  public void recordRemoved(Long lotId, int quantity) {
+    statisticsCache.evict(dailyProductSalesRepository.addForLot(lotId, LocalDate.now(),
+        DailyProductSales.Channel.REMOVED.name(), quantity));
+  }
+
+  /**
+   * Reads the quantities of a product moved through a channel per day, optionally filtered by
+   * month and year.
+   *
+   * @param label   the label of the product
+   * @param channel the channel of the movements
+   * @param month   the month (1-12) to filter by, or null for all months
+   * @param year    the year to filter by, or null for all years
+   * @return a map of dates (as String) to quantities, sorted by date
+   */
+  public Map<String, Integer> sumPerDay(String label, DailyProductSales.Channel channel,
+      Integer month, Integer year) {
+    DateRange range = helperService.toDateRange(month, year);
+    return helperService.toDailyMap(dailyProductSalesRepository.sumPerDay(label, channel,
+        range.getFrom(), range.getTo(), range.getMonth()));
+  }
+
+  /**
+   * Reads the quantities of several products sold or received per day, in one query.
+   *
+   * @param allProducts whether every product is read, ignoring the labels
+   * @param labels      the lower-case labels of the products
+   * @param from        the inclusive lower bound of the day, or null
+   * @param to          the exclusive upper bound of the day, or null
+   * @return the quantity moved by each product through each channel each day
+   */
+  public List<ProductDailyQuantity> findPerProductAndDay(boolean allProducts,
+      Collection<String> labels, LocalDate from, LocalDate to) {
+    return dailyProductSalesRepository.findPerProductAndDay(allProducts, labels, from, to);
+  }
+
+  /**
+   * Rebuilds the retrieved, open sale and received rows from the existing reservations, open
+   * sales and lots in one transaction. The rollup is locked first, so that the movements made
+   * meanwhile wait and are added once on top of the rebuilt rows. The removed quantities cannot
+   * be rebuilt and are kept.
+   *
+   * @return the number of rebuilt rows
+   */
+  public int backfill() {
+    Integer rows = transactionTemplate.execute(status -> {
+      dailyProductSalesRepository.lock();
+      dailyProductSalesRepository.deleteRebuildable();
+      return dailyProductSalesRepository.insertRebuilt();
+    });
+    statisticsCache.evict(null);
+    logger.info("Rebuilt {} daily sales rows", rows);
+    return rows == null ? 0 : rows;
+  }
+
+  /**
+   * Rebuilds the rollup when the application is ready, if enabled by
+   * sales-rollup.backfill-on-startup. It is meant to run once, when the rollup is deployed.
+   */
+  @EventListener(ApplicationReadyEvent.class)
+  public void backfillOnStartup() {
+    if (backfillOnStartup) {
+      backfill();
+    }
+  }
+}
@@ -0,0 +1,215 @@
+package be.vinci.ipl.cae.demo.services;
+
+import be.vinci.ipl.cae.demo.exceptions.ResourceNotFoundException;
+import be.vinci.ipl.cae.demo.repositories.ProductLotStockRepository;
+import be.vinci.ipl.cae.demo.repositories.ProductLotStockShardRepository;
+import jakarta.annotation.PostConstruct;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.function.BooleanSupplier;
+import java.util.function.IntUnaryOperator;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+/**
+ * Database inventory engine splitting the remaining stock of high-demand lots across several
+ * shard rows, so that concurrent checkouts of the same lot lock different rows. A mutation of a
+ * sharded lot starts on a random shard and falls back to the next ones until one has enough
+ * stock. The lots whose shards changed are consolidated into the lot row at a fixed interval,
+ * and their stock is spread evenly again. Lots without shards use the lot row as usual.
+ *
+ * <p>The listings read the lot row, so the quantities and the state they show for a sharded lot
+ * lag behind its shards by up to the consolidation interval, or longer while checkouts lock the
+ * lot, since a consolidation skips locked rows. The stock checks always use the shards.
+ */
+@Service
+@ConditionalOnProperty(name = "inventory.engine", havingValue = "sharded")
+public class ShardedInventoryEngine extends DatabaseInventoryEngine {
+
+  private final ProductLotStockShardRepository shardRepository;
+  private final TransactionTemplate consolidation;
+  private final Map<Long, Integer> shardCounts = new ConcurrentHashMap<>();
+  private final Logger logger = LoggerFactory.getLogger(ShardedInventoryEngine.class);
+  private final Set<Long> changedLots = ConcurrentHashMap.newKeySet();
+
+  /**
+   * Constructor.
+   *
+   * @param productLotStockRepository the repository updating the lot rows
+   * @param shardRepository           the repository updating the shards
+   * @param transactionManager        the manager of the consolidation transactions
+   */
+  public ShardedInventoryEngine(ProductLotStockRepository productLotStockRepository,
+      ProductLotStockShardRepository shardRepository,
+      PlatformTransactionManager transactionManager) {
+    super(productLotStockRepository);
+    this.shardRepository = shardRepository;
+    this.consolidation = new TransactionTemplate(transactionManager);
+  }
+
+  @Override
+  public boolean reserve(Long lotId, int quantity) {
+    return update(lotId, shard -> shardRepository.update(lotId, shard, -quantity, quantity, 0, 0),
+        () -> super.reserve(lotId, quantity));
+  }
+
+  @Override
+  public boolean sell(Long lotId, int quantity) {
+    return update(lotId, shard -> shardRepository.sell(lotId, shard, quantity),
+        () -> super.sell(lotId, quantity));
+  }
+
+  @Override
+  public boolean release(Long lotId, int quantity) {
+    return update(lotId, shard -> takeReserved(lotId, shard, quantity, quantity, 0),
+        () -> super.release(lotId, quantity));
+  }
+
+  @Override
+  public boolean complete(Long lotId, int quantity) {
+    return update(lotId, shard -> takeReserved(lotId, shard, quantity, 0, quantity),
+        () -> super.complete(lotId, quantity));
+  }
+
+  @Override
+  public boolean remove(Long lotId, int quantity) {
+    return update(lotId, shard -> shardRepository.update(lotId, shard, -quantity, 0, 0, quantity),
+        () -> super.remove(lotId, quantity));
+  }
+
+  @Override
+  public void evict(Long lotId) {
+    shardCounts.remove(lotId);
+  }
+
+  /**
+   * Splits the stock of a lot across the given number of shards, or moves it back to the lot
+   * row when the number is 0 or 1. The lot row and its current shards are locked first, so that
+   * the shards are fully consolidated before the remaining quantity moves to the new ones.
+   *
+   * @param lotId  the ID of the product lot
+   * @param shards the number of shards
+   * @throws ResourceNotFoundException if the lot does not exist
+   */
+  @Override
+  @Transactional
+  public void setStockShards(Long lotId, int shards) {
+    shardRepository.findRemainingQuantityForUpdate(lotId)
+        .orElseThrow(() -> new ResourceNotFoundException("Product lot not found"));
+    shardRepository.lockShards(lotId);
+    shardRepository.consolidate(lotId);
+    shardRepository.deleteByLotId(lotId);
+    int remaining = shardRepository.findRemainingQuantityForUpdate(lotId).orElseThrow();
+    if (shards > 1) {
+      shardRepository.clearRemainingQuantity(lotId);
+      shardRepository.createShards(lotId, shards, remaining);
+    }
+    shardCounts.remove(lotId);
+  }
+
+  /**
+   * Marks every sharded lot as changed on startup, so that the changes left in the shards by a
+   * previous run are consolidated.
+   */
+  @PostConstruct
+  public void markShardedLots() {
+    changedLots.addAll(shardRepository.findShardedLotIds());
+  }
+
+  /**
+   * Consolidates the lots whose shards changed since the previous consolidation, each in its own
+   * short transaction, and forgets the known shard counts so that shards set up by another
+   * instance are picked up. A lot is unmarked before it is consolidated, so that a change
+   * committed meanwhile marks it again. A lot that fails is marked again for the next run
+   * without stopping the others.
+   */
+  @Scheduled(fixedDelayString = "${inventory.sharded.consolidate-interval-ms:1000}")
+  public void consolidateAll() {
+    List<Long> failedLots = new ArrayList<>();
+    for (Iterator<Long> lotIds = changedLots.iterator(); lotIds.hasNext(); ) {
+      Long lotId = lotIds.next();
+      lotIds.remove();
+      try {
+        consolidation.executeWithoutResult(status -> shardRepository.consolidate(lotId));
+      } catch (RuntimeException e) {
+        logger.warn("Could not consolidate the shards of lot {}, retrying on the next run", lotId,
+            e);
+        failedLots.add(lotId);
+      }
+    }
+    // marked again after the loop only, so that the iteration does not retry them right away
+    changedLots.addAll(failedLots);
+    shardCounts.clear();
+  }
+
+  /**
+   * Applies a mutation to a shard of the lot, or to the lot row when it has no shards. A
+   * rejected mutation is tried once more after reloading the shard count, in case the lot was
+   * sharded or unsharded meanwhile.
+   */
+  private boolean update(Long lotId, IntUnaryOperator onShard, BooleanSupplier onLot) {
+    for (int attempt = 0; attempt < 2; attempt++) {
+      int shards = shardCounts.computeIfAbsent(lotId, shardRepository::countByIdProductLot);
+      if (shards == 0) {
+        if (onLot.getAsBoolean()) {
+          return true;
+        }
+      } else if (onAnyShard(shards, onShard)) {
+        markChanged(lotId);
+        return true;
+      }
+      shardCounts.remove(lotId);
+    }
+    return false;
+  }
+
+  /**
+   * Moves a reserved quantity out of a shard if the lot has that much reserved. The lot row is
+   * locked first, so that the releases and completions of the lot are checked one at a time as
+   * on an unsharded lot, and so that a consolidation skips the lot until the transaction ends.
+   */
+  private int takeReserved(Long lotId, int shard, int quantity, int remaining, int sold) {
+    shardRepository.findRemainingQuantityForUpdate(lotId);
+    return shardRepository.takeReserved(lotId, shard, quantity, remaining, sold);
+  }
+
+  /**
+   * Marks a lot for the next consolidation once the transaction of its shard change ends, since
+   * a consolidation skips the shards the transaction still locks.
+   */
+  private void markChanged(Long lotId) {
+    if (TransactionSynchronizationManager.isSynchronizationActive()) {
+      TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+        @Override
+        public void afterCompletion(int status) {
+          changedLots.add(lotId);
+        }
+      });
+    } else {
+      changedLots.add(lotId);
+    }
+  }
+
+  private static boolean onAnyShard(int shards, IntUnaryOperator onShard) {
+    int first = ThreadLocalRandom.current().nextInt(shards);
+    for (int i = 0; i < shards; i++) {
+      if (onShard.applyAsInt((first + i) % shards) > 0) {
+        return true;
+      }
+    }
+    return false;
+  }
+}
@@ -0,0 +1,154 @@
+package be.vinci.ipl.cae.demo.services;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import java.util.Collection;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+/**
+ * Short-lived cache of the statistics, keyed by endpoint, product, month and year. Identical
+ * requests made while a statistic is being computed wait for that computation instead of
+ * running their own, and its result is then reused until the time limit. A statistic is removed
+ * as soon as a movement of its product is written.
+ */
+@Component
+public class StatisticsCache {
+
+  private final Map<Key, Entry> entries = new ConcurrentHashMap<>();
+  private final long ttlNanos;
+  private final int maxSize;
+  private final Counter hits;
+  private final Counter misses;
+  private final Counter coalesced;
+
+  /**
+   * Constructor.
+   *
+   * @param meterRegistry the registry exposing the hit, miss and coalesced counters
+   * @param ttlSeconds    the time a statistic stays valid
+   * @param maxSize       the maximum number of cached statistics
+   */
+  public StatisticsCache(MeterRegistry meterRegistry,
+      @Value("${statistics.cache.ttl-seconds:30}") long ttlSeconds,
+      @Value("${statistics.cache.max-size:1000}") int maxSize) {
+    this.ttlNanos = TimeUnit.SECONDS.toNanos(ttlSeconds);
+    this.maxSize = maxSize;
+    this.hits = Counter.builder("statistics.cache").tag("result", "hit").register(meterRegistry);
+    this.misses = Counter.builder("statistics.cache").tag("result", "miss")
+        .register(meterRegistry);
+    this.coalesced = Counter.builder("statistics.cache").tag("result", "coalesced")
+        .register(meterRegistry);
+    meterRegistry.gaugeMapSize("statistics.cache.size", Tags.empty(), entries);
+  }
+
+  /**
+   * Returns the statistic of the given key. It is computed by the calling thread on a miss,
+   * while the concurrent callers asking for the same key wait for its result. A failed
+   * computation is not kept, and its exception is thrown to every waiting caller.
+   *
+   * @param endpoint  the name of the statistic
+   * @param productId the ID of the product
+   * @param month     the month filter, or null
+   * @param year      the year filter, or null
+   * @param loader    computes the statistic when it is not cached
+   * @param <T>       the type of the statistic
+   * @return the statistic
+   */
+  @SuppressWarnings({"unchecked", "PMD.PreserveStackTrace"})
+  public <T> T get(String endpoint, Long productId, Integer month, Integer year,
+      Supplier<T> loader) {
+    Key key = new Key(endpoint, productId, month, year);
+    long now = System.nanoTime();
+    Entry entry = entries.get(key);
+    if (entry != null && entry.expiresAt() - now <= 0) {
+      entries.remove(key, entry);
+      entry = null;
+    }
+    if (entry == null) {
+      Entry loading = new Entry(new CompletableFuture<>(), now + ttlNanos);
+      entry = hasRoom(now) ? entries.putIfAbsent(key, loading) : null;
+      if (entry == null) {
+        misses.increment();
+        return load(key, loading, loader);
+      }
+    }
+    if (entry.value().isDone()) {
+      hits.increment();
+    } else {
+      coalesced.increment();
+    }
+    try {
+      return (T) entry.value().join();
+    } catch (CompletionException e) {
+      // the waiting callers fail as the loading caller did, e.g. with a 404
+      if (e.getCause() instanceof RuntimeException cause) {
+        throw cause;
+      }
+      throw e;
+    }
+  }
+
+  private <T> T load(Key key, Entry entry, Supplier<T> loader) {
+    try {
+      T value = loader.get();
+      entry.value().complete(value);
+      return value;
+    } catch (RuntimeException | Error e) {
+      entries.remove(key, entry);
+      entry.value().completeExceptionally(e);
+      throw e;
+    }
+  }
+
+  /**
+   * Removes the statistics of the given products, or every statistic if the products are null.
+   * Inside a transaction, they are removed again once the transaction ends, so that a statistic
+   * computed before the commit is not kept.
+   *
+   * @param productIds the IDs of the changed products, or null if unknown
+   */
+  public void evict(Collection<Long> productIds) {
+    if (productIds != null && productIds.isEmpty()) {
+      return;
+    }
+    drop(productIds);
+    if (TransactionSynchronizationManager.isSynchronizationActive()) {
+      TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+        @Override
+        public void afterCompletion(int status) {
+          drop(productIds);
+        }
+      });
+    }
+  }
+
+  private void drop(Collection<Long> productIds) {
+    if (productIds == null) {
+      entries.clear();
+    } else {
+      entries.keySet().removeIf(key -> productIds.contains(key.productId()));
+    }
+  }
+
+  private boolean hasRoom(long now) {
+    return entries.size() < maxSize
+        || entries.values().removeIf(cached -> cached.expiresAt() - now <= 0)
+        && entries.size() < maxSize;
+  }
+
+  private record Key(String endpoint, Long productId, Integer month, Integer year) {
+  }
+
+  private record Entry(CompletableFuture<Object> value, long expiresAt) {
+  }
+}
@@ -0,0 +1,57 @@
+package be.vinci.ipl.cae.demo.services;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import org.springframework.stereotype.Component;
+
+/**
+ * In-memory copy of the token versions of the users, stored with each user, so that the claims
+ * of a stateless token can be trusted without reading the user. Only the users that got a token
+ * or a new version from this instance are known, and tokens issued before this instance started
+ * are not trusted either: those are checked against the stored user instead.
+ */
+@Component
+public class TokenVersionRegistry {
+
+  private final Map<Long, Integer> versions = new ConcurrentHashMap<>();
+  private final Instant startedAt = Instant.now().truncatedTo(ChronoUnit.SECONDS);
+
+  /**
+   * Constructor.
+   *
+   * @param meterRegistry the registry exposing the number of bumped users
+   */
+  public TokenVersionRegistry(MeterRegistry meterRegistry) {
+    meterRegistry.gaugeMapSize("auth.token.versions", Tags.empty(), versions);
+  }
+
+  /**
+   * Record the stored token version of a user, when a token is signed or the version is bumped.
+   * A version never goes back, so the stateless tokens of the previous versions are revoked.
+   *
+   * @param userId  the ID of the user
+   * @param version the stored token version of the user
+   */
+  public void update(Long userId, int version) {
+    if (userId != null) {
+      versions.merge(userId, version, Math::max);
+    }
+  }
+
+  /**
+   * Check whether the claims of a stateless token are still trusted.
+   *
+   * @param userId   the ID of the user
+   * @param version  the token version signed in the token
+   * @param issuedAt the issue date of the token
+   * @return true if the token was issued by this instance at the current version
+   */
+  public boolean isCurrent(Long userId, int version, Instant issuedAt) {
+    return issuedAt != null && !issuedAt.isBefore(startedAt)
+        && Integer.valueOf(version).equals(versions.get(userId));
+  }
+}
@@ -11,13 +11,16 @@ import be.vinci.ipl.cae.demo.models.entities.User;
 import be.vinci.ipl.cae.demo.repositories.AddressRepository;
 import be.vinci.ipl.cae.demo.repositories.ProducerRepository;
 import be.vinci.ipl.cae.demo.repositories.UserRepository;
+import be.vinci.ipl.cae.demo.services.VerifiedTokenCache.VerifiedToken;
 import com.auth0.jwt.JWT;
+import com.auth0.jwt.JWTCreator;
+import com.auth0.jwt.JWTVerifier;
 import com.auth0.jwt.algorithms.Algorithm;
+import com.auth0.jwt.interfaces.DecodedJWT;
 import jakarta.annotation.PostConstruct;
 import java.time.LocalDateTime;
 import java.util.Date;
 import org.springframework.beans.factory.annotation.Value;
-import org.springframework.security.crypto.bcrypt.BCryptPasswordEncoder;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 
@@ -29,15 +32,21 @@ public class UserService {
 
   @Value("${JWT_SECRET}")
   private String jwtSecret;
+  //not in private so the mock tests can enable it
+  @Value("${auth.jwt.stateless-claims:false}")
+  boolean statelessClaims;
   private static final long lifetimeJwt = 24 * 60 * 60 * 1000; // 24 hours
 
-  //not in private so the mock tests have access to it
-  Algorithm algorithm;
+  private Algorithm algorithm;
+  private JWTVerifier verifier;
 
-  private final BCryptPasswordEncoder passwordEncoder;
+  private final PasswordHashingService passwordHashingService;
   private final UserRepository userRepository;
   private final AddressRepository addressRepository;
   private final ProducerRepository producerRepository;
+  private final PrincipalCache principalCache;
+  private final VerifiedTokenCache verifiedTokenCache;
+  private final TokenVersionRegistry tokenVersionRegistry;
 
 
   /**
@@ -45,21 +54,41 @@ public class UserService {
    */
   @PostConstruct
   public void init() {
-    this.algorithm = Algorithm.HMAC256(jwtSecret);
+    useAlgorithm(Algorithm.HMAC256(jwtSecret));
+  }
+
+  /**
+   * Sets the signing algorithm and builds the verifier once for all the requests.
+   * Package-private so the tests can sign with their own secret.
+   *
+   * @param algorithm the algorithm used to sign and verify the tokens
+   */
+  void useAlgorithm(Algorithm algorithm) {
+    this.algorithm = algorithm;
+    this.verifier = JWT.require(algorithm).build();
   }
 
   /**
    * Constructor.
    *
-   * @param passwordEncoder the password encoder
-   * @param userRepository  the user repository
+   * @param passwordHashingService the password hashing service
+   * @param userRepository         the user repository
+   * @param principalCache         the cache of the authenticated principals
+   * @param verifiedTokenCache     the cache of the already verified tokens
+   * @param tokenVersionRegistry   the token versions used to trust stateless tokens
    */
-  public UserService(BCryptPasswordEncoder passwordEncoder, UserRepository userRepository,
-      AddressRepository addressRepository, ProducerRepository producerRepository) {
-    this.passwordEncoder = passwordEncoder;
+  public UserService(PasswordHashingService passwordHashingService,
+      UserRepository userRepository, AddressRepository addressRepository,
+      ProducerRepository producerRepository,
+      PrincipalCache principalCache, VerifiedTokenCache verifiedTokenCache,
+      TokenVersionRegistry tokenVersionRegistry) {
+    this.passwordHashingService = passwordHashingService;
     this.userRepository = userRepository;
     this.addressRepository = addressRepository;
     this.producerRepository = producerRepository;
+    this.principalCache = principalCache;
+    this.verifiedTokenCache = verifiedTokenCache;
+    this.tokenVersionRegistry = tokenVersionRegistry;
 
   }
 
@@ -70,10 +99,33 @@ public class UserService {
    * @return the JWT token
    */
   public AuthenticatedUser createJwtToken(String email) {
-    String token = JWT.create().withIssuer("auth0").withClaim("email", email)
-        .withIssuedAt(new Date()).withExpiresAt(new Date(System.currentTimeMillis() + lifetimeJwt))
-        .sign(algorithm);
+    return toAuthenticatedUser(email, newToken(email).sign(algorithm));
+  }
 
+  /**
+   * Create a JWT token for a user, signing its token version so that the token is revoked when
+   * the version is bumped. When stateless claims are enabled, the token also signs the role and
+   * the ID of the user, so the requests can be authenticated without reading the user.
+   *
+   * @param user the user to include in the claims
+   * @return the JWT token
+   */
+  public AuthenticatedUser createJwtToken(User user) {
+    JWTCreator.Builder token = newToken(user.getEmail())
+        .withClaim("tokenVersion", user.getTokenVersion());
+    if (statelessClaims) {
+      token.withClaim("userId", user.getUserId()).withClaim("role", user.getRole().name());
+      tokenVersionRegistry.update(user.getUserId(), user.getTokenVersion());
+    }
+    return toAuthenticatedUser(user.getEmail(), token.sign(algorithm));
+  }
+
+  private JWTCreator.Builder newToken(String email) {
+    return JWT.create().withIssuer("auth0").withClaim("email", email)
+        .withIssuedAt(new Date()).withExpiresAt(new Date(System.currentTimeMillis() + lifetimeJwt));
+  }
+
+  private AuthenticatedUser toAuthenticatedUser(String email, String token) {
     AuthenticatedUser authenticatedUser = new AuthenticatedUser();
     authenticatedUser.setEmail(email);
     authenticatedUser.setToken(token);
@@ -88,8 +140,38 @@ public class UserService {
    * @return the email if the token is valid, null otherwise
    */
   public String verifyJwtToken(String token) {
+    VerifiedToken verified = verifyToken(token);
+    return verified == null ? null : verified.email();
+  }
+
+  /**
+   * Verify a JWT token and read its claims.
+   *
+   * @param token the token to verify
+   * @return the claims if the token is valid, null otherwise
+   */
+  public VerifiedToken verifyToken(String token) {
+    VerifiedToken cached = verifiedTokenCache.get(token);
+    if (cached != null) {
+      return cached;
+    }
     try {
-      return JWT.require(algorithm).build().verify(token).getClaim("email").asString();
+      DecodedJWT decodedJwt = verifier.verify(token);
+      String email = decodedJwt.getClaim("email").asString();
+      if (email == null) {
+        return null;
+      }
+      String role = decodedJwt.getClaim("role").asString();
+      VerifiedToken verified = new VerifiedToken(email,
+          decodedJwt.getClaim("userId").asLong(),
+          role == null ? null : User.Role.valueOf(role),
+          decodedJwt.getClaim("tokenVersion").asInt(),
+          decodedJwt.getIssuedAtAsInstant(),
+          decodedJwt.getExpiresAtAsInstant());
+      if (verified.expiresAt() != null) {
+        verifiedTokenCache.put(token, verified);
+      }
+      return verified;
     } catch (Exception e) {
       return null;
     }
@@ -112,11 +194,11 @@ public class UserService {
       return null;
     }
 
-    if (!passwordEncoder.matches(password, user.getPassword())) {
+    if (!passwordHashingService.matches(password, user.getPassword())) {
       return null;
     }
 
-    return createJwtToken(email);
+    return createJwtToken(user);
   }
 
   /**
@@ -143,6 +225,7 @@ public class UserService {
       producer.setCompanyName(newUserDto.getCompanyName());
       producerRepository.save(producer);
     }
+    principalCache.evict(newUserDto.getEmail());
 
     return newUserDto;
   }
@@ -158,6 +241,44 @@ public class UserService {
     return userRepository.findByEmail(email);
   }
 
+  /**
+   * Read the principal of an authenticated user from its email, served from the principal cache
+   * when possible. The principal only holds the ID, email, role and deactivated flag.
+   *
+   * @param email the email
+   * @return the principal if the user exists, null otherwise
+   */
+  public User readPrincipalFromEmail(String email) {
+    return principalCache.get(email, userRepository::findByEmail);
+  }
+
+  /**
+   * Read the principal of a verified token. The principal of a stateless token at the current
+   * token version is built from its claims, any other token goes through the principal cache and
+   * is refused when the user is deactivated or its token version changed since the token was
+   * signed. A token without a version is at version 0.
+   *
+   * @param verified the claims of the verified token
+   * @return the principal if the user exists and the token is not revoked, null otherwise
+   */
+  public User readPrincipal(VerifiedToken verified) {
+    if (!statelessClaims || !verified.isStateless() || !tokenVersionRegistry.isCurrent(
+        verified.userId(), verified.tokenVersion(), verified.issuedAt())) {
+      User principal = readPrincipalFromEmail(verified.email());
+      int tokenVersion = verified.tokenVersion() == null ? 0 : verified.tokenVersion();
+      if (principal == null || principal.isDeactivated()
+          || principal.getTokenVersion() != tokenVersion) {
+        return null;
+      }
+      return principal;
+    }
+    User principal = new User();
+    principal.setUserId(verified.userId());
+    principal.setEmail(verified.email());
+    principal.setRole(verified.role());
+    return principal;
+  }
+
   /**
    * Create a new user.
    *
@@ -171,7 +292,7 @@ public class UserService {
       accountCreator = userRepository.findByEmail(newUser.getAccountCreatorManager());
     }
 
-    String hashedPassword = passwordEncoder.encode(newUser.getPassword());
+    String hashedPassword = passwordHashingService.encode(newUser.getPassword());
     Address savedAddress = addressRepository.save(newUser.getAddress());
 
     User user = new User();
@@ -202,7 +323,7 @@ public class UserService {
     if (user == null) {
       return null;
     }
-    return createJwtToken(email);
+    return createJwtToken(user);
   }
 
 
@@ -252,11 +373,11 @@ public class UserService {
     if (user == null) {
       throw new UnauthorizedException("User not found");
     }
-    if (!passwordEncoder.matches(currentPassword, user.getPassword())) {
+    if (!passwordHashingService.matches(currentPassword, user.getPassword())) {
       throw new UnauthorizedException("Current password is incorrect");
     }
-    user.setPassword(passwordEncoder.encode(newPassword));
-    userRepository.save(user);
+    user.setPassword(passwordHashingService.encode(newPassword));
+    saveRevokingTokens(user, email);
   }
 
   /**
@@ -271,10 +392,17 @@ public class UserService {
       return false;
     }
     user.setDeactivated(!user.isDeactivated());
-    userRepository.save(user);
+    saveRevokingTokens(user, email);
     return true;
   }
 
+  private void saveRevokingTokens(User user, String email) {
+    user.setTokenVersion(user.getTokenVersion() + 1);
+    userRepository.save(user);
+    principalCache.evict(email);
+    tokenVersionRegistry.update(user.getUserId(), user.getTokenVersion());
+  }
+
   /**
    * Checks if a user is deactivated.
    *
@@ -0,0 +1,104 @@
+package be.vinci.ipl.cae.demo.services;
+
+import be.vinci.ipl.cae.demo.models.entities.User;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Instant;
+import java.util.Base64;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+/**
+ * Bounded cache of the JWT tokens that already passed verification, keyed by a SHA-256 digest
+ * of the token. An entry never outlives the expiry of its token.
+ */
+@Component
+public class VerifiedTokenCache {
+
+  private final Map<String, VerifiedToken> entries = new ConcurrentHashMap<>();
+  private final int maxSize;
+
+  /**
+   * Constructor.
+   *
+   * @param maxSize the maximum number of cached tokens
+   */
+  public VerifiedTokenCache(@Value("${auth.token-cache.max-size:10000}") int maxSize) {
+    this.maxSize = maxSize;
+  }
+
+  /**
+   * Returns a token that was verified before and has not expired yet.
+   *
+   * @param token the JWT token
+   * @return the claims of the token, or null if it is not cached
+   */
+  public VerifiedToken get(String token) {
+    if (token == null) {
+      return null;
+    }
+    String key = digest(token);
+    VerifiedToken verified = entries.get(key);
+    if (verified == null) {
+      return null;
+    }
+    if (!Instant.now().isBefore(verified.expiresAt())) {
+      entries.remove(key, verified);
+      return null;
+    }
+    return verified;
+  }
+
+  /**
+   * Caches a verified token until its expiry.
+   *
+   * @param token    the JWT token
+   * @param verified the claims of the token
+   */
+  public void put(String token, VerifiedToken verified) {
+    Instant now = Instant.now();
+    if (entries.size() >= maxSize) {
+      entries.values().removeIf(cached -> !now.isBefore(cached.expiresAt()));
+    }
+    if (entries.size() < maxSize) {
+      entries.put(digest(token), verified);
+    }
+  }
+
+  private static String digest(String token) {
+    try {
+      byte[] hash = MessageDigest.getInstance("SHA-256")
+          .digest(token.getBytes(StandardCharsets.UTF_8));
+      return Base64.getEncoder().encodeToString(hash);
+    } catch (NoSuchAlgorithmException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
+  /**
+   * Claims of a verified token. The user ID, role and token version are only set on stateless
+   * tokens.
+   *
+   * @param email        the email of the user
+   * @param userId       the ID of the user
+   * @param role         the role of the user
+   * @param tokenVersion the token version of the user when the token was issued
+   * @param issuedAt     the issue date of the token
+   * @param expiresAt    the expiry of the token
+   */
+  public record VerifiedToken(String email, Long userId, User.Role role, Integer tokenVersion,
+      Instant issuedAt, Instant expiresAt) {
+
+    /**
+     * Check whether the token carries the user ID, role and token version.
+     *
+     * @return true for a stateless token
+     */
+    public boolean isStateless() {
+      return userId != null && role != null && tokenVersion != null;
+    }
+  }
+}
@@ -0,0 +1,153 @@
+package be.vinci.ipl.cae.demo.services;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import be.vinci.ipl.cae.demo.exceptions.BadRequestException;
+import be.vinci.ipl.cae.demo.exceptions.UnprocessableEntityException;
+import be.vinci.ipl.cae.demo.models.entities.IdempotencyRecord;
+import be.vinci.ipl.cae.demo.models.entities.User;
+import be.vinci.ipl.cae.demo.repositories.IdempotencyRecordRepository;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.security.authentication.TestingAuthenticationToken;
+import org.springframework.security.core.context.SecurityContextHolder;
+import org.springframework.transaction.PlatformTransactionManager;
+
+class IdempotencyServiceTest {
+
+  private static final IdempotencyRecord.Scope SCOPE = IdempotencyRecord.Scope.RESERVATION;
+  private static final Map<String, Integer> REQUEST = Map.of("quantity", 1);
+  private static final Map<String, Integer> OTHER_REQUEST = Map.of("quantity", 2);
+
+  private final IdempotencyRecordRepository idempotencyRecordRepository =
+      mock(IdempotencyRecordRepository.class);
+  private final MeterRegistry meterRegistry = new SimpleMeterRegistry();
+  private final IdempotencyService idempotencyService = new IdempotencyService(
+      idempotencyRecordRepository, mock(PlatformTransactionManager.class), meterRegistry,
+      new ObjectMapper(), 24, 100, 100);
+  private final String requestHash = idempotencyService.hash(REQUEST);
+  private final AtomicInteger creations = new AtomicInteger();
+
+  @BeforeEach
+  void setUp() {
+    User user = new User();
+    user.setUserId(7L);
+    SecurityContextHolder.getContext()
+        .setAuthentication(new TestingAuthenticationToken(user, null));
+  }
+
+  @AfterEach
+  void tearDown() {
+    SecurityContextHolder.clearContext();
+  }
+
+  private boolean create() {
+    creations.incrementAndGet();
+    return true;
+  }
+
+  private static IdempotencyRecord stored(boolean result, String requestHash) {
+    IdempotencyRecord idempotencyRecord = new IdempotencyRecord();
+    idempotencyRecord.setResult(result);
+    idempotencyRecord.setRequestHash(requestHash);
+    return idempotencyRecord;
+  }
+
+  @Test
+  void executeWithoutKeyShouldAlwaysRunTheCreation() {
+    assertTrue(idempotencyService.execute(SCOPE, null, REQUEST, this::create));
+    assertTrue(idempotencyService.execute(SCOPE, null, REQUEST, this::create));
+
+    assertEquals(2, creations.get());
+    verify(idempotencyRecordRepository, never()).saveAndFlush(any());
+  }
+
+  @Test
+  void retryShouldReturnTheResultFromTheIndex() {
+    assertTrue(idempotencyService.execute(SCOPE, "key", REQUEST, this::create));
+    assertTrue(idempotencyService.execute(SCOPE, "key", REQUEST, this::create));
+
+    assertEquals(1, creations.get());
+    verify(idempotencyRecordRepository, times(1)).saveAndFlush(any());
+    verify(idempotencyRecordRepository, times(1)).findByScopeAndUserIdAndKey(SCOPE, 7L, "key");
+    assertEquals(1, meterRegistry.get("idempotency.replays").counter().count());
+  }
+
+  @Test
+  void retryWithAnotherRequestShouldBeRejected() {
+    assertTrue(idempotencyService.execute(SCOPE, "key", REQUEST, this::create));
+
+    assertThrows(UnprocessableEntityException.class,
+        () -> idempotencyService.execute(SCOPE, "key", OTHER_REQUEST, this::create));
+    assertEquals(1, creations.get());
+  }
+
+  @Test
+  void storedKeyWithAnotherRequestShouldBeRejected() {
+    when(idempotencyRecordRepository.findByScopeAndUserIdAndKey(SCOPE, 7L, "key"))
+        .thenReturn(Optional.of(stored(true, "another hash")));
+
+    assertThrows(UnprocessableEntityException.class,
+        () -> idempotencyService.execute(SCOPE, "key", REQUEST, this::create));
+    assertEquals(0, creations.get());
+  }
+
+  @Test
+  void storedKeyShouldReturnTheStoredResult() {
+    when(idempotencyRecordRepository.findByScopeAndUserIdAndKey(SCOPE, 7L, "key"))
+        .thenReturn(Optional.of(stored(false, requestHash)));
+
+    assertFalse(idempotencyService.execute(SCOPE, "key", REQUEST, this::create));
+
+    assertEquals(0, creations.get());
+  }
+
+  @Test
+  void concurrentRetryShouldReturnTheResultOfTheFirstRequest() {
+    when(idempotencyRecordRepository.saveAndFlush(any()))
+        .thenThrow(new DataIntegrityViolationException("duplicate key"));
+    when(idempotencyRecordRepository.findByScopeAndUserIdAndKey(SCOPE, 7L, "key"))
+        .thenReturn(Optional.empty()).thenReturn(Optional.of(stored(true, requestHash)));
+
+    assertTrue(idempotencyService.execute(SCOPE, "key", REQUEST, this::create));
+
+    assertEquals(0, creations.get());
+  }
+
+  @Test
+  void concurrentRequestWithAnotherBodyShouldBeRejected() {
+    when(idempotencyRecordRepository.saveAndFlush(any()))
+        .thenThrow(new DataIntegrityViolationException("duplicate key"));
+    when(idempotencyRecordRepository.findByScopeAndUserIdAndKey(SCOPE, 7L, "key"))
+        .thenReturn(Optional.empty()).thenReturn(Optional.of(stored(true, "another hash")));
+
+    assertThrows(UnprocessableEntityException.class,
+        () -> idempotencyService.execute(SCOPE, "key", REQUEST, this::create));
+  }
+
+  @Test
+  void executeShouldRejectAnInvalidKey() {
+    assertThrows(BadRequestException.class,
+        () -> idempotencyService.execute(SCOPE, " ", REQUEST, this::create));
+    assertThrows(BadRequestException.class,
+        () -> idempotencyService.execute(SCOPE, "k".repeat(256), REQUEST,
+            this::create));
+  }
+}
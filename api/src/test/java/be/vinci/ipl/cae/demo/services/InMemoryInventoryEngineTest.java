@@ -0,0 +1,171 @@
+package be.vinci.ipl.cae.demo.services;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.Mockito.inOrder;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import be.vinci.ipl.cae.demo.models.entities.ProductLot;
+import be.vinci.ipl.cae.demo.repositories.ProductLotRepository;
+import be.vinci.ipl.cae.demo.repositories.ProductLotStockRepository;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.util.Optional;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.InOrder;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+class InMemoryInventoryEngineTest {
+
+  private final ProductLotRepository productLotRepository = mock(ProductLotRepository.class);
+  private final ProductLotStockRepository productLotStockRepository =
+      mock(ProductLotStockRepository.class);
+  private InMemoryInventoryEngine inventoryEngine;
+
+  @BeforeEach
+  void setUp() {
+    when(productLotRepository.findById(1L)).thenReturn(Optional.of(lot(1L, 5)));
+    when(productLotRepository.findById(2L)).thenReturn(Optional.of(lot(2L, 10)));
+    inventoryEngine = new InMemoryInventoryEngine(productLotRepository, productLotStockRepository,
+        mock(PlatformTransactionManager.class), new SimpleMeterRegistry(), 60_000);
+  }
+
+  @AfterEach
+  void tearDown() {
+    if (TransactionSynchronizationManager.isSynchronizationActive()) {
+      TransactionSynchronizationManager.clearSynchronization();
+    }
+  }
+
+  private static ProductLot lot(Long lotId, int remaining) {
+    ProductLot lot = new ProductLot();
+    lot.setLotId(lotId);
+    lot.setRemainingQuantity(remaining);
+    lot.setReservedQuantity(0);
+    lot.setState(ProductLot.State.FOR_SALE);
+    return lot;
+  }
+
+  @Test
+  void mutationsShouldBeCheckedAgainstTheStockHeldInMemory() {
+    assertTrue(inventoryEngine.reserve(1L, 3));
+    assertFalse(inventoryEngine.reserve(1L, 3));
+    assertTrue(inventoryEngine.sell(1L, 2));
+    assertFalse(inventoryEngine.sell(1L, 1), "a sold out lot is not for sale");
+    assertTrue(inventoryEngine.release(1L, 1));
+    assertTrue(inventoryEngine.sell(1L, 1));
+    assertFalse(inventoryEngine.complete(1L, 3));
+    assertTrue(inventoryEngine.complete(1L, 2));
+    assertFalse(inventoryEngine.reserve(3L, 1));
+
+    verify(productLotRepository, times(1)).findById(1L);
+    verify(productLotStockRepository, never()).applyDelta(anyLong(), anyInt(), anyInt(), anyInt());
+  }
+
+  @Test
+  void flushShouldWriteOneDeltaPerLotInIdOrder() {
+    inventoryEngine.reserve(2L, 4);
+    inventoryEngine.reserve(1L, 2);
+    inventoryEngine.complete(2L, 1);
+    inventoryEngine.reserve(1L, 1);
+
+    inventoryEngine.flush();
+    inventoryEngine.flush();
+
+    InOrder order = inOrder(productLotStockRepository);
+    order.verify(productLotStockRepository).applyDelta(1L, -3, 3, 0);
+    order.verify(productLotStockRepository).applyDelta(2L, -4, 3, 1);
+    order.verifyNoMoreInteractions();
+  }
+
+  @Test
+  void failedFlushShouldKeepTheChangesForTheNextOne() {
+    when(productLotStockRepository.applyDelta(1L, -2, 2, 0))
+        .thenThrow(new IllegalStateException("database down"))
+        .thenReturn(1);
+    inventoryEngine.reserve(1L, 2);
+
+    assertThrows(IllegalStateException.class, inventoryEngine::flush);
+    inventoryEngine.flush();
+
+    verify(productLotStockRepository, times(2)).applyDelta(1L, -2, 2, 0);
+  }
+
+  @Test
+  void rolledBackMutationShouldBeUndone() {
+    TransactionSynchronizationManager.initSynchronization();
+    assertTrue(inventoryEngine.reserve(1L, 5));
+    assertFalse(inventoryEngine.reserve(1L, 1));
+
+    TransactionSynchronizationManager.getSynchronizations()
+        .forEach(sync -> sync.afterCompletion(TransactionSynchronization.STATUS_ROLLED_BACK));
+    TransactionSynchronizationManager.clearSynchronization();
+
+    assertTrue(inventoryEngine.reserve(1L, 5));
+    inventoryEngine.flush();
+    verify(productLotStockRepository).applyDelta(1L, -5, 5, 0);
+  }
+
+  @Test
+  void evictShouldFlushTheLotAndReloadItOnNextUse() {
+    inventoryEngine.reserve(1L, 2);
+    when(productLotRepository.findById(1L)).thenReturn(Optional.of(lot(1L, 0)));
+
+    inventoryEngine.evict(1L);
+
+    verify(productLotStockRepository).applyDelta(1L, -2, 2, 0);
+    assertFalse(inventoryEngine.reserve(1L, 1));
+    verify(productLotRepository, times(2)).findById(1L);
+  }
+
+  @Test
+  void lotLoadedWhileALotIsDroppedShouldBeLoadedAgain() {
+    inventoryEngine.reserve(2L, 1);
+    when(productLotRepository.findById(1L)).thenAnswer(invocation -> {
+      inventoryEngine.evict(2L);
+      return Optional.of(lot(1L, 5));
+    });
+
+    assertTrue(inventoryEngine.reserve(1L, 1));
+
+    verify(productLotRepository, times(2)).findById(1L);
+  }
+
+  @Test
+  void startShouldRecomputeTheStockBeforeAnyMutation() {
+    inventoryEngine.start();
+    try {
+      inventoryEngine.reserve(1L, 1);
+
+      InOrder order = inOrder(productLotStockRepository, productLotRepository);
+      order.verify(productLotStockRepository).rebuildFromLines();
+      order.verify(productLotRepository).findById(1L);
+    } finally {
+      inventoryEngine.shutdown();
+    }
+  }
+
+  @Test
+  void removeShouldWriteTheLotThenRemoveFromItsRow() {
+    when(productLotStockRepository.remove(1L, 2)).thenReturn(1);
+    inventoryEngine.reserve(1L, 2);
+
+    assertTrue(inventoryEngine.remove(1L, 2));
+
+    InOrder order = inOrder(productLotStockRepository);
+    order.verify(productLotStockRepository).applyDelta(1L, -2, 2, 0);
+    order.verify(productLotStockRepository).remove(1L, 2);
+    inventoryEngine.reserve(1L, 1);
+    verify(productLotRepository, times(2)).findById(1L);
+  }
+}
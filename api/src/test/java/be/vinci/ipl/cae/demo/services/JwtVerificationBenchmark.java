@@ -0,0 +1,71 @@
+package be.vinci.ipl.cae.demo.services;
+
+import com.auth0.jwt.JWT;
+import com.auth0.jwt.algorithms.Algorithm;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * JMH comparison of the JWT verification paths: a verifier rebuilt for every call (previous
+ * behaviour), a verifier built once without cache, and the verified-token cache.
+ * Run the main method from the test classpath.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@Threads(4)
+public class JwtVerificationBenchmark {
+
+  private Algorithm algorithm;
+  private UserService cachedService;
+  private UserService uncachedService;
+  private String token;
+
+  @Setup
+  public void setUp() {
+    algorithm = Algorithm.HMAC256("benchmark-secret");
+    cachedService = new UserService(null, null, null, null, null, new VerifiedTokenCache(10_000),
+        null);
+    cachedService.useAlgorithm(algorithm);
+    uncachedService = new UserService(null, null, null, null, null, new VerifiedTokenCache(0), null);
+    uncachedService.useAlgorithm(algorithm);
+    token = cachedService.createJwtToken("user@example.com").getToken();
+  }
+
+  @Benchmark
+  public String verifierRebuiltPerCall() {
+    return JWT.require(algorithm).build().verify(token).getClaim("email").asString();
+  }
+
+  @Benchmark
+  public String sharedVerifierWithoutCache() {
+    return uncachedService.verifyJwtToken(token);
+  }
+
+  @Benchmark
+  public String verifiedTokenCache() {
+    return cachedService.verifyJwtToken(token);
+  }
+
+  public static void main(String[] args) throws RunnerException {
+    new Runner(new OptionsBuilder()
+        .include(JwtVerificationBenchmark.class.getSimpleName())
+        .build()).run();
+  }
+}
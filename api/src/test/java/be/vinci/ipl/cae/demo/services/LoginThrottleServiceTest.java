@@ -0,0 +1,131 @@
+package be.vinci.ipl.cae.demo.services;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+class LoginThrottleServiceTest {
+
+  private final AtomicLong now = new AtomicLong();
+  private MeterRegistry meterRegistry;
+  private LoginThrottleService loginThrottleService;
+
+  @BeforeEach
+  void setUp() {
+    meterRegistry = new SimpleMeterRegistry();
+    loginThrottleService = new LoginThrottleService(meterRegistry,
+        new LoginThrottleService.Limit(3, 6), new LoginThrottleService.Limit(4, 6), 3, now::get);
+  }
+
+  private double rejected() {
+    return meterRegistry.get("auth.login.throttled").counter().count();
+  }
+
+  private double buckets() {
+    return meterRegistry.get("auth.login.throttle.buckets").gauge().value();
+  }
+
+  @Test
+  void tryAcquireShouldRejectAttemptsBeyondCapacity() {
+    for (int i = 0; i < 3; i++) {
+      assertEquals(0, loginThrottleService.tryAcquire("user@example.com", "10.0.0.1"));
+    }
+
+    assertEquals(10, loginThrottleService.tryAcquire("User@Example.com", "10.0.0.1"));
+    assertEquals(1, rejected());
+  }
+
+  @Test
+  void tryAcquireShouldLimitAnEmailFromEveryAddress() {
+    for (int i = 0; i < 3; i++) {
+      loginThrottleService.tryAcquire("user@example.com", "10.0.0." + i);
+    }
+
+    assertEquals(10, loginThrottleService.tryAcquire("user@example.com", "10.0.0.9"));
+  }
+
+  @Test
+  void tryAcquireShouldLimitAnAddressForEveryEmail() {
+    for (int i = 0; i < 4; i++) {
+      assertEquals(0, loginThrottleService.tryAcquire(i + "@example.com", "10.0.0.1"));
+    }
+
+    assertEquals(10, loginThrottleService.tryAcquire("other@example.com", "10.0.0.1"));
+    assertEquals(0, loginThrottleService.tryAcquire("other@example.com", "10.0.0.2"));
+  }
+
+  @Test
+  void tryAcquireShouldAllowAttemptsAgainAfterRefill() {
+    for (int i = 0; i < 3; i++) {
+      loginThrottleService.tryAcquire("user@example.com", "10.0.0.1");
+    }
+    now.addAndGet(TimeUnit.SECONDS.toNanos(10));
+
+    assertEquals(0, loginThrottleService.tryAcquire("user@example.com", "10.0.0.1"));
+    assertTrue(loginThrottleService.tryAcquire("user@example.com", "10.0.0.1") > 0);
+  }
+
+  @Test
+  void sweepShouldDropLeastRecentlyUsedBucketsBeyondMaxBuckets() {
+    for (int i = 0; i < 3; i++) {
+      loginThrottleService.tryAcquire("a@example.com", "10.0.0.1");
+    }
+    now.incrementAndGet();
+    loginThrottleService.tryAcquire("b@example.com", "10.0.0.2");
+    now.incrementAndGet();
+    loginThrottleService.tryAcquire("c@example.com", "10.0.0.3");
+    assertEquals(6, buckets());
+
+    loginThrottleService.sweep();
+
+    assertEquals(3, buckets());
+    assertEquals(0, loginThrottleService.tryAcquire("a@example.com", "10.0.0.1"));
+  }
+
+  @Test
+  void sweepShouldDropFullBuckets() {
+    loginThrottleService.tryAcquire("a@example.com", "10.0.0.1");
+    for (int i = 0; i < 3; i++) {
+      loginThrottleService.tryAcquire("b@example.com", "10.0.0.2");
+    }
+    now.addAndGet(TimeUnit.SECONDS.toNanos(15));
+
+    loginThrottleService.sweep();
+
+    assertEquals(2, buckets());
+    assertEquals(0, loginThrottleService.tryAcquire("b@example.com", "10.0.0.2"));
+    assertTrue(loginThrottleService.tryAcquire("b@example.com", "10.0.0.2") > 0);
+  }
+
+  @Test
+  void concurrentAttemptsShouldNotExceedCapacity() throws Exception {
+    ExecutorService executor = Executors.newFixedThreadPool(8);
+    List<Callable<Long>> attempts = new ArrayList<>();
+    for (int i = 0; i < 64; i++) {
+      attempts.add(() -> loginThrottleService.tryAcquire("user@example.com", "10.0.0.1"));
+    }
+
+    long allowed = 0;
+    for (Future<Long> attempt : executor.invokeAll(attempts)) {
+      if (attempt.get() == 0) {
+        allowed++;
+      }
+    }
+    executor.shutdown();
+
+    assertEquals(3, allowed);
+    assertEquals(61, rejected());
+  }
+}
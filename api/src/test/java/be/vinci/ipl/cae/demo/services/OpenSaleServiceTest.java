@@ -3,6 +3,7 @@ package be.vinci.ipl.cae.demo.services;
 import static org.junit.jupiter.api.Assertions.*;
 import static org.mockito.Mockito.*;
 
+import be.vinci.ipl.cae.demo.exceptions.BadRequestException;
 import be.vinci.ipl.cae.demo.exceptions.ConflictException;
 import be.vinci.ipl.cae.demo.exceptions.ResourceNotFoundException;
 import be.vinci.ipl.cae.demo.models.dtos.OpenSaleDto;
@@ -15,6 +16,7 @@ import be.vinci.ipl.cae.demo.repositories.ProductOpenSaleRepository;
 
 import java.util.Optional;
 import java.util.List;
+import java.util.Map;
 
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
@@ -35,6 +37,12 @@ class OpenSaleServiceTest {
   @Mock
   private ProductOpenSaleRepository productOpenSaleRepository;
 
+  @Mock
+  private InventoryEngine inventoryEngine;
+
+  @Mock
+  private SalesRollupService salesRollupService;
+
   @InjectMocks
   private OpenSaleService openSaleService;
 
@@ -60,53 +68,67 @@ class OpenSaleServiceTest {
 
   @Test
   void createOpenSale_successful() {
-    when(productLotRepository.findByIdForUpdate(1L))
-      .thenReturn(Optional.of(productLot));
+    when(inventoryEngine.sell(1L, 5)).thenReturn(true);
+    when(productLotRepository.findMapByIds(List.of(1L))).thenReturn(Map.of(1L, productLot));
     when(openSaleRepository.save(any(OpenSale.class)))
       .thenAnswer(invocation -> invocation.getArgument(0));
 
     boolean result = openSaleService.createOpenSale(openSaleDto);
 
     assertTrue(result);
-    verify(productLotRepository, times(1)).findByIdForUpdate(1L);
-    verify(productLotRepository).save(any(ProductLot.class));
+    verify(inventoryEngine, times(1)).sell(1L, 5);
+    verify(productLotRepository, never()).save(any(ProductLot.class));
     verify(openSaleRepository).save(any(OpenSale.class));
     verify(productOpenSaleRepository).saveAll(anyList());
+    verify(salesRollupService).recordOpenSale(any());
   }
 
   @Test
   void createOpenSale_shouldThrow_whenProductLotNotFound() {
-    when(productLotRepository.findByIdForUpdate(1L))
+    when(inventoryEngine.sell(1L, 5)).thenReturn(false);
+    when(productLotRepository.findById(1L))
       .thenReturn(Optional.empty());
 
     assertThrows(ResourceNotFoundException.class,
       () -> openSaleService.createOpenSale(openSaleDto));
 
-    verify(productLotRepository).findByIdForUpdate(1L);
     verify(openSaleRepository, never()).save(any(OpenSale.class));
+    verifyNoInteractions(salesRollupService);
   }
 
   @Test
   void createOpenSale_shouldThrow_whenProductLotNotForSale() {
     productLot.setState(ProductLot.State.SOLD_OUT);
-    when(productLotRepository.findByIdForUpdate(1L))
+    when(inventoryEngine.sell(1L, 5)).thenReturn(false);
+    when(productLotRepository.findById(1L))
       .thenReturn(Optional.of(productLot));
 
-    assertThrows(ConflictException.class,
+    ConflictException exception = assertThrows(ConflictException.class,
       () -> openSaleService.createOpenSale(openSaleDto));
 
-    verify(productLotRepository).findByIdForUpdate(1L);
+    assertTrue(exception.getMessage().contains("not available"));
   }
 
   @Test
   void createOpenSale_shouldThrow_whenNotEnoughQuantity() {
     productLot.setRemainingQuantity(2);
-    when(productLotRepository.findByIdForUpdate(1L))
+    when(inventoryEngine.sell(1L, 5)).thenReturn(false);
+    when(productLotRepository.findById(1L))
       .thenReturn(Optional.of(productLot));
 
-    assertThrows(ConflictException.class,
+    ConflictException exception = assertThrows(ConflictException.class,
+      () -> openSaleService.createOpenSale(openSaleDto));
+
+    assertTrue(exception.getMessage().contains("Insufficient quantity"));
+  }
+
+  @Test
+  void createOpenSale_shouldThrow_whenQuantityNotPositive() {
+    openSaleProductDto.setQuantity(-1);
+
+    assertThrows(BadRequestException.class,
       () -> openSaleService.createOpenSale(openSaleDto));
 
-    verify(productLotRepository).findByIdForUpdate(1L);
+    verify(inventoryEngine, never()).sell(anyLong(), anyInt());
   }
 }
@@ -0,0 +1,88 @@
+package be.vinci.ipl.cae.demo.services;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import be.vinci.ipl.cae.demo.exceptions.ServiceUnavailableException;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.security.crypto.bcrypt.BCryptPasswordEncoder;
+
+class PasswordHashingServiceTest {
+
+  private final MeterRegistry meterRegistry = new SimpleMeterRegistry();
+  private PasswordHashingService passwordHashingService;
+
+  @AfterEach
+  void tearDown() {
+    passwordHashingService.shutdown();
+  }
+
+  @Test
+  void encodeAndMatchesShouldUseBcrypt() {
+    passwordHashingService = new PasswordHashingService(new BCryptPasswordEncoder(4),
+        meterRegistry, 2, 4, 5000, 2);
+
+    String hash = passwordHashingService.encode("password");
+
+    assertTrue(passwordHashingService.matches("password", hash));
+    assertFalse(passwordHashingService.matches("wrong", hash));
+    assertEquals(3, meterRegistry.get("auth.password.hashing").timer().count());
+  }
+
+  @Test
+  void encodeShouldFailFastWhenPoolIsSaturated() throws Exception {
+    BCryptPasswordEncoder slowEncoder = mock(BCryptPasswordEncoder.class);
+    CountDownLatch started = new CountDownLatch(1);
+    CountDownLatch release = new CountDownLatch(1);
+    when(slowEncoder.encode("password")).thenAnswer(invocation -> {
+      started.countDown();
+      release.await(5, TimeUnit.SECONDS);
+      return "hash";
+    });
+    passwordHashingService = new PasswordHashingService(slowEncoder, meterRegistry, 1, 1, 5000,
+        3);
+
+    CompletableFuture<String> running =
+        CompletableFuture.supplyAsync(() -> passwordHashingService.encode("password"));
+    assertTrue(started.await(5, TimeUnit.SECONDS));
+    CompletableFuture<String> queued =
+        CompletableFuture.supplyAsync(() -> passwordHashingService.encode("password"));
+    while (meterRegistry.get("auth.password.hashing.queue").gauge().value() < 1) {
+      Thread.onSpinWait();
+    }
+
+    ServiceUnavailableException exception = assertThrows(ServiceUnavailableException.class,
+        () -> passwordHashingService.encode("password"));
+    release.countDown();
+
+    assertEquals(3, exception.getRetryAfterSeconds());
+    assertEquals("hash", running.get(5, TimeUnit.SECONDS));
+    assertEquals("hash", queued.get(5, TimeUnit.SECONDS));
+    assertEquals(1, meterRegistry.get("auth.password.hashing.rejected").counter().count());
+  }
+
+  @Test
+  void encodeShouldFailWhenHashingTimesOut() throws Exception {
+    BCryptPasswordEncoder slowEncoder = mock(BCryptPasswordEncoder.class);
+    CountDownLatch release = new CountDownLatch(1);
+    when(slowEncoder.encode("password")).thenAnswer(invocation -> {
+      release.await(5, TimeUnit.SECONDS);
+      return "hash";
+    });
+    passwordHashingService = new PasswordHashingService(slowEncoder, meterRegistry, 1, 1, 50, 2);
+
+    assertThrows(ServiceUnavailableException.class,
+        () -> passwordHashingService.encode("password"));
+    release.countDown();
+  }
+}
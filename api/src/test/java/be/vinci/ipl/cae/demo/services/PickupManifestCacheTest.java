@@ -0,0 +1,74 @@
+package be.vinci.ipl.cae.demo.services;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+import be.vinci.ipl.cae.demo.models.dtos.PickupManifest;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.time.LocalDate;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.jupiter.api.Test;
+
+class PickupManifestCacheTest {
+
+  private static final LocalDate DATE = LocalDate.of(2025, 5, 15);
+
+  private final PickupManifestCache cache =
+      new PickupManifestCache(new SimpleMeterRegistry(), 3600, 10);
+  private final AtomicInteger loads = new AtomicInteger();
+
+  private PickupManifest load(LocalDate recoveryDate) {
+    loads.incrementAndGet();
+    return new PickupManifest(recoveryDate, List.of(), List.of());
+  }
+
+  @Test
+  void getShouldLoadOnceUntilEvicted() {
+    PickupManifest manifest = cache.get(DATE, this::load);
+
+    assertSame(manifest, cache.get(DATE, this::load));
+    assertEquals(1, loads.get());
+
+    cache.evict(DATE);
+    cache.get(DATE, this::load);
+    assertEquals(2, loads.get());
+  }
+
+  @Test
+  void evictWithoutDateShouldDropEveryManifest() {
+    cache.get(DATE, this::load);
+    cache.get(DATE.plusDays(1), this::load);
+
+    cache.evict(null);
+    cache.get(DATE, this::load);
+    cache.get(DATE.plusDays(1), this::load);
+
+    assertEquals(4, loads.get());
+  }
+
+  @Test
+  void evictDatesShouldKeepTheManifestsOfOtherDates() {
+    cache.get(DATE, this::load);
+    cache.get(DATE.plusDays(1), this::load);
+    cache.get(DATE.plusDays(2), this::load);
+
+    cache.evictDates(List.of(DATE, DATE.plusDays(2)));
+    cache.get(DATE, this::load);
+    cache.get(DATE.plusDays(1), this::load);
+    cache.get(DATE.plusDays(2), this::load);
+
+    assertEquals(5, loads.get());
+  }
+
+  @Test
+  void manifestLoadedDuringAnEvictionShouldNotBeCached() {
+    cache.get(DATE, recoveryDate -> {
+      cache.evict(recoveryDate);
+      return load(recoveryDate);
+    });
+    cache.get(DATE, this::load);
+
+    assertEquals(2, loads.get());
+  }
+}
@@ -0,0 +1,92 @@
+package be.vinci.ipl.cae.demo.services;
+
+import static org.junit.jupiter.api.Assertions.assertAll;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+import be.vinci.ipl.cae.demo.models.entities.User;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+class PrincipalCacheTest {
+
+  private MeterRegistry meterRegistry;
+  private PrincipalCache principalCache;
+  private AtomicInteger loads;
+  private Function<String, User> loader;
+
+  @BeforeEach
+  void setUp() {
+    meterRegistry = new SimpleMeterRegistry();
+    principalCache = new PrincipalCache(meterRegistry, 60, 2);
+    loads = new AtomicInteger();
+    loader = email -> {
+      loads.incrementAndGet();
+      User user = new User();
+      user.setUserId(7L);
+      user.setEmail(email);
+      user.setFirstname("Alicia");
+      user.setRole(User.Role.PRODUCER);
+      return user;
+    };
+  }
+
+  private double count(String result) {
+    return meterRegistry.get("auth.principal.cache").tag("result", result).counter().count();
+  }
+
+  @Test
+  void getShouldLoadOnceThenServeFromCache() {
+    principalCache.get("user@example.com", loader);
+    User principal = principalCache.get("user@example.com", loader);
+
+    assertAll(
+        () -> assertEquals(1, loads.get()),
+        () -> assertEquals(7L, principal.getUserId()),
+        () -> assertEquals("user@example.com", principal.getEmail()),
+        () -> assertEquals(User.Role.PRODUCER, principal.getRole()),
+        () -> assertNull(principal.getFirstname()),
+        () -> assertEquals(1, count("hit")),
+        () -> assertEquals(1, count("miss"))
+    );
+  }
+
+  @Test
+  void getShouldReturnNullForUnknownUser() {
+    assertNull(principalCache.get("unknown@example.com", email -> null));
+  }
+
+  @Test
+  void evictShouldForceReload() {
+    principalCache.get("user@example.com", loader);
+    principalCache.evict("user@example.com");
+    principalCache.get("user@example.com", loader);
+
+    assertEquals(2, loads.get());
+  }
+
+  @Test
+  void expiredEntriesShouldBeReloaded() {
+    principalCache = new PrincipalCache(meterRegistry, 0, 2);
+
+    principalCache.get("user@example.com", loader);
+    principalCache.get("user@example.com", loader);
+
+    assertEquals(2, loads.get());
+  }
+
+  @Test
+  void cacheShouldNotGrowBeyondMaxSize() {
+    principalCache.get("a@example.com", loader);
+    principalCache.get("b@example.com", loader);
+    principalCache.get("c@example.com", loader);
+    principalCache.get("c@example.com", loader);
+
+    assertEquals(4, loads.get());
+    assertEquals(2.0, meterRegistry.get("auth.principal.cache.size").gauge().value());
+  }
+}
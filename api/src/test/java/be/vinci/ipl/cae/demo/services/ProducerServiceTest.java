@@ -33,8 +33,6 @@ class ProducerServiceTest {
 
   @Mock
   private UserRepository userRepository;
-  @Mock
-  private HelperService helperService;
 
   @InjectMocks
   private ProducerService producerService;
@@ -107,7 +105,7 @@ class ProducerServiceTest {
   void findLotsByProducer_ShouldReturnEmptyListWhenNoLotsFound() {
     // Arrange
     when(userRepository.findByEmail(user.getEmail())).thenReturn(user);
-    when(productLotRepository.findByProducerUserId(user.getUserId())).thenReturn(List.of());
+    when(productLotRepository.findDtosByProducerId(user.getUserId())).thenReturn(List.of());
 
     // Act
     List<ProductLotDto> result = producerService.findLotsByProducer(user.getEmail());
@@ -116,7 +114,19 @@ class ProducerServiceTest {
     assertNotNull(result);
     assertTrue(result.isEmpty());
     verify(userRepository).findByEmail(user.getEmail());
-    verify(productLotRepository).findByProducerUserId(user.getUserId());
+    verify(productLotRepository).findDtosByProducerId(user.getUserId());
+  }
+
+  @Test
+  void findLotsByProducer_ShouldReturnLotsOfProducer() {
+    ProductLotDto dto = new ProductLotDto();
+    dto.setLotId(productLot.getLotId());
+    when(userRepository.findByEmail(user.getEmail())).thenReturn(user);
+    when(productLotRepository.findDtosByProducerId(user.getUserId())).thenReturn(List.of(dto));
+
+    List<ProductLotDto> result = producerService.findLotsByProducer(user.getEmail());
+
+    assertEquals(List.of(dto), result);
   }
 
   @Test
@@ -127,7 +137,7 @@ class ProducerServiceTest {
     // Act & Assert
     assertThrows(ResourceNotFoundException.class, () -> producerService.findLotsByProducer(user.getEmail()));
     verify(userRepository).findByEmail(user.getEmail());
-    verify(productLotRepository, never()).findByProducerUserId(anyLong());
+    verify(productLotRepository, never()).findDtosByProducerId(anyLong());
   }
 
   @Test
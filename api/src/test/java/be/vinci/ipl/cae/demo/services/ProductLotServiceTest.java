@@ -11,17 +11,20 @@ import be.vinci.ipl.cae.demo.exceptions.BadRequestException;
 import be.vinci.ipl.cae.demo.exceptions.ConflictException;
 import be.vinci.ipl.cae.demo.exceptions.ResourceNotFoundException;
 import be.vinci.ipl.cae.demo.models.dtos.NewProductLot;
+import be.vinci.ipl.cae.demo.models.dtos.ProductDailyQuantity;
 import be.vinci.ipl.cae.demo.models.dtos.ProductDto;
 import be.vinci.ipl.cae.demo.models.dtos.ProductLotDto;
+import be.vinci.ipl.cae.demo.models.dtos.ProductLotPage;
+import be.vinci.ipl.cae.demo.models.dtos.ProductRanking;
+import be.vinci.ipl.cae.demo.models.dtos.ProductSalesStats;
+import be.vinci.ipl.cae.demo.models.dtos.ProductSalesTotals;
 import be.vinci.ipl.cae.demo.models.entities.*;
 import be.vinci.ipl.cae.demo.models.entities.ProductLot.State;
 import be.vinci.ipl.cae.demo.repositories.ProductImageRepository;
 import be.vinci.ipl.cae.demo.repositories.ProductLotRepository;
-import be.vinci.ipl.cae.demo.repositories.ProductReservationRepository;
 import com.azure.storage.blob.BlobClient;
 import com.azure.storage.blob.BlobClientBuilder;
 import java.time.LocalDate;
-import java.util.ArrayList;
 import java.util.Map;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
@@ -30,6 +33,7 @@ import org.mockito.InjectMocks;
 import org.mockito.Mock;
 import org.mockito.Spy;
 import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.data.domain.Limit;
 import org.springframework.web.multipart.MultipartFile;
 
 import java.time.LocalDateTime;
@@ -54,7 +58,10 @@ class ProductLotServiceTest {
   @Mock
   private ProductImageRepository productImageRepository;
   @Mock
-  private ProductReservationRepository productReservationRepository;
+  private SalesRollupService salesRollupService;
+
+  @Mock
+  private StatisticsCache statisticsCache;
 
   @Mock
   private BlobClientBuilder blobClientBuilder;
@@ -64,6 +71,9 @@ class ProductLotServiceTest {
 
   @Mock
   private BlobClient blobClient;
+
+  @Mock
+  private InventoryEngine inventoryEngine;
   @Spy
   @InjectMocks
   private ProductLotService productLotService;
@@ -125,97 +135,35 @@ class ProductLotServiceTest {
     productLot2.setRemainingQuantity(10);
     productLot2.setAvailabilityDate(LocalDateTime.now().plusDays(1));
 
-    when(helperService.matchesDate(any(LocalDate.class), any(), any())).thenAnswer(invocation -> {
-      LocalDate date = invocation.getArgument(0);
-      Integer month = invocation.getArgument(1);
-      Integer year = invocation.getArgument(2);
-      boolean monthMatches = (month == null) || (date.getMonthValue() == month);
-      boolean yearMatches = (year == null) || (date.getYear() == year);
-      return monthMatches && yearMatches;
-    });
+    when(helperService.toDateRange(any(), any())).thenCallRealMethod();
 
   }
 
   @Test
   void findAllOrderedByState_SortEveryState() {
+    ProductLotDto pending = new ProductLotDto();
+    pending.setProductLotState(State.PENDING);
+    ProductLotDto accepted = new ProductLotDto();
+    accepted.setProductLotState(State.ACCEPTED);
+    ProductLotDto soldOut = new ProductLotDto();
+    soldOut.setProductLotState(State.SOLD_OUT);
 
-    when(helperService.toDto(any(ProductLot.class))).thenAnswer(invocation -> {
-      ProductLot lot = invocation.getArgument(0);
-      return new ProductLotDto(
-          lot.getLotId(),
-          lot.getProduct().getLabel(),
-          lot.getProduct().getType().getLabel(),
-          lot.getImage() != null ? lot.getImage().getUrl() : null,
-          lot.getProducer().getUser().getEmail(),
-          lot.getUnitPrice(),
-          lot.getRemainingQuantity(),
-          lot.getAvailabilityDate(),
-          lot.getProduct().getUnit().getLabel(),
-          lot.getProduct().getDescription(),
-          lot.getInitialQuantity(),
-          lot.getSoldQuantity(),
-          lot.getReservedQuantity(),
-          lot.getState(),
-          lot.getProducer().getUser().getFirstname() + " " + lot.getProducer().getUser().getLastname()
-      );
-    });
-    
-    ProductLot acceptedLot = new ProductLot();
-    acceptedLot.setState(ProductLot.State.ACCEPTED);
-    acceptedLot.setProduct(product);
-    acceptedLot.setProducer(producer);
-    acceptedLot.setImage(productImage);
-    acceptedLot.setUnitPrice(productLot.getUnitPrice());
-    acceptedLot.setInitialQuantity(productLot.getInitialQuantity());
-    acceptedLot.setRemainingQuantity(productLot.getRemainingQuantity());
-    acceptedLot.setAvailabilityDate(productLot.getAvailabilityDate());
-
-    ProductLot forSaleLot = new ProductLot();
-    forSaleLot.setState(ProductLot.State.FOR_SALE);
-    forSaleLot.setProduct(product);
-    forSaleLot.setProducer(producer);
-    forSaleLot.setImage(productImage);
-    forSaleLot.setUnitPrice(productLot.getUnitPrice());
-    forSaleLot.setInitialQuantity(productLot.getInitialQuantity());
-    forSaleLot.setRemainingQuantity(productLot.getRemainingQuantity());
-    forSaleLot.setAvailabilityDate(productLot.getAvailabilityDate());
-
-    ProductLot rejectedLot = new ProductLot();
-    rejectedLot.setState(ProductLot.State.REJECTED);
-    rejectedLot.setProduct(product);
-    rejectedLot.setProducer(producer);
-    rejectedLot.setImage(productImage);
-    rejectedLot.setUnitPrice(productLot.getUnitPrice());
-    rejectedLot.setInitialQuantity(productLot.getInitialQuantity());
-    rejectedLot.setRemainingQuantity(productLot.getRemainingQuantity());
-    rejectedLot.setAvailabilityDate(productLot.getAvailabilityDate());
-
-    List<ProductLot> allLots = List.of(
-        productLot,
-        acceptedLot,
-        forSaleLot,
-        rejectedLot,
-        productLot2
-    );
-
-    when(productLotRepository.findAll()).thenReturn(allLots);
+    when(productLotRepository.findAllDtosOrderedByState())
+        .thenReturn(List.of(pending, accepted, soldOut));
 
     List<ProductLotDto> result = productLotService.findAllOrderedByState();
 
-    assertAll("verify product lot list sorted by state",
-        () -> assertNotNull(result),
-        () -> assertEquals(5, result.size()),
+    assertAll("verify product lot list keeps the database state order",
+        () -> assertEquals(3, result.size()),
         () -> assertEquals(State.PENDING, result.get(0).getProductLotState()),
         () -> assertEquals(State.ACCEPTED, result.get(1).getProductLotState()),
-        () -> assertEquals(State.FOR_SALE, result.get(2).getProductLotState()),
-        () -> assertEquals(State.REJECTED, result.get(3).getProductLotState()),
-        () -> assertEquals(State.SOLD_OUT, result.get(4).getProductLotState())
+        () -> assertEquals(State.SOLD_OUT, result.get(2).getProductLotState())
     );
 
-    verify(productLotRepository).findAll();
+    verify(productLotRepository, never()).findAll();
+    verify(helperService, never()).toDto(any(ProductLot.class));
   }
 
-
   @Test
   void addShouldCreateNewProductWhenNotExists() {
     // Arrange
@@ -305,46 +253,26 @@ class ProductLotServiceTest {
 
   @Test
   void findLotsForProducer() {
-    when(helperService.toDto(any(ProductLot.class))).thenAnswer(invocation -> {
-      ProductLot lot = invocation.getArgument(0);
-      return new ProductLotDto(
-          lot.getLotId(),
-          lot.getProduct().getLabel(),
-          lot.getProduct().getType().getLabel(),
-          lot.getImage() != null ? lot.getImage().getUrl() : null,
-          lot.getProducer().getUser().getEmail(),
-          lot.getUnitPrice(),
-          lot.getRemainingQuantity(),
-          lot.getAvailabilityDate(),
-          lot.getProduct().getUnit().getLabel(),
-          lot.getProduct().getDescription(),
-          lot.getInitialQuantity(),
-          lot.getSoldQuantity(),
-          lot.getReservedQuantity(),
-          lot.getState(),
-          lot.getProducer().getUser().getFirstname() + " " + lot.getProducer().getUser().getLastname()
-      );
-    });
-
-    when(productLotRepository.findByState(ProductLot.State.PENDING))
-        .thenReturn(List.of(productLot));
-    when(helperService.hasSameEmail(any(ProductLot.class), eq("producer@example.com"))).thenReturn(true);
+    ProductLotDto dto = new ProductLotDto();
+    dto.setProductLabel("Laptop");
+    when(productLotRepository.findDtosByProducerEmailAndState("producer@example.com",
+        ProductLot.State.PENDING)).thenReturn(List.of(dto));
 
     List<ProductLotDto> result = productLotService.findLotsForProducer(
         "producer@example.com", ProductLot.State.PENDING);
 
-
     assertAll(
         () -> assertNotNull(result),
         () -> assertEquals(1, result.size())
     );
     assertEquals("Laptop", result.get(0).getProductLabel());
+    verify(productLotRepository, never()).findByState(any());
   }
 
   @Test
   void findProductLotByState() {
-    when(productLotRepository.findByState(ProductLot.State.PENDING))
-        .thenReturn(List.of(productLot));
+    when(productLotRepository.findDtosByState(ProductLot.State.PENDING))
+        .thenReturn(List.of(new ProductLotDto()));
 
     List<ProductLotDto> result = productLotService.findProductLotByState(
         ProductLot.State.PENDING);
@@ -355,11 +283,78 @@ class ProductLotServiceTest {
     );
   }
 
+  @Test
+  void findLotsPageShouldReturnLastPageWithoutCursor() {
+    ProductLotDto dto = new ProductLotDto();
+    dto.setLotId(3L);
+    when(productLotRepository.findDtoPage(null, null, null, null, null, null, 0L, Limit.of(21)))
+        .thenReturn(List.of(dto));
+
+    ProductLotPage page = productLotService.findLotsPage(null, null, null, null, null, null, 20);
+
+    assertAll(
+        () -> assertEquals(1, page.getLots().size()),
+        () -> assertNull(page.getNextCursor())
+    );
+  }
+
+  @Test
+  void findLotsPageShouldReturnCursorOfLastLotWhenMoreLotsExist() {
+    when(helperService.encodeCursor(any(long[].class))).thenCallRealMethod();
+    when(helperService.decodeCursor(any(), eq(2))).thenCallRealMethod();
+    ProductLotDto first = new ProductLotDto();
+    first.setLotId(4L);
+    first.setProductLotState(State.FOR_SALE);
+    ProductLotDto second = new ProductLotDto();
+    second.setLotId(7L);
+    second.setProductLotState(State.FOR_SALE);
+    when(productLotRepository.findDtoPage(State.FOR_SALE, "Fruit", null, null, null, null, 0L,
+        Limit.of(2))).thenReturn(List.of(first, second));
+
+    ProductLotPage page = productLotService.findLotsPage(State.FOR_SALE, "Fruit", null, null,
+        null, null, 1);
+
+    assertAll(
+        () -> assertEquals(List.of(first), page.getLots()),
+        () -> assertNotNull(page.getNextCursor())
+    );
+
+    productLotService.findLotsPage(State.FOR_SALE, "Fruit", null, null, null,
+        page.getNextCursor(), 1);
+    verify(productLotRepository).findDtoPage(State.FOR_SALE, "Fruit", null, null, null,
+        "FOR_SALE", 4L, Limit.of(2));
+  }
+
+  @Test
+  void findLotsPageShouldCapPageSize() {
+    productLotService.findLotsPage(null, null, null, null, null, null, 10_000);
+
+    verify(productLotRepository).findDtoPage(null, null, null, null, null, null, 0L,
+        Limit.of(ProductLotService.MAX_PAGE_SIZE + 1));
+  }
+
+  @Test
+  void findLotsPageShouldRejectMalformedCursor() {
+    when(helperService.decodeCursor(any(), eq(2))).thenCallRealMethod();
+
+    assertThrows(BadRequestException.class, () ->
+        productLotService.findLotsPage(null, null, null, null, null, "not a cursor", 20));
+  }
+
+  @Test
+  void findLotsPageShouldRejectCursorWithUnknownState() {
+    when(helperService.decodeCursor(any(), eq(2))).thenCallRealMethod();
+    String cursor = new HelperService().encodeCursor(State.values().length, 4L);
+
+    assertThrows(BadRequestException.class, () ->
+        productLotService.findLotsPage(null, null, null, null, null, cursor, 20));
+    verifyNoInteractions(productLotRepository);
+  }
+
   @Test
   void findRecentLotsForSale() {
-    when(productLotRepository.findTop5ByStateOrderByReceiptDateDesc(
-        ProductLot.State.FOR_SALE))
-        .thenReturn(List.of(productLot));
+    when(productLotRepository.findRecentDtosByState(ProductLot.State.FOR_SALE, Limit.of(5)))
+        .thenReturn(List.of(new ProductLotDto()));
 
     List<ProductLotDto> result = productLotService.findRecentLotsForSale();
 
@@ -507,6 +502,7 @@ class ProductLotServiceTest {
             assertTrue(result),
         () -> assertEquals(State.ACCEPTED, productLot.getState()));
     verify(productLotRepository).save(productLot);
+    verify(statisticsCache).evict(List.of(1L));
   }
 
   @Test
@@ -521,69 +517,25 @@ class ProductLotServiceTest {
 
   @Test
   void getLotsAndSalesDataShouldReturnAllLotsWhenNoDateProvided() {
-    when(helperService.toDto(any(ProductLot.class))).thenAnswer(invocation -> {
-      ProductLot lot = invocation.getArgument(0);
-      return new ProductLotDto(
-          lot.getLotId(),
-          lot.getProduct().getLabel(),
-          lot.getProduct().getType().getLabel(),
-          lot.getImage() != null ? lot.getImage().getUrl() : null,
-          lot.getProducer().getUser().getEmail(),
-          lot.getUnitPrice(),
-          lot.getRemainingQuantity(),
-          lot.getAvailabilityDate(),
-          lot.getProduct().getUnit().getLabel(),
-          lot.getProduct().getDescription(),
-          lot.getInitialQuantity(),
-          lot.getSoldQuantity(),
-          lot.getReservedQuantity(),
-          lot.getState(),
-          lot.getProducer().getUser().getFirstname() + " " + lot.getProducer().getUser().getLastname()
-      );
-    });
-    when(productLotRepository.findByProductLabelIgnoreCase("Laptop")).thenReturn(
-        List.of(productLot));
+    ProductLotDto dto = new ProductLotDto();
+    dto.setProductLabel("Laptop");
+    when(productLotRepository.findDtosByProductLabel("Laptop")).thenReturn(List.of(dto));
 
     List<ProductLotDto> result = productLotService.getLotsAndSalesData("Laptop", null, null);
     assertAll(() ->
             assertEquals(1, result.size()),
         () -> assertEquals("Laptop", result.get(0).getProductLabel())
     );
+    verify(productLotRepository, never()).findDtosSoldOrReceivedIn(any(), any(), any(), any(), any(), any());
   }
 
   @Test
-  void getLotsAndSalesDataShouldFilterByRetrievedReservations() {
-    when(helperService.toDto(any(ProductLot.class))).thenAnswer(invocation -> {
-      ProductLot lot = invocation.getArgument(0);
-      return new ProductLotDto(
-          lot.getLotId(),
-          lot.getProduct().getLabel(),
-          lot.getProduct().getType().getLabel(),
-          lot.getImage() != null ? lot.getImage().getUrl() : null,
-          lot.getProducer().getUser().getEmail(),
-          lot.getUnitPrice(),
-          lot.getRemainingQuantity(),
-          lot.getAvailabilityDate(),
-          lot.getProduct().getUnit().getLabel(),
-          lot.getProduct().getDescription(),
-          lot.getInitialQuantity(),
-          lot.getSoldQuantity(),
-          lot.getReservedQuantity(),
-          lot.getState(),
-          lot.getProducer().getUser().getFirstname() + " " + lot.getProducer().getUser().getLastname()
-      );
-    });
-    ProductReservation reservation = new ProductReservation();
-    Reservation res = new Reservation();
-    res.setState(Reservation.State.RETRIEVED);
-    res.setRecoveryDate(LocalDate.of(2024, 4, 10));
-    reservation.setReservation(res);
-    reservation.setProductLot(productLot);
-
-    when(productLotRepository.findByProductLabelIgnoreCase("Laptop")).thenReturn(
-        List.of(productLot));
-    when(productReservationRepository.findByProductLotIn(List.of(productLot)))
-        .thenReturn(List.of(reservation));
+  void getLotsAndSalesDataShouldFilterByMonthAndYear() {
+    ProductLotDto dto = new ProductLotDto();
+    dto.setProductLabel("Laptop");
+    when(productLotRepository.findDtosSoldOrReceivedIn("Laptop", LocalDate.of(2024, 4, 1),
+        LocalDate.of(2024, 5, 1), LocalDateTime.of(2024, 4, 1, 0, 0),
+        LocalDateTime.of(2024, 5, 1, 0, 0), null)).thenReturn(List.of(dto));
 
     List<ProductLotDto> result = productLotService.getLotsAndSalesData("Laptop", 4, 2024);
 
@@ -591,56 +543,28 @@ class ProductLotServiceTest {
             assertEquals(1, result.size()),
         () -> assertEquals("Laptop", result.get(0).getProductLabel())
     );
-
+    verifyNoInteractions(salesRollupService);
   }
 
   @Test
-  void getLotsAndSalesDataShouldIncludeLotsByReceiptDate() {
-    productLot.setReceiptDate(LocalDateTime.of(2024, 4, 10, 0, 0));
-    when(productLotRepository.findByProductLabelIgnoreCase("Laptop")).thenReturn(
-        List.of(productLot));
-    when(productReservationRepository.findByProductLotIn(List.of(productLot))).thenReturn(
-        List.of());
+  void getLotsAndSalesDataShouldReturnEmptyListWhenNothingMatches() {
+    when(productLotRepository.findDtosSoldOrReceivedIn("Laptop", LocalDate.of(2024, 4, 1),
+        LocalDate.of(2024, 5, 1), LocalDateTime.of(2024, 4, 1, 0, 0),
+        LocalDateTime.of(2024, 5, 1, 0, 0), null)).thenReturn(List.of());
 
     List<ProductLotDto> result = productLotService.getLotsAndSalesData("Laptop", 4, 2024);
 
-    assertEquals(1, result.size());
-  }
-
-  @Test
-  void calculateSalesPerDayShouldReturnEmptyMapWhenNoLots() {
-    when(productLotRepository.findByProductLabelIgnoreCase("Unknown")).thenReturn(List.of());
-
-    Map<String, Integer> result = productLotService.calculateSalesPerDay("Unknown", null, null);
-
     assertTrue(result.isEmpty());
   }
 
   @Test
-  void calculateSalesPerDayShouldReturnQuantitiesGroupedByDate() {
-    ProductReservation res1 = new ProductReservation();
-    Reservation r1 = new Reservation();
-    r1.setState(Reservation.State.RETRIEVED);
-    r1.setRecoveryDate(LocalDate.of(2025, 4, 19));
-    res1.setReservation(r1);
-    res1.setQuantity(5);
-
-    ProductReservation res2 = new ProductReservation();
-    Reservation r2 = new Reservation();
-    r2.setState(Reservation.State.RETRIEVED);
-    r2.setRecoveryDate(LocalDate.of(2025, 4, 19));
-    res2.setReservation(r2);
-    res2.setQuantity(3);
-
-    when(productLotRepository.findByProductLabelIgnoreCase("Laptop")).thenReturn(
-        List.of(productLot));
-    when(productReservationRepository.findByProductLotIn(List.of(productLot)))
-        .thenReturn(List.of(res1, res2));
+  void calculateSalesPerDayShouldReadTheRetrievedRollup() {
+    when(salesRollupService.sumPerDay("Laptop", DailyProductSales.Channel.RETRIEVED, 4, 2025))
+        .thenReturn(Map.of("2025-04-19", 8));
 
     Map<String, Integer> result = productLotService.calculateSalesPerDay("Laptop", 4, 2025);
-    assertAll(() ->
-            assertEquals(1, result.size()),
-        () -> assertEquals(8, result.get("2025-04-19")));
+
+    assertEquals(Map.of("2025-04-19", 8), result);
   }
 
   @Test
@@ -730,37 +654,10 @@ class ProductLotServiceTest {
 
   @Test
   void getLotsAndSalesDataShouldFilterByMonthOnly() {
-    when(helperService.toDto(any(ProductLot.class))).thenAnswer(invocation -> {
-      ProductLot lot = invocation.getArgument(0);
-      return new ProductLotDto(
-          lot.getLotId(),
-          lot.getProduct().getLabel(),
-          lot.getProduct().getType().getLabel(),
-          lot.getImage() != null ? lot.getImage().getUrl() : null,
-          lot.getProducer().getUser().getEmail(),
-          lot.getUnitPrice(),
-          lot.getRemainingQuantity(),
-          lot.getAvailabilityDate(),
-          lot.getProduct().getUnit().getLabel(),
-          lot.getProduct().getDescription(),
-          lot.getInitialQuantity(),
-          lot.getSoldQuantity(),
-          lot.getReservedQuantity(),
-          lot.getState(),
-          lot.getProducer().getUser().getFirstname() + " " + lot.getProducer().getUser().getLastname()
-      );
-    });
-    ProductReservation resApril = new ProductReservation();
-    Reservation rApril = new Reservation();
-    rApril.setState(Reservation.State.RETRIEVED);
-    rApril.setRecoveryDate(LocalDate.of(2025, 4, 15));
-    resApril.setReservation(rApril);
-    resApril.setProductLot(productLot);
-
-    when(productLotRepository.findByProductLabelIgnoreCase("Laptop"))
-        .thenReturn(List.of(productLot));
-    when(productReservationRepository.findByProductLotIn(List.of(productLot)))
-        .thenReturn(List.of(resApril));
+    ProductLotDto dto = new ProductLotDto();
+    dto.setProductLabel("Laptop");
+    when(productLotRepository.findDtosSoldOrReceivedIn("Laptop", null, null, null, null, 4))
+        .thenReturn(List.of(dto));
 
     List<ProductLotDto> result = productLotService.getLotsAndSalesData("Laptop", 4, null);
 
@@ -772,37 +669,11 @@ class ProductLotServiceTest {
 
   @Test
   void getLotsAndSalesDataShouldFilterByYearOnly() {
-    when(helperService.toDto(any(ProductLot.class))).thenAnswer(invocation -> {
-      ProductLot lot = invocation.getArgument(0);
-      return new ProductLotDto(
-          lot.getLotId(),
-          lot.getProduct().getLabel(),
-          lot.getProduct().getType().getLabel(),
-          lot.getImage() != null ? lot.getImage().getUrl() : null,
-          lot.getProducer().getUser().getEmail(),
-          lot.getUnitPrice(),
-          lot.getRemainingQuantity(),
-          lot.getAvailabilityDate(),
-          lot.getProduct().getUnit().getLabel(),
-          lot.getProduct().getDescription(),
-          lot.getInitialQuantity(),
-          lot.getSoldQuantity(),
-          lot.getReservedQuantity(),
-          lot.getState(),
-          lot.getProducer().getUser().getFirstname() + " " + lot.getProducer().getUser().getLastname()
-      );
-    });
-    ProductLot lot2023 = new ProductLot();
-    lot2023.setProduct(product);
-    lot2023.setProducer(producer);
-    lot2023.setImage(productImage);
-    lot2023.setState(State.PENDING);
-    lot2023.setReceiptDate(LocalDateTime.of(2023, 8, 20, 0, 0));
-
-    when(productLotRepository.findByProductLabelIgnoreCase("Laptop"))
-        .thenReturn(List.of(lot2023));
-    when(productReservationRepository.findByProductLotIn(List.of(lot2023)))
-        .thenReturn(List.of());
+    ProductLotDto dto = new ProductLotDto();
+    dto.setProductLabel("Laptop");
+    when(productLotRepository.findDtosSoldOrReceivedIn("Laptop", LocalDate.of(2023, 1, 1),
+        LocalDate.of(2024, 1, 1), LocalDateTime.of(2023, 1, 1, 0, 0),
+        LocalDateTime.of(2024, 1, 1, 0, 0), null)).thenReturn(List.of(dto));
 
     List<ProductLotDto> result = productLotService.getLotsAndSalesData("Laptop", null, 2023);
 
@@ -813,108 +684,70 @@ class ProductLotServiceTest {
   }
 
   @Test
-  void calculateSalesPerDayShouldReturnTotalsWhenNoFilter() {
-    ProductReservation res1 = new ProductReservation();
-    Reservation r1 = new Reservation();
-    r1.setState(Reservation.State.RETRIEVED);
-    r1.setRecoveryDate(LocalDate.of(2025, 4, 19));
-    res1.setReservation(r1);
-    res1.setQuantity(5);
-
-    ProductReservation res2 = new ProductReservation();
-    Reservation r2 = new Reservation();
-    r2.setState(Reservation.State.RETRIEVED);
-    r2.setRecoveryDate(LocalDate.of(2025, 4, 20));
-    res2.setReservation(r2);
-    res2.setQuantity(3);
-
-    when(productLotRepository.findByProductLabelIgnoreCase("Laptop"))
-        .thenReturn(List.of(productLot));
-    when(productReservationRepository.findByProductLotIn(List.of(productLot)))
-        .thenReturn(List.of(res1, res2));
+  void calculateReceivedLotPerDayShouldReadTheReceivedRollup() {
+    when(salesRollupService.sumPerDay("Laptop", DailyProductSales.Channel.RECEIVED, 12, 2024))
+        .thenReturn(Map.of("2024-12-31", 40));
 
     Map<String, Integer> result =
-        productLotService.calculateSalesPerDay("Laptop", null, null);
-
-    assertAll(
-        () -> assertEquals(2, result.size()),
-        () -> assertEquals(5, result.get("2025-04-19")),
-        () -> assertEquals(3, result.get("2025-04-20")),
-
-        () -> assertEquals(
-            List.of("2025-04-19", "2025-04-20"),
-            new ArrayList<>(result.keySet())
-        )
-    );
+        productLotService.calculateReceivedLotPerDay("Laptop", 12, 2024);
 
+    assertEquals(Map.of("2024-12-31", 40), result);
   }
 
   @Test
-  void calculateSalesPerDayShouldFilterByMonthOnly() {
-
-    ProductReservation resMay = new ProductReservation();
-    Reservation rMay = new Reservation();
-    rMay.setState(Reservation.State.RETRIEVED);
-    rMay.setRecoveryDate(LocalDate.of(2025, 5, 1));
-    resMay.setReservation(rMay);
-    resMay.setQuantity(7);
+  void getSalesStatisticsShouldCombineTheTotalsAndTheRollupOfEachProduct() {
+    LocalDate from = LocalDate.of(2025, 4, 1);
+    LocalDate to = LocalDate.of(2025, 5, 1);
+    when(productLotRepository.sumTotalsByProduct(false, List.of("laptop", "mouse"), true, null,
+        from, to, from.atStartOfDay(), to.atStartOfDay()))
+        .thenReturn(List.of(new ProductSalesTotals("Laptop", 40L, 12L),
+            new ProductSalesTotals("Mouse", 0L, 0L)));
+    when(salesRollupService.findPerProductAndDay(false, List.of("laptop", "mouse"), from, to))
+        .thenReturn(List.of(
+            new ProductDailyQuantity("Laptop", DailyProductSales.Channel.RECEIVED,
+                LocalDate.of(2025, 4, 2), 40L),
+            new ProductDailyQuantity("Laptop", DailyProductSales.Channel.RETRIEVED,
+                LocalDate.of(2025, 4, 9), 5L),
+            new ProductDailyQuantity("Laptop", DailyProductSales.Channel.OPEN_SALE,
+                LocalDate.of(2025, 4, 9), 7L)));
 
-    when(productLotRepository.findByProductLabelIgnoreCase("Laptop"))
-        .thenReturn(List.of(productLot));
-    when(productReservationRepository.findByProductLotIn(List.of(productLot)))
-        .thenReturn(List.of(resMay));
+    List<ProductSalesStats> result =
+        productLotService.getSalesStatistics(List.of("Laptop", "MOUSE", "laptop"), from, to);
 
-    Map<String, Integer> result =
-        productLotService.calculateSalesPerDay("Laptop", 5, null);
-
-    assertEquals(1, result.size());
-    assertTrue(result.containsKey("2025-05-01"));
-    assertEquals(7, result.get("2025-05-01"));
+    assertEquals(List.of(
+        new ProductSalesStats("Laptop", 40, 12, Map.of("2025-04-09", 12),
+            Map.of("2025-04-02", 40)),
+        new ProductSalesStats("Mouse", 0, 0, Map.of(), Map.of())), result);
   }
 
   @Test
-  void calculateSalesPerDayShouldFilterByYearOnly() {
-
-    ProductReservation resDec = new ProductReservation();
-    Reservation rDec = new Reservation();
-    rDec.setState(Reservation.State.RETRIEVED);
-    rDec.setRecoveryDate(LocalDate.of(2024, 12, 31));
-    resDec.setReservation(rDec);
-    resDec.setQuantity(2);
-
-    when(productLotRepository.findByProductLabelIgnoreCase("Laptop"))
-        .thenReturn(List.of(productLot));
-    when(productReservationRepository.findByProductLotIn(List.of(productLot)))
-        .thenReturn(List.of(resDec));
-
-    Map<String, Integer> result =
-        productLotService.calculateSalesPerDay("Laptop", null, 2024);
+  void getSalesStatisticsShouldRejectAnEmptyPeriod() {
+    LocalDate day = LocalDate.of(2025, 4, 1);
+    List<String> labels = List.of("Laptop");
 
-    assertEquals(1, result.size());
-    assertTrue(result.containsKey("2024-12-31"));
-    assertEquals(2, result.get("2024-12-31"));
+    assertThrows(BadRequestException.class,
+        () -> productLotService.getSalesStatistics(labels, day, day));
+    verifyNoInteractions(productLotRepository, salesRollupService);
   }
 
   @Test
-  void calculateSalesPerDayShouldIgnoreNonRetrievedReservations() {
+  void rankProductsShouldRunOneQueryWithTheMetricName() {
+    ProductRanking ranking = mock(ProductRanking.class);
+    LocalDate from = LocalDate.of(2025, 1, 1);
+    when(productLotRepository.rankProducts("SELL_THROUGH", from, null, 5))
+        .thenReturn(List.of(ranking));
 
-    ProductReservation resCanceled = new ProductReservation();
-    Reservation rCanceled = new Reservation();
-    rCanceled.setState(Reservation.State.CANCELED);
-    rCanceled.setRecoveryDate(LocalDate.of(2025, 4, 10));
-    resCanceled.setReservation(rCanceled);
-    resCanceled.setProductLot(productLot);
-    resCanceled.setQuantity(99);
-
-    when(productLotRepository.findByProductLabelIgnoreCase("Laptop"))
-        .thenReturn(List.of(productLot));
-    when(productReservationRepository.findByProductLotIn(List.of(productLot)))
-        .thenReturn(List.of(resCanceled));
-
-    Map<String, Integer> result =
-        productLotService.calculateSalesPerDay("Laptop", null, null);
+    assertEquals(List.of(ranking),
+        productLotService.rankProducts(ProductRanking.Metric.SELL_THROUGH, from, null, 5));
+  }
 
-    assertTrue(result.isEmpty(), "Les réservations non‑RETRIEVED doivent être ignorées");
+  @Test
+  void rankProductsShouldRejectALimitOutOfRange() {
+    assertThrows(BadRequestException.class,
+        () -> productLotService.rankProducts(ProductRanking.Metric.QUANTITY, null, null, 0));
+    assertThrows(BadRequestException.class, () -> productLotService.rankProducts(
+        ProductRanking.Metric.QUANTITY, null, null, ProductLotService.MAX_RANKING_SIZE + 1));
+    verifyNoInteractions(productLotRepository);
   }
 
   @Test
@@ -926,53 +759,65 @@ class ProductLotServiceTest {
     assertTrue(result);
     assertNotNull(productLot.getReceiptDate());
     verify(productLotRepository).save(productLot);
+    verify(salesRollupService).recordReceived(1L, productLot.getReceiptDate().toLocalDate(), 10);
   }
 
-  @Test  
-  void decreaseQuantityShouldWorkCorrectly() {
-    productLot.setRemainingQuantity(10);
-    productLot.setRemovedQuantity(0);
-
+  @Test
+  void updateLotStateShouldNotReceiveASoldOutLotAgain() {
+    LocalDateTime receiptDate = LocalDateTime.of(2025, 3, 1, 8, 0);
+    productLot.setState(ProductLot.State.SOLD_OUT);
+    productLot.setReceiptDate(receiptDate);
     when(productLotRepository.findById(1L)).thenReturn(Optional.of(productLot));
 
-    productLotService.decreaseQuantity(1L, 5);
-
-    assertAll(
-        () -> assertEquals(5, productLot.getRemainingQuantity()),
-        () -> assertEquals(5, productLot.getRemovedQuantity()),
-        () -> assertEquals(ProductLot.State.PENDING, productLot.getState())
-    );
+    assertTrue(productLotService.updateLotState(1L, ProductLot.State.FOR_SALE));
 
-    verify(productLotRepository).save(productLot);
+    assertEquals(receiptDate, productLot.getReceiptDate());
+    verifyNoInteractions(salesRollupService);
   }
 
   @Test
-  void decreaseQuantityShouldSetSoldOutWhenRemainingQuantityZero() {
-    productLot.setRemainingQuantity(5);
-    productLot.setRemovedQuantity(0);
+  void updateLotStateShouldKeepTheReceiptDateWhenALotIsPutBackForSale() {
+    LocalDateTime receiptDate = LocalDateTime.of(2025, 3, 1, 8, 0);
+    productLot.setState(ProductLot.State.ACCEPTED);
+    productLot.setReceiptDate(receiptDate);
+    when(productLotRepository.findById(1L)).thenReturn(Optional.of(productLot));
 
+    assertTrue(productLotService.updateLotState(1L, ProductLot.State.FOR_SALE));
+
+    assertEquals(receiptDate, productLot.getReceiptDate());
+    verifyNoInteractions(salesRollupService);
+  }
+
+  @Test
+  void updateLotStateShouldRemoveTheReceiptOfARejectedLot() {
+    productLot.setState(ProductLot.State.FOR_SALE);
+    productLot.setReceiptDate(LocalDateTime.of(2025, 3, 1, 8, 0));
     when(productLotRepository.findById(1L)).thenReturn(Optional.of(productLot));
 
-    productLotService.decreaseQuantity(1L, 5);
+    assertTrue(productLotService.updateLotState(1L, ProductLot.State.REJECTED));
 
-    assertAll(
-        () -> assertEquals(0, productLot.getRemainingQuantity()),
-        () -> assertEquals(5, productLot.getRemovedQuantity()),
-        () -> assertEquals(ProductLot.State.SOLD_OUT, productLot.getState())
-    );
+    verify(salesRollupService).recordReceived(1L, LocalDate.of(2025, 3, 1), -10);
+  }
 
-    verify(productLotRepository).save(productLot);
+  @Test
+  void decreaseQuantityShouldWorkCorrectly() {
+    when(inventoryEngine.remove(1L, 5)).thenReturn(true);
+
+    productLotService.decreaseQuantity(1L, 5);
+
+    verify(inventoryEngine).remove(1L, 5);
+    verify(productLotRepository, never()).save(any());
+    verify(salesRollupService).recordRemoved(1L, 5);
   }
 
   @Test
   void decreaseQuantityShouldThrowIfProductLotNotFound() {
-    when(productLotRepository.findById(1L)).thenReturn(Optional.empty());
+    when(inventoryEngine.remove(1L, 5)).thenReturn(false);
+    when(productLotRepository.existsById(1L)).thenReturn(false);
 
     assertThrows(ResourceNotFoundException.class, () -> {
       productLotService.decreaseQuantity(1L, 5);
     });
-
-    verify(productLotRepository, never()).save(any());
   }
 
   @Test
@@ -987,25 +832,23 @@ class ProductLotServiceTest {
       productLotService.decreaseQuantity(1L, -5);
     });
 
-    verify(productLotRepository, never()).save(any());
+    verify(inventoryEngine, never()).remove(any(), anyInt());
   }
 
   @Test
   void decreaseQuantityShouldThrowIfNotEnoughQuantity() {
-    productLot.setRemainingQuantity(3);
-
-    when(productLotRepository.findById(1L)).thenReturn(Optional.of(productLot));
+    when(inventoryEngine.remove(1L, 5)).thenReturn(false);
+    when(productLotRepository.existsById(1L)).thenReturn(true);
 
     assertThrows(ConflictException.class, () -> {
-      productLotService.decreaseQuantity(1L, 5); 
+      productLotService.decreaseQuantity(1L, 5);
     });
-
-    verify(productLotRepository, never()).save(any());
   }
 
   @Test
   void updateLotState_shouldUpdateStateAndReceiptDateWhenForSale() {
     ProductLot lot = new ProductLot();
+    lot.setProduct(product);
     when(productLotRepository.findById(1L)).thenReturn(Optional.of(lot));
 
     boolean result = productLotService.updateLotState(1L, ProductLot.State.FOR_SALE);
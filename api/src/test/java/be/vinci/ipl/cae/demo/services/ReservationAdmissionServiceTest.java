@@ -0,0 +1,87 @@
+package be.vinci.ipl.cae.demo.services;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import be.vinci.ipl.cae.demo.exceptions.TooManyRequestsException;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import org.junit.jupiter.api.Test;
+
+class ReservationAdmissionServiceTest {
+
+  private final MeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+  private CompletableFuture<Boolean> blockingReservation(ReservationAdmissionService admission,
+      CountDownLatch started, CountDownLatch release) {
+    return CompletableFuture.supplyAsync(() -> admission.admit(() -> {
+      started.countDown();
+      try {
+        return release.await(5, TimeUnit.SECONDS);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        return false;
+      }
+    }));
+  }
+
+  @Test
+  void admitShouldRunTheCreationAndRecordTheWait() {
+    ReservationAdmissionService admission =
+        new ReservationAdmissionService(meterRegistry, 1, 1, 1000, 2);
+
+    assertTrue(admission.admit(() -> true));
+
+    assertEquals(1, meterRegistry.get("reservations.admission.wait").timer().count());
+    assertEquals(0, meterRegistry.get("reservations.admission.active").gauge().value());
+  }
+
+  @Test
+  void admitShouldRejectWithQueuePositionWhenQueueIsFull() throws Exception {
+    ReservationAdmissionService admission =
+        new ReservationAdmissionService(meterRegistry, 1, 1, 5000, 3);
+    CountDownLatch started = new CountDownLatch(1);
+    CountDownLatch release = new CountDownLatch(1);
+
+    CompletableFuture<Boolean> running = blockingReservation(admission, started, release);
+    assertTrue(started.await(5, TimeUnit.SECONDS));
+    CompletableFuture<Boolean> queued = CompletableFuture.supplyAsync(() -> admission.admit(
+        () -> true));
+    while (meterRegistry.get("reservations.admission.queue").gauge().value() < 1) {
+      Thread.onSpinWait();
+    }
+
+    TooManyRequestsException exception = assertThrows(TooManyRequestsException.class,
+        () -> admission.admit(() -> true));
+    release.countDown();
+
+    assertEquals(3, exception.getRetryAfterSeconds());
+    assertTrue(exception.getMessage().endsWith("queue position 2"));
+    assertTrue(running.get(5, TimeUnit.SECONDS));
+    assertTrue(queued.get(5, TimeUnit.SECONDS));
+    assertEquals(1, meterRegistry.get("reservations.admission.rejected")
+        .tag("reason", "queue-full").counter().count());
+  }
+
+  @Test
+  void admitShouldRejectWhenTheWaitIsTooLong() throws Exception {
+    ReservationAdmissionService admission =
+        new ReservationAdmissionService(meterRegistry, 1, 1, 50, 2);
+    CountDownLatch started = new CountDownLatch(1);
+    CountDownLatch release = new CountDownLatch(1);
+
+    CompletableFuture<Boolean> running = blockingReservation(admission, started, release);
+    assertTrue(started.await(5, TimeUnit.SECONDS));
+
+    assertThrows(TooManyRequestsException.class, () -> admission.admit(() -> true));
+    release.countDown();
+
+    assertTrue(running.get(5, TimeUnit.SECONDS));
+    assertEquals(1, meterRegistry.get("reservations.admission.rejected")
+        .tag("reason", "timeout").counter().count());
+  }
+}
@@ -0,0 +1,104 @@
+package be.vinci.ipl.cae.demo.services;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import be.vinci.ipl.cae.demo.models.dtos.ReservationDto;
+import be.vinci.ipl.cae.demo.models.dtos.ReservedProductsDto;
+import be.vinci.ipl.cae.demo.models.entities.User;
+import be.vinci.ipl.cae.demo.repositories.UserRepository;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.security.authentication.TestingAuthenticationToken;
+import org.springframework.security.core.context.SecurityContextHolder;
+import org.springframework.test.context.ActiveProfiles;
+
+/**
+ * Reserves shuffled carts sharing the same lots concurrently against the PostgreSQL database of
+ * the test profile. Run with the integration-tests Maven profile once the database of
+ * docker-compose.yaml is up.
+ */
+@SpringBootTest
+@ActiveProfiles("test")
+class ReservationConcurrencyIT {
+
+  private static final int CARTS = 400;
+  private static final int LOTS_PER_CART = 6;
+  private static final int INITIAL_STOCK = 100_000;
+
+  @Autowired
+  private ReservationService reservationService;
+
+  @Autowired
+  private UserRepository userRepository;
+
+  @Autowired
+  private JdbcTemplate jdbcTemplate;
+
+  @Test
+  void concurrentShuffledCartsShouldAllBeReservedWithoutDeadlock() throws Exception {
+    jdbcTemplate.execute("SELECT setval(pg_get_serial_sequence('reservations', 'reservation_id'),"
+        + " (SELECT MAX(reservation_id) FROM reservations))");
+    List<Long> lotIds = jdbcTemplate.queryForList(
+        "SELECT lot_id FROM product_lots ORDER BY lot_id LIMIT " + LOTS_PER_CART, Long.class);
+    for (Long lotId : lotIds) {
+      jdbcTemplate.update("UPDATE product_lots SET state = 'FOR_SALE', remaining_quantity = ?,"
+          + " reserved_quantity = 0 WHERE lot_id = ?", INITIAL_STOCK, lotId);
+    }
+    User customer = userRepository.findByEmail("droity.suzanne@gmail.be");
+
+    List<Callable<Boolean>> carts = new ArrayList<>();
+    for (int i = 0; i < CARTS; i++) {
+      carts.add(() -> {
+        SecurityContextHolder.getContext()
+            .setAuthentication(new TestingAuthenticationToken(customer, null));
+        try {
+          return reservationService.createReservation(shuffledCart(lotIds));
+        } finally {
+          SecurityContextHolder.clearContext();
+        }
+      });
+    }
+    ExecutorService executor = Executors.newFixedThreadPool(16);
+    try {
+      for (Future<Boolean> cart : executor.invokeAll(carts)) {
+        assertEquals(true, cart.get());
+      }
+    } finally {
+      executor.shutdown();
+    }
+
+    for (Long lotId : lotIds) {
+      Map<String, Object> stock = jdbcTemplate.queryForMap("SELECT remaining_quantity,"
+          + " reserved_quantity FROM product_lots WHERE lot_id = ?", lotId);
+      assertEquals(INITIAL_STOCK - CARTS, ((Number) stock.get("remaining_quantity")).intValue());
+      assertEquals(CARTS, ((Number) stock.get("reserved_quantity")).intValue());
+    }
+  }
+
+  private static ReservationDto shuffledCart(List<Long> lotIds) {
+    List<Long> shuffled = new ArrayList<>(lotIds);
+    Collections.shuffle(shuffled);
+    List<ReservedProductsDto> lines = new ArrayList<>();
+    for (Long lotId : shuffled) {
+      ReservedProductsDto line = new ReservedProductsDto();
+      line.setProductLotId(lotId);
+      line.setQuantity(1);
+      lines.add(line);
+    }
+    ReservationDto cart = new ReservationDto();
+    cart.setRecoveryDate(LocalDate.now().plusDays(1));
+    cart.setReservedProducts(lines);
+    return cart;
+  }
+}
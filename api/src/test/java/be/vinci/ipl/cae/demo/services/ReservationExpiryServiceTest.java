@@ -0,0 +1,126 @@
+package be.vinci.ipl.cae.demo.services;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.mockito.ArgumentMatchers.anyCollection;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.inOrder;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import be.vinci.ipl.cae.demo.models.dtos.LotQuantity;
+import be.vinci.ipl.cae.demo.models.entities.Reservation;
+import be.vinci.ipl.cae.demo.repositories.ProductReservationRepository;
+import be.vinci.ipl.cae.demo.repositories.ReservationRepository;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.time.LocalDate;
+import java.util.Collection;
+import java.util.List;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.InOrder;
+import org.springframework.transaction.PlatformTransactionManager;
+
+class ReservationExpiryServiceTest {
+
+  private final ReservationRepository reservationRepository = mock(ReservationRepository.class);
+  private final ProductReservationRepository productReservationRepository =
+      mock(ProductReservationRepository.class);
+  private final InventoryEngine inventoryEngine = mock(InventoryEngine.class);
+  private final PickupManifestCache pickupManifestCache = mock(PickupManifestCache.class);
+  private final MeterRegistry meterRegistry = new SimpleMeterRegistry();
+  private final ReservationExpiryService reservationExpiryService = new ReservationExpiryService(
+      reservationRepository, productReservationRepository, inventoryEngine,
+      pickupManifestCache, mock(PlatformTransactionManager.class), meterRegistry, 1, 2);
+
+  @BeforeEach
+  void setUp() {
+    when(reservationRepository.updateStatesIf(anyCollection(), eq(Reservation.State.RESERVED),
+        eq(Reservation.State.ABANDONED)))
+        .thenAnswer(invocation -> invocation.<Collection<Long>>getArgument(0).size());
+  }
+
+  @Test
+  void expireShouldAbandonOverdueReservationsByChunks() {
+    LocalDate recoveryDate = LocalDate.now().minusDays(1);
+    when(reservationRepository.findOverdueIdsForUpdate(recoveryDate, 0L, 2))
+        .thenReturn(List.of(1L, 2L));
+    when(reservationRepository.findOverdueIdsForUpdate(recoveryDate, 2L, 2))
+        .thenReturn(List.of(3L));
+    when(productReservationRepository.sumQuantitiesByLot(List.of(1L, 2L)))
+        .thenReturn(List.of(new LotQuantity(4L, 3L), new LotQuantity(9L, 5L)));
+    when(productReservationRepository.sumQuantitiesByLot(List.of(3L)))
+        .thenReturn(List.of(new LotQuantity(4L, 1L)));
+    when(inventoryEngine.release(anyLong(), anyInt())).thenReturn(true);
+    when(reservationRepository.findRecoveryDates(List.of(1L, 2L)))
+        .thenReturn(List.of(recoveryDate.minusDays(1), recoveryDate));
+    when(reservationRepository.findRecoveryDates(List.of(3L)))
+        .thenReturn(List.of(recoveryDate));
+
+    assertEquals(3, reservationExpiryService.expireOverdueReservations());
+
+    InOrder order = inOrder(reservationRepository, inventoryEngine);
+    order.verify(reservationRepository).updateStatesIf(List.of(1L, 2L),
+        Reservation.State.RESERVED, Reservation.State.ABANDONED);
+    order.verify(inventoryEngine).release(4L, 3);
+    order.verify(inventoryEngine).release(9L, 5);
+    order.verify(reservationRepository).updateStatesIf(List.of(3L),
+        Reservation.State.RESERVED, Reservation.State.ABANDONED);
+    order.verify(inventoryEngine).release(4L, 1);
+    verify(pickupManifestCache).evictDates(List.of(recoveryDate.minusDays(1), recoveryDate));
+    verify(pickupManifestCache).evictDates(List.of(recoveryDate));
+    assertEquals(3, meterRegistry.get("reservations.expired").counter().count());
+    assertEquals(2, meterRegistry.get("reservations.expiry.batch").timer().count());
+  }
+
+  @Test
+  void expireShouldDoNothingWithoutOverdueReservations() {
+    when(reservationRepository.findOverdueIdsForUpdate(any(), eq(0L), eq(2)))
+        .thenReturn(List.of());
+
+    assertEquals(0, reservationExpiryService.expireOverdueReservations());
+
+    verify(reservationRepository, never()).updateStatesIf(any(), any(), any());
+  }
+
+  @Test
+  void expireShouldSkipAReservationWhoseStockCannotBeReleased() {
+    when(reservationRepository.findOverdueIdsForUpdate(any(), eq(0L), eq(2)))
+        .thenReturn(List.of(1L, 2L));
+    when(reservationRepository.findOverdueIdsForUpdate(any(), eq(2L), eq(2)))
+        .thenReturn(List.of(3L));
+    when(productReservationRepository.sumQuantitiesByLot(List.of(1L, 2L)))
+        .thenReturn(List.of(new LotQuantity(4L, 3L), new LotQuantity(9L, 5L)));
+    when(productReservationRepository.sumQuantitiesByLot(List.of(1L)))
+        .thenReturn(List.of(new LotQuantity(4L, 3L)));
+    when(productReservationRepository.sumQuantitiesByLot(List.of(2L)))
+        .thenReturn(List.of(new LotQuantity(9L, 5L)));
+    when(productReservationRepository.sumQuantitiesByLot(List.of(3L)))
+        .thenReturn(List.of(new LotQuantity(9L, 1L)));
+    when(inventoryEngine.release(9L, 5)).thenReturn(true);
+    when(inventoryEngine.release(9L, 1)).thenReturn(true);
+
+    assertEquals(2, reservationExpiryService.expireOverdueReservations());
+
+    verify(reservationRepository).updateStatesIf(List.of(2L), Reservation.State.RESERVED,
+        Reservation.State.ABANDONED);
+    verify(reservationRepository).updateStatesIf(List.of(3L), Reservation.State.RESERVED,
+        Reservation.State.ABANDONED);
+    assertEquals(2, meterRegistry.get("reservations.expired").counter().count());
+  }
+
+  @Test
+  void expireShouldFailWhenOverdueReservationsCannotBeRead() {
+    when(reservationRepository.findOverdueIdsForUpdate(any(), eq(0L), eq(2)))
+        .thenThrow(new IllegalStateException("database unavailable"));
+
+    assertThrows(IllegalStateException.class,
+        reservationExpiryService::expireOverdueReservations);
+  }
+}
@@ -2,24 +2,41 @@ package be.vinci.ipl.cae.demo.services;
 
 import static org.junit.jupiter.api.Assertions.assertAll;
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
 import static org.junit.jupiter.api.Assertions.assertThrows;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.argThat;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.inOrder;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.never;
-import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyNoMoreInteractions;
 import static org.mockito.Mockito.when;
 
+import be.vinci.ipl.cae.demo.exceptions.BadRequestException;
 import be.vinci.ipl.cae.demo.exceptions.ConflictException;
 import be.vinci.ipl.cae.demo.exceptions.ResourceNotFoundException;
+import be.vinci.ipl.cae.demo.models.dtos.LotQuantity;
+import be.vinci.ipl.cae.demo.models.dtos.ManifestItem;
+import be.vinci.ipl.cae.demo.models.dtos.ManifestLine;
+import be.vinci.ipl.cae.demo.models.dtos.PickList;
+import be.vinci.ipl.cae.demo.models.dtos.PickupManifest;
 import be.vinci.ipl.cae.demo.models.dtos.ReservationDto;
+import be.vinci.ipl.cae.demo.models.dtos.ReservationFilter;
+import be.vinci.ipl.cae.demo.models.dtos.ReservationInfo;
+import be.vinci.ipl.cae.demo.models.dtos.ReservationPage;
+import be.vinci.ipl.cae.demo.models.dtos.ReservationStateResult;
+import be.vinci.ipl.cae.demo.models.dtos.ReservationStateSummary;
+import be.vinci.ipl.cae.demo.models.dtos.ReservationStateUpdate;
 import be.vinci.ipl.cae.demo.models.dtos.ReservedProductsDto;
-import be.vinci.ipl.cae.demo.models.entities.Product;
 import be.vinci.ipl.cae.demo.models.entities.ProductLot;
 import be.vinci.ipl.cae.demo.models.entities.ProductReservation;
 import be.vinci.ipl.cae.demo.models.entities.Reservation;
-import be.vinci.ipl.cae.demo.models.entities.Unit;
 import be.vinci.ipl.cae.demo.models.entities.User;
 import be.vinci.ipl.cae.demo.models.entities.User.Role;
 import be.vinci.ipl.cae.demo.repositories.ProductLotRepository;
@@ -27,14 +44,21 @@ import be.vinci.ipl.cae.demo.repositories.ProductReservationRepository;
 import be.vinci.ipl.cae.demo.repositories.ReservationRepository;
 import java.time.LocalDate;
 import java.time.LocalDateTime;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.Set;
+import java.util.function.Function;
+import org.junit.jupiter.api.AfterEach;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.InOrder;
 import org.mockito.InjectMocks;
 import org.mockito.Mock;
 import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.data.domain.Limit;
 import org.springframework.security.access.AccessDeniedException;
 import org.springframework.security.authentication.TestingAuthenticationToken;
 import org.springframework.security.core.Authentication;
@@ -50,6 +74,14 @@ class ReservationServiceTest {
   private ProductLotRepository productLotRepository;
   @Mock
   private ProductReservationRepository productReservationRepository;
+  @Mock
+  private InventoryEngine inventoryEngine;
+  @Mock(strictness = Mock.Strictness.LENIENT)
+  private HelperService helperService;
+  @Mock
+  private PickupManifestCache pickupManifestCache;
+  @Mock
+  private SalesRollupService salesRollupService;
   @InjectMocks
   private ReservationService reservationService;
 
@@ -79,6 +111,11 @@ class ReservationServiceTest {
     lot2.setState(ProductLot.State.FOR_SALE);
   }
 
+  @AfterEach
+  void tearDown() {
+    SecurityContextHolder.clearContext();
+  }
+
   @Test
   void createReservation_successfully() {
     ReservedProductsDto p1 = new ReservedProductsDto();
@@ -92,15 +129,47 @@ class ReservationServiceTest {
     List<ReservedProductsDto> reservedProducts=List.of(p1, p2);
     dto.setReservedProducts(reservedProducts);
     dto.setRecoveryDate(recuperationDate);
-    when(productLotRepository.findByIdForUpdate(1L)).thenReturn(Optional.of(lot1));
-    when(productLotRepository.findByIdForUpdate(2L)).thenReturn(Optional.of(lot2));
+    when(inventoryEngine.reserve(1L, 2)).thenReturn(true);
+    when(inventoryEngine.reserve(2L, 3)).thenReturn(true);
+    when(productLotRepository.findMapByIds(Set.of(1L, 2L))).thenReturn(Map.of(1L, lot1, 2L, lot2));
 
     boolean result = reservationService.createReservation(dto);
 
     assertTrue(result);
     verify(reservationRepository).save(any());
-    verify(productLotRepository, times(2)).save(any());
+    verify(productLotRepository, never()).save(any());
     verify(productReservationRepository).saveAll(any());
+    verify(pickupManifestCache).evict(recuperationDate);
+  }
+
+  @Test
+  void createReservation_shouldReserveMergedLinesInLotOrder() {
+    ReservedProductsDto p1 = new ReservedProductsDto();
+    p1.setQuantity(1);
+    p1.setProductLotId(2L);
+    ReservedProductsDto p2 = new ReservedProductsDto();
+    p2.setQuantity(2);
+    p2.setProductLotId(1L);
+    ReservedProductsDto p3 = new ReservedProductsDto();
+    p3.setQuantity(3);
+    p3.setProductLotId(2L);
+    ReservationDto dto = new ReservationDto();
+    dto.setRecoveryDate(LocalDate.now().plusDays(1));
+    dto.setReservedProducts(List.of(p1, p2, p3));
+    when(inventoryEngine.reserve(1L, 2)).thenReturn(true);
+    when(inventoryEngine.reserve(2L, 4)).thenReturn(true);
+    when(productLotRepository.findMapByIds(Set.of(1L, 2L))).thenReturn(Map.of(1L, lot1, 2L, lot2));
+
+    assertTrue(reservationService.createReservation(dto));
+
+    InOrder order = inOrder(inventoryEngine);
+    order.verify(inventoryEngine).reserve(1L, 2);
+    order.verify(inventoryEngine).reserve(2L, 4);
+    verify(productReservationRepository).saveAll(argThat(lines -> {
+      List<ProductReservation> list = new ArrayList<>();
+      lines.forEach(list::add);
+      return list.size() == 2;
+    }));
   }
 
   @Test
@@ -109,13 +178,12 @@ class ReservationServiceTest {
     p1.setQuantity(10);
     p1.setProductLotId(1L);
 
-    lot1.setRemainingQuantity(5);
-
     ReservationDto dto = new ReservationDto();
     dto.setRecoveryDate(LocalDate.now().plusDays(1));
     dto.setReservedProducts(List.of(p1));
 
-    when(productLotRepository.findByIdForUpdate(1L)).thenReturn(Optional.of(lot1));
+    when(inventoryEngine.reserve(1L, 10)).thenReturn(false);
+    when(productLotRepository.existsById(1L)).thenReturn(true);
 
     RuntimeException exception = assertThrows(RuntimeException.class, () -> {
       reservationService.createReservation(dto);
@@ -129,26 +197,34 @@ class ReservationServiceTest {
     verify(productReservationRepository, never()).saveAll(any());
   }
   @Test
-  void createReservation_shouldSetSoldOutWhenRemainingIsZero() {
+  void createReservation_shouldThrowIfLotNotFound() {
     ReservedProductsDto p1 = new ReservedProductsDto();
-    p1.setQuantity(5);
-    p1.setProductLotId(1L);
-
-    lot1.setRemainingQuantity(5);
+    p1.setQuantity(1);
+    p1.setProductLotId(99L);
 
     ReservationDto dto = new ReservationDto();
     dto.setRecoveryDate(LocalDate.now().plusDays(1));
     dto.setReservedProducts(List.of(p1));
 
-    when(productLotRepository.findByIdForUpdate(1L)).thenReturn(Optional.of(lot1));
+    when(inventoryEngine.reserve(99L, 1)).thenReturn(false);
+    when(productLotRepository.existsById(99L)).thenReturn(false);
 
-    boolean result = reservationService.createReservation(dto);
+    assertThrows(ResourceNotFoundException.class, () -> reservationService.createReservation(dto));
+    verify(reservationRepository, never()).save(any());
+  }
 
-    assertAll(
-        () -> assertEquals(0, lot1.getRemainingQuantity()),
-        () -> assertEquals(ProductLot.State.SOLD_OUT, lot1.getState()),
-        () -> assertTrue(result)
-    );
+  @Test
+  void createReservation_shouldRejectNonPositiveQuantity() {
+    ReservedProductsDto p1 = new ReservedProductsDto();
+    p1.setQuantity(0);
+    p1.setProductLotId(1L);
+
+    ReservationDto dto = new ReservationDto();
+    dto.setRecoveryDate(LocalDate.now().plusDays(1));
+    dto.setReservedProducts(List.of(p1));
+
+    assertThrows(BadRequestException.class, () -> reservationService.createReservation(dto));
+    verify(inventoryEngine, never()).reserve(any(), anyInt());
   }
   @Test
   void cancelReservation_shouldThrowResourceNotFoundExceptionWhenNotFound() {
@@ -166,23 +242,35 @@ class ReservationServiceTest {
     reservation.setCustomer(user);
     reservation.setState(Reservation.State.RESERVED);
 
-    lot1.setReservedQuantity(2);
-    lot1.setRemainingQuantity(3);
-
     ProductReservation pr = new ProductReservation();
     pr.setProductLot(lot1);
     pr.setQuantity(2);
 
     when(reservationRepository.findById(1L)).thenReturn(Optional.of(reservation));
+    when(reservationRepository.updateStateIf(1L, Reservation.State.RESERVED,
+        Reservation.State.CANCELED)).thenReturn(1);
     when(productReservationRepository.findAllByReservation(reservation)).thenReturn(List.of(pr));
+    when(inventoryEngine.release(1L, 2)).thenReturn(true);
 
     boolean result = reservationService.cancelReservation(1L);
-    assertAll(()-> assertTrue(result),
-        ()->  assertEquals(5, lot1.getRemainingQuantity()),
-        ()->  assertEquals(0, lot1.getReservedQuantity()),
-        ()-> assertEquals(Reservation.State.CANCELED, reservation.getState()));
-    verify(productLotRepository).save(lot1);
-    verify(reservationRepository).save(reservation);
+    assertTrue(result);
+    verify(inventoryEngine).release(1L, 2);
+    verify(productLotRepository, never()).save(any());
+  }
+
+  @Test
+  void cancelReservation_shouldThrowConflictExceptionWhenCancelledConcurrently() {
+    Reservation reservation = new Reservation();
+    reservation.setReservationId(1L);
+    reservation.setCustomer(user);
+    reservation.setState(Reservation.State.RESERVED);
+
+    when(reservationRepository.findById(1L)).thenReturn(Optional.of(reservation));
+    when(reservationRepository.updateStateIf(1L, Reservation.State.RESERVED,
+        Reservation.State.CANCELED)).thenReturn(0);
+
+    assertThrows(ConflictException.class, () -> reservationService.cancelReservation(1L));
+    verify(inventoryEngine, never()).release(any(), anyInt());
   }
   @Test
   void cancelReservation_shouldThrowAccessDeniedExceptionIfUserNotOwner() {
@@ -230,66 +318,27 @@ class ReservationServiceTest {
   }
   @Test
   void getAllReservationsForCurrentUser_shouldReturnListWithTotalPrice() {
-    Reservation reservation = new Reservation();
-    reservation.setReservationId(1L);
-    reservation.setCustomer(user);
-    reservation.setReservationDate(LocalDateTime.now());
-    reservation.setRecoveryDate(LocalDate.now().plusDays(3));
-    reservation.setState(Reservation.State.RESERVED);
-
-    ProductReservation pr1 = new ProductReservation();
-    pr1.setQuantity(2);
-    ProductLot lotA = new ProductLot();
-    lotA.setUnitPrice(3.5);
-    pr1.setProductLot(lotA);
-
-    ProductReservation pr2 = new ProductReservation();
-    pr2.setQuantity(1);
-    ProductLot lotB = new ProductLot();
-    lotB.setUnitPrice(2.0);
-    pr2.setProductLot(lotB);
-
-    when(reservationRepository.findAllByCustomer(any(User.class))).thenReturn(List.of(reservation));
-    when(productReservationRepository.findAllByReservation(reservation)).thenReturn(List.of(pr1, pr2));
+    ReservationInfo info = new ReservationInfo(1L, LocalDateTime.now(),
+        LocalDate.now().plusDays(3), "RESERVED", 9.0, "a@b.be", "Ann", "Bee");
+    when(reservationRepository.findInfos(42L)).thenReturn(List.of(info));
 
     var result = reservationService.getAllReservationsForCurrentUser();
     assertAll(()->
     assertEquals(1, result.size()),
         ()-> assertEquals(9.0, result.get(0).getTotalPrice()));
   }
+
   @Test
-  void getReservationDetailsById_shouldReturnReservedProducts() {
+  void getAllReservations_shouldReturnTheReservationsOfAllCustomers() {
+    when(reservationRepository.findInfos(null)).thenReturn(List.of());
 
-    Reservation reservation = new Reservation();
-    reservation.setReservationId(5L);
-    reservation.setCustomer(user);
+    assertEquals(List.of(), reservationService.getAllReservations());
+  }
+  @Test
+  void getReservationDetailsById_shouldReturnReservedProductsWithOneQuery() {
     user.setRole(Role.MANAGER);
-
-    ProductLot lot = new ProductLot();
-    lot.setLotId(10L);
-    lot.setUnitPrice(5.0);
-
-    Product product = new Product();
-    product.setLabel("Tomato");
-    product.setDescription("Fresh tomatoes");
-    Unit unit = new Unit();
-    unit.setLabel("kg");
-    product.setUnit(unit);
-    lot.setProduct(product);
-
-    ProductReservation pr = new ProductReservation();
-    pr.setProductLot(lot);
-    pr.setQuantity(3);
-    pr.setReservation(reservation);
-
-    var authentication = mock(Authentication.class);
-    when(authentication.getPrincipal()).thenReturn(user);
-    var securityContext = mock(SecurityContext.class);
-    when(securityContext.getAuthentication()).thenReturn(authentication);
-    SecurityContextHolder.setContext(securityContext);
-
-    when(reservationRepository.findById(5L)).thenReturn(Optional.of(reservation));
-    when(productReservationRepository.findAllByReservation(reservation)).thenReturn(List.of(pr));
+    when(productReservationRepository.findDetails(5L, null)).thenReturn(List.of(
+        new ReservedProductsDto(10L, "Tomato", "Fresh tomatoes", "kg", 5.0, 3)));
 
     var result = reservationService.getReservationDetailsById(5L);
     assertAll(()->
@@ -298,14 +347,193 @@ class ReservationServiceTest {
         ()->  assertEquals("kg", result.get(0).getProductUnit()),
         ()->  assertEquals(5.0, result.get(0).getUnitPrice()),
         ()->  assertEquals(3, result.get(0).getQuantity()));
+    verify(productReservationRepository).findDetails(5L, null);
+    verifyNoMoreInteractions(productReservationRepository, reservationRepository,
+        productLotRepository);
   }
+
+  @Test
+  void getReservationDetailsById_shouldCheckOwnershipInTheQuery() {
+    when(productReservationRepository.findDetails(5L, 42L)).thenReturn(List.of(
+        new ReservedProductsDto(10L, "Tomato", "Fresh tomatoes", "kg", 5.0, 3)));
+
+    assertEquals(1, reservationService.getReservationDetailsById(5L).size());
+    verify(productReservationRepository).findDetails(5L, 42L);
+    verifyNoMoreInteractions(productReservationRepository, reservationRepository,
+        productLotRepository);
+  }
+
   @Test
   void getReservationDetailsById_shouldReturnEmptyList() {
-    when(reservationRepository.findById(99L)).thenReturn(Optional.empty());
+    when(productReservationRepository.findDetails(99L, 42L)).thenReturn(List.of());
     var result = reservationService.getReservationDetailsById(99L);
     assertEquals(0, result.size());
 
   }
 
+  @Test
+  void getReservationDetailsById_shouldDenyTheReservationOfAnotherCustomer() {
+    when(productReservationRepository.findDetails(5L, 42L)).thenReturn(List.of());
+    when(reservationRepository.existsByReservationIdAndCustomerUserIdNot(5L, 42L))
+        .thenReturn(true);
+
+    assertThrows(AccessDeniedException.class,
+        () -> reservationService.getReservationDetailsById(5L));
+  }
+
+  @Test
+  void updateReservationStates_shouldApplyOneStockUpdatePerLotAndReportEachOutcome() {
+    List<ReservationStateUpdate> updates = List.of(
+        new ReservationStateUpdate(3L, "retrieved"),
+        new ReservationStateUpdate(1L, "ABANDONED"),
+        new ReservationStateUpdate(2L, "ABANDONED"),
+        new ReservationStateUpdate(4L, "ABANDONED"),
+        new ReservationStateUpdate(5L, "ABANDONED"),
+        new ReservationStateUpdate(1L, "RETRIEVED"),
+        new ReservationStateUpdate(6L, "CANCELED"));
+    when(reservationRepository.findIdsInStateForUpdate(Set.of(1L, 2L, 3L, 4L, 5L),
+        Reservation.State.RESERVED)).thenReturn(List.of(1L, 2L, 3L));
+    when(reservationRepository.findExistingIds(Set.of(1L, 2L, 3L, 4L, 5L)))
+        .thenReturn(List.of(1L, 2L, 3L, 4L));
+    when(productReservationRepository.sumQuantitiesByLot(List.of(1L, 2L)))
+        .thenReturn(List.of(new LotQuantity(1L, 4L), new LotQuantity(2L, 1L)));
+    when(productReservationRepository.sumQuantitiesByLot(List.of(3L)))
+        .thenReturn(List.of(new LotQuantity(1L, 2L)));
+    when(inventoryEngine.release(anyLong(), anyInt())).thenReturn(true);
+    when(inventoryEngine.complete(1L, 2)).thenReturn(true);
+    List<LocalDate> recoveryDates = List.of(LocalDate.of(2025, 5, 15), LocalDate.of(2025, 5, 16));
+    when(reservationRepository.findRecoveryDates(List.of(1L, 2L, 3L))).thenReturn(recoveryDates);
+
+    List<ReservationStateResult> results = reservationService.updateReservationStates(updates);
+
+    assertEquals(List.of(true, true, true, false, false, false, false),
+        results.stream().map(ReservationStateResult::isUpdated).toList());
+    assertEquals("Only RESERVED reservations can be updated.", results.get(3).getError());
+    assertEquals("Reservation not found", results.get(4).getError());
+    assertEquals("Missing or duplicate reservation ID", results.get(5).getError());
+    assertEquals("State must be either ABANDONED or RETRIEVED.", results.get(6).getError());
+    verify(reservationRepository).updateStatesIf(List.of(1L, 2L), Reservation.State.RESERVED,
+        Reservation.State.ABANDONED);
+    verify(reservationRepository).updateStatesIf(List.of(3L), Reservation.State.RESERVED,
+        Reservation.State.RETRIEVED);
+    InOrder order = inOrder(inventoryEngine);
+    order.verify(inventoryEngine).release(1L, 4);
+    order.verify(inventoryEngine).complete(1L, 2);
+    order.verify(inventoryEngine).release(2L, 1);
+    verify(salesRollupService).recordRetrieved(List.of(3L));
+    verifyNoMoreInteractions(salesRollupService);
+    verify(pickupManifestCache).evictDates(recoveryDates);
+  }
+
+  @Test
+  void updateReservationStates_shouldRollBackWhenReservedStockIsTooLow() {
+    when(reservationRepository.findIdsInStateForUpdate(Set.of(1L), Reservation.State.RESERVED))
+        .thenReturn(List.of(1L));
+    when(productReservationRepository.sumQuantitiesByLot(List.of(1L)))
+        .thenReturn(List.of(new LotQuantity(1L, 4L)));
+
+    List<ReservationStateUpdate> updates = List.of(new ReservationStateUpdate(1L, "ABANDONED"));
+    assertThrows(ConflictException.class,
+        () -> reservationService.updateReservationStates(updates));
+  }
+
+  @Test
+  void updateReservationStates_shouldRejectTooManyUpdates() {
+    List<ReservationStateUpdate> updates = new ArrayList<>();
+    for (long id = 0; id <= ReservationService.MAX_STATE_UPDATES; id++) {
+      updates.add(new ReservationStateUpdate(id, "ABANDONED"));
+    }
+
+    assertThrows(BadRequestException.class,
+        () -> reservationService.updateReservationStates(updates));
+    verify(reservationRepository, never()).findIdsInStateForUpdate(any(), any());
+  }
+
+  private static ReservationInfo info(long id, LocalDateTime reservationDate) {
+    return new ReservationInfo(id, reservationDate, LocalDate.now().plusDays(3), "RESERVED", 9.0,
+        "a@b.be", "Ann", "Bee");
+  }
+
+  @Test
+  void findReservationsPage_shouldReturnLastPageOfAllCustomersForManager() {
+    user.setRole(Role.MANAGER);
+    ReservationFilter filter = new ReservationFilter(Reservation.State.RESERVED, "a@b.be", null,
+        null);
+    List<ReservationInfo> infos = List.of(info(1L, LocalDateTime.now()));
+    when(reservationRepository.findInfoPage(null, Reservation.State.RESERVED, "a@b.be", null, null,
+        null, 0L, Limit.of(21))).thenReturn(infos);
+
+    ReservationPage page = reservationService.findReservationsPage(filter, null, 20, false);
+
+    assertAll(
+        () -> assertEquals(infos, page.getReservations()),
+        () -> assertNull(page.getNextCursor()),
+        () -> assertNull(page.getSummary())
+    );
+    verify(reservationRepository, never()).summarize(any(), any(), any(), any(), any());
+  }
+
+  @Test
+  void findReservationsPage_shouldResumeAfterCursorOfLastReservationOfCustomer() {
+    when(helperService.encodeCursor(any(long[].class))).thenCallRealMethod();
+    when(helperService.decodeCursor(any(), eq(2))).thenCallRealMethod();
+    LocalDateTime first = LocalDateTime.of(2024, 5, 2, 10, 30, 15, 123_456_000);
+    LocalDateTime second = first.minusHours(1);
+    when(reservationRepository.findInfoPage(42L, null, null, null, null, null, 0L, Limit.of(3)))
+        .thenReturn(List.of(info(9L, first), info(7L, second), info(3L, second)));
+    List<ReservationStateSummary> summary = List.of(
+        new ReservationStateSummary("RESERVED", 3, 27.0));
+    when(reservationRepository.summarize(42L, null, null, null, null)).thenReturn(summary);
+
+    ReservationFilter filter = new ReservationFilter(null, "other@b.be", null, null);
+    ReservationPage page = reservationService.findReservationsPage(filter, null, 2, true);
 
-}
\ No newline at end of file
+    assertAll(
+        () -> assertEquals(2, page.getReservations().size()),
+        () -> assertNotNull(page.getNextCursor()),
+        () -> assertEquals(summary, page.getSummary())
+    );
+    reservationService.findReservationsPage(filter, page.getNextCursor(), 2, false);
+    verify(reservationRepository).findInfoPage(42L, null, null, null, null, second, 7L,
+        Limit.of(3));
+  }
+
+  @Test
+  void findReservationsPage_shouldCapPageSizeAndRejectMalformedCursor() {
+    when(helperService.decodeCursor(any(), eq(2))).thenCallRealMethod();
+    ReservationFilter filter = new ReservationFilter(null, null, null, null);
+
+    reservationService.findReservationsPage(filter, null, 10_000, false);
+
+    verify(reservationRepository).findInfoPage(42L, null, null, null, null, null, 0L,
+        Limit.of(ReservationService.MAX_PAGE_SIZE + 1));
+    assertThrows(BadRequestException.class,
+        () -> reservationService.findReservationsPage(filter, "not a cursor", 20, false));
+  }
+
+  @Test
+  void getPickupManifest_shouldSumLotsAndGroupPickListsByCustomer() {
+    LocalDate date = LocalDate.of(2025, 5, 15);
+    when(pickupManifestCache.get(eq(date), any()))
+        .thenAnswer(invocation -> invocation.<Function<LocalDate, PickupManifest>>getArgument(1)
+            .apply(date));
+    when(productReservationRepository.findManifestLines(date)).thenReturn(List.of(
+        new ManifestLine("a@b.be", "Ann", "Bee", 2L, "Apple", "kg", 3L),
+        new ManifestLine("a@b.be", "Ann", "Bee", 5L, "Pear", "kg", 1L),
+        new ManifestLine("c@d.be", "Carl", "Dee", 2L, "Apple", "kg", 4L)));
+
+    PickupManifest manifest = reservationService.getPickupManifest(date);
+
+    assertAll(
+        () -> assertEquals(date, manifest.getRecoveryDate()),
+        () -> assertEquals(List.of(new ManifestItem(2L, "Apple", "kg", 7),
+            new ManifestItem(5L, "Pear", "kg", 1)), manifest.getLots()),
+        () -> assertEquals(List.of("a@b.be", "c@d.be"),
+            manifest.getPickLists().stream().map(PickList::getCustomerEmail).toList()),
+        () -> assertEquals(List.of(new ManifestItem(2L, "Apple", "kg", 3),
+            new ManifestItem(5L, "Pear", "kg", 1)), manifest.getPickLists().get(0).getItems()),
+        () -> assertEquals(List.of(new ManifestItem(2L, "Apple", "kg", 4)),
+            manifest.getPickLists().get(1).getItems())
+    );
+  }
+}
@@ -0,0 +1,82 @@
+package be.vinci.ipl.cae.demo.services;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.mockito.Mockito.inOrder;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyNoInteractions;
+import static org.mockito.Mockito.when;
+
+import be.vinci.ipl.cae.demo.models.dtos.DailyQuantity;
+import be.vinci.ipl.cae.demo.models.entities.DailyProductSales;
+import be.vinci.ipl.cae.demo.repositories.DailyProductSalesRepository;
+import java.time.LocalDate;
+import java.util.List;
+import java.util.Map;
+import org.junit.jupiter.api.Test;
+import org.mockito.InOrder;
+import org.springframework.transaction.PlatformTransactionManager;
+
+class SalesRollupServiceTest {
+
+  private static final DailyProductSales.Channel RETRIEVED = DailyProductSales.Channel.RETRIEVED;
+
+  private final DailyProductSalesRepository dailyProductSalesRepository =
+      mock(DailyProductSalesRepository.class);
+  private final StatisticsCache statisticsCache = mock(StatisticsCache.class);
+  private final SalesRollupService salesRollupService = new SalesRollupService(
+      dailyProductSalesRepository, new HelperService(), statisticsCache,
+      mock(PlatformTransactionManager.class), false);
+
+  @Test
+  void sumPerDayShouldReadTheRangeOfTheMonthSortedByDate() {
+    when(dailyProductSalesRepository.sumPerDay("Laptop", RETRIEVED, LocalDate.of(2024, 12, 1),
+        LocalDate.of(2025, 1, 1), null))
+        .thenReturn(List.of(new DailyQuantity(LocalDate.of(2024, 12, 31), 2L),
+            new DailyQuantity(LocalDate.of(2024, 12, 3), 5L)));
+
+    Map<String, Integer> result = salesRollupService.sumPerDay("Laptop", RETRIEVED, 12, 2024);
+
+    assertEquals(List.of("2024-12-03", "2024-12-31"), List.copyOf(result.keySet()));
+    assertEquals(5, result.get("2024-12-03"));
+    assertEquals(2, result.get("2024-12-31"));
+  }
+
+  @Test
+  void sumPerDayShouldFilterByMonthOfEveryYear() {
+    when(dailyProductSalesRepository.sumPerDay("Laptop", RETRIEVED, null, null, 5))
+        .thenReturn(List.of(new DailyQuantity(LocalDate.of(2025, 5, 1), 7L)));
+
+    assertEquals(Map.of("2025-05-01", 7),
+        salesRollupService.sumPerDay("Laptop", RETRIEVED, 5, null));
+  }
+
+  @Test
+  void recordRetrievedShouldSkipAnEmptyUpdate() {
+    salesRollupService.recordRetrieved(List.of());
+
+    verifyNoInteractions(dailyProductSalesRepository);
+  }
+
+  @Test
+  void recordOpenSaleShouldEvictTheStatisticsOfTheSoldProducts() {
+    when(dailyProductSalesRepository.addOpenSale(5L)).thenReturn(List.of(1L, 3L));
+
+    salesRollupService.recordOpenSale(5L);
+
+    verify(statisticsCache).evict(List.of(1L, 3L));
+  }
+
+  @Test
+  void backfillShouldLockThenRebuildTheRollup() {
+    when(dailyProductSalesRepository.insertRebuilt()).thenReturn(12);
+
+    assertEquals(12, salesRollupService.backfill());
+
+    InOrder order = inOrder(dailyProductSalesRepository);
+    order.verify(dailyProductSalesRepository).lock();
+    order.verify(dailyProductSalesRepository).deleteRebuildable();
+    order.verify(dailyProductSalesRepository).insertRebuilt();
+    verify(statisticsCache).evict(null);
+  }
+}
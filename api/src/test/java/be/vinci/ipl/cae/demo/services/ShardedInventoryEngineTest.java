@@ -0,0 +1,180 @@
+package be.vinci.ipl.cae.demo.services;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.inOrder;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import be.vinci.ipl.cae.demo.exceptions.ConflictException;
+import be.vinci.ipl.cae.demo.exceptions.ResourceNotFoundException;
+import be.vinci.ipl.cae.demo.repositories.ProductLotStockRepository;
+import be.vinci.ipl.cae.demo.repositories.ProductLotStockShardRepository;
+import java.util.List;
+import java.util.Optional;
+import org.junit.jupiter.api.Test;
+import org.mockito.InOrder;
+import org.springframework.transaction.PlatformTransactionManager;
+
+class ShardedInventoryEngineTest {
+
+  private final ProductLotStockRepository productLotStockRepository =
+      mock(ProductLotStockRepository.class);
+  private final ProductLotStockShardRepository shardRepository =
+      mock(ProductLotStockShardRepository.class);
+  private final ShardedInventoryEngine inventoryEngine = new ShardedInventoryEngine(
+      productLotStockRepository, shardRepository, mock(PlatformTransactionManager.class));
+
+  @Test
+  void lotWithoutShardsShouldUseTheLotRow() {
+    when(productLotStockRepository.reserve(1L, 2)).thenReturn(1);
+
+    assertTrue(inventoryEngine.reserve(1L, 2));
+    assertTrue(inventoryEngine.reserve(1L, 2));
+
+    verify(shardRepository, times(1)).countByIdProductLot(1L);
+    verify(productLotStockRepository, times(2)).reserve(1L, 2);
+  }
+
+  @Test
+  void shardedLotShouldFallBackToTheOtherShards() {
+    when(shardRepository.countByIdProductLot(1L)).thenReturn(4);
+    when(shardRepository.update(eq(1L), anyInt(), eq(-5), eq(5), eq(0), eq(0)))
+        .thenReturn(0, 0, 1);
+
+    assertTrue(inventoryEngine.reserve(1L, 5));
+
+    verify(shardRepository, times(3)).update(eq(1L), anyInt(), eq(-5), eq(5), eq(0), eq(0));
+    verify(productLotStockRepository, never()).reserve(1L, 5);
+  }
+
+  @Test
+  void rejectedMutationShouldBeRetriedWithAReloadedShardCount() {
+    when(shardRepository.countByIdProductLot(1L)).thenReturn(2, 0);
+    when(productLotStockRepository.sell(1L, 3)).thenReturn(1);
+
+    assertTrue(inventoryEngine.sell(1L, 3));
+
+    verify(shardRepository, times(2)).sell(eq(1L), anyInt(), eq(3));
+    verify(shardRepository, times(2)).countByIdProductLot(1L);
+  }
+
+  @Test
+  void mutationShouldFailWhenNoShardHasEnoughStock() {
+    when(shardRepository.countByIdProductLot(1L)).thenReturn(2);
+
+    assertFalse(inventoryEngine.remove(1L, 3));
+
+    verify(shardRepository, times(4)).update(eq(1L), anyInt(), eq(-3), eq(0), eq(0), eq(3));
+  }
+
+  @Test
+  void releaseOfShardedLotShouldCheckTheReservedQuantityOnceTheLotIsLocked() {
+    when(shardRepository.countByIdProductLot(1L)).thenReturn(2);
+    when(shardRepository.takeReserved(eq(1L), anyInt(), eq(3), eq(3), eq(0))).thenReturn(1);
+
+    assertTrue(inventoryEngine.release(1L, 3));
+
+    InOrder order = inOrder(shardRepository);
+    order.verify(shardRepository).findRemainingQuantityForUpdate(1L);
+    order.verify(shardRepository).takeReserved(eq(1L), anyInt(), eq(3), eq(3), eq(0));
+    verify(productLotStockRepository, never()).release(1L, 3);
+  }
+
+  @Test
+  void completeOfShardedLotShouldFailWhenTheLotHasNotThatMuchReserved() {
+    when(shardRepository.countByIdProductLot(1L)).thenReturn(2);
+
+    assertFalse(inventoryEngine.complete(1L, 3));
+
+    verify(shardRepository, times(4)).takeReserved(eq(1L), anyInt(), eq(3), eq(0), eq(3));
+    verify(shardRepository, never()).update(eq(1L), anyInt(), anyInt(), anyInt(), anyInt(),
+        anyInt());
+  }
+
+  @Test
+  void consolidateAllShouldOnlyConsolidateTheChangedLots() {
+    when(shardRepository.findShardedLotIds()).thenReturn(List.of(1L, 2L));
+    when(shardRepository.countByIdProductLot(anyLong())).thenReturn(2);
+    when(shardRepository.sell(eq(3L), anyInt(), eq(1))).thenReturn(1);
+    inventoryEngine.markShardedLots();
+    inventoryEngine.consolidateAll();
+
+    assertTrue(inventoryEngine.sell(3L, 1));
+    inventoryEngine.consolidateAll();
+    inventoryEngine.consolidateAll();
+
+    verify(shardRepository).consolidate(1L);
+    verify(shardRepository).consolidate(2L);
+    verify(shardRepository).consolidate(3L);
+  }
+
+  @Test
+  void consolidateAllShouldGoOnAfterALotFailsAndRetryItOnTheNextRun() {
+    when(shardRepository.findShardedLotIds()).thenReturn(List.of(1L, 2L));
+    when(shardRepository.consolidate(1L))
+        .thenThrow(new IllegalStateException("lock timeout"))
+        .thenReturn(1);
+    when(shardRepository.countByIdProductLot(3L)).thenReturn(2);
+    when(shardRepository.sell(eq(3L), anyInt(), eq(1))).thenReturn(1);
+    inventoryEngine.markShardedLots();
+    assertTrue(inventoryEngine.sell(3L, 1));
+
+    inventoryEngine.consolidateAll();
+    assertTrue(inventoryEngine.sell(3L, 1));
+    inventoryEngine.consolidateAll();
+
+    verify(shardRepository, times(2)).consolidate(1L);
+    verify(shardRepository).consolidate(2L);
+    verify(shardRepository, times(2)).consolidate(3L);
+    verify(shardRepository, times(2)).countByIdProductLot(3L);
+  }
+
+  @Test
+  void setStockShardsShouldMoveTheRemainingStockToNewShards() {
+    when(shardRepository.findRemainingQuantityForUpdate(1L)).thenReturn(Optional.of(10));
+
+    inventoryEngine.setStockShards(1L, 4);
+
+    InOrder order = inOrder(shardRepository);
+    order.verify(shardRepository).findRemainingQuantityForUpdate(1L);
+    order.verify(shardRepository).lockShards(1L);
+    order.verify(shardRepository).consolidate(1L);
+    order.verify(shardRepository).deleteByLotId(1L);
+    order.verify(shardRepository).findRemainingQuantityForUpdate(1L);
+    order.verify(shardRepository).clearRemainingQuantity(1L);
+    order.verify(shardRepository).createShards(1L, 4, 10);
+  }
+
+  @Test
+  void setStockShardsToOneShouldOnlyMergeTheShards() {
+    when(shardRepository.findRemainingQuantityForUpdate(1L)).thenReturn(Optional.of(10));
+
+    inventoryEngine.setStockShards(1L, 1);
+
+    verify(shardRepository).consolidate(1L);
+    verify(shardRepository).deleteByLotId(1L);
+    verify(shardRepository, never()).createShards(eq(1L), anyInt(), anyInt());
+  }
+
+  @Test
+  void setStockShardsShouldThrowIfLotNotFound() {
+    when(shardRepository.findRemainingQuantityForUpdate(1L)).thenReturn(Optional.empty());
+
+    assertThrows(ResourceNotFoundException.class, () -> inventoryEngine.setStockShards(1L, 4));
+  }
+
+  @Test
+  void databaseEngineShouldNotSupportShards() {
+    InventoryEngine databaseEngine = new DatabaseInventoryEngine(productLotStockRepository);
+
+    assertThrows(ConflictException.class, () -> databaseEngine.setStockShards(1L, 4));
+  }
+}
@@ -0,0 +1,111 @@
+package be.vinci.ipl.cae.demo.services;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import be.vinci.ipl.cae.demo.exceptions.ResourceNotFoundException;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.jupiter.api.Test;
+
+class StatisticsCacheTest {
+
+  private final MeterRegistry meterRegistry = new SimpleMeterRegistry();
+  private final StatisticsCache cache = new StatisticsCache(meterRegistry, 30, 10);
+  private final AtomicInteger loads = new AtomicInteger();
+
+  private Map<String, Object> load() {
+    loads.incrementAndGet();
+    return Map.of("totalSold", loads.get());
+  }
+
+  private double count(String result) {
+    return meterRegistry.get("statistics.cache").tag("result", result).counter().count();
+  }
+
+  @Test
+  void getShouldLoadOnceUntilTheProductIsEvicted() {
+    Map<String, Object> stats = cache.get("stats", 1L, 4, 2024, this::load);
+
+    assertSame(stats, cache.get("stats", 1L, 4, 2024, this::load));
+    assertEquals(1, loads.get());
+
+    cache.evict(List.of(2L));
+    cache.get("stats", 1L, 4, 2024, this::load);
+    assertEquals(1, loads.get());
+
+    cache.evict(List.of(1L));
+    cache.get("stats", 1L, 4, 2024, this::load);
+    assertEquals(2, loads.get());
+    assertEquals(2, count("hit"));
+    assertEquals(2, count("miss"));
+  }
+
+  @Test
+  void getShouldKeepOneStatisticPerMonthAndYear() {
+    cache.get("stats", 1L, 4, 2024, this::load);
+    cache.get("stats", 1L, null, 2024, this::load);
+    cache.get("stats", 1L, null, null, this::load);
+
+    assertEquals(3, loads.get());
+  }
+
+  @Test
+  void concurrentIdenticalRequestsShouldShareOneLoad() throws Exception {
+    CountDownLatch loading = new CountDownLatch(1);
+    CompletableFuture<Void> release = new CompletableFuture<>();
+    ExecutorService executor = Executors.newFixedThreadPool(2);
+    try {
+      Future<Map<String, Object>> first = executor.submit(() ->
+          cache.get("stats", 1L, null, null, () -> {
+            loading.countDown();
+            release.join();
+            return load();
+          }));
+      loading.await(5, TimeUnit.SECONDS);
+
+      Future<Map<String, Object>> second =
+          executor.submit(() -> cache.get("stats", 1L, null, null, this::load));
+      while (count("coalesced") == 0) {
+        Thread.onSpinWait();
+      }
+      release.complete(null);
+
+      assertSame(first.get(5, TimeUnit.SECONDS), second.get(5, TimeUnit.SECONDS));
+      assertEquals(1, loads.get());
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  @Test
+  void failedLoadShouldNotBeCached() {
+    assertThrows(ResourceNotFoundException.class, () -> cache.get("stats", 1L, null, null, () -> {
+      throw new ResourceNotFoundException("Product not found");
+    }));
+
+    cache.get("stats", 1L, null, null, this::load);
+    assertEquals(1, loads.get());
+  }
+
+  @Test
+  void statisticLoadedDuringAnEvictionShouldNotBeCached() {
+    cache.get("stats", 1L, null, null, () -> {
+      cache.evict(null);
+      return load();
+    });
+    cache.get("stats", 1L, null, null, this::load);
+
+    assertEquals(2, loads.get());
+  }
+}
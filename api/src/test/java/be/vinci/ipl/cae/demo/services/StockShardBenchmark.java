@@ -0,0 +1,119 @@
+package be.vinci.ipl.cae.demo.services;
+
+import be.vinci.ipl.cae.demo.DemoApplication;
+import be.vinci.ipl.cae.demo.models.dtos.ReservationDto;
+import be.vinci.ipl.cae.demo.models.dtos.ReservedProductsDto;
+import be.vinci.ipl.cae.demo.models.entities.User;
+import be.vinci.ipl.cae.demo.repositories.UserRepository;
+import java.time.LocalDate;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.security.authentication.TestingAuthenticationToken;
+import org.springframework.security.core.context.SecurityContextHolder;
+
+/**
+ * JMH measure of the reservations per second on one hot lot against its number of stock shards.
+ * Each reservation goes through ReservationService and the ShardedInventoryEngine of the
+ * application, whose shards are consolidated in the background as in production. One shard is
+ * the single lot row case. Needs the PostgreSQL database of the test profile (see
+ * docker-compose.yaml), whose data is reloaded when the application starts, and the environment
+ * of the application. Run the main method from the test classpath.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 2, time = 3)
+@Measurement(iterations = 5, time = 3)
+@Fork(1)
+@Threads(16)
+public class StockShardBenchmark {
+
+  private static final long LOT_ID = 1L;
+  private static final String CUSTOMER = "droity.suzanne@gmail.be";
+
+  @Param({"1", "2", "4", "8", "16"})
+  public int shards;
+
+  private ConfigurableApplicationContext context;
+  private ReservationService reservationService;
+  private User customer;
+  private ReservationDto cart;
+
+  @Setup(Level.Trial)
+  public void startApplication() {
+    context = new SpringApplicationBuilder(DemoApplication.class)
+        .profiles("test")
+        .run("--inventory.engine=sharded", "--server.port=0", "--spring.jpa.show-sql=false",
+            "--logging.level.root=WARN", "--logging.level.org.hibernate.SQL=WARN",
+            "--logging.level.org.hibernate.type.descriptor.sql.BasicBinder=WARN");
+    JdbcTemplate jdbcTemplate = context.getBean(JdbcTemplate.class);
+    jdbcTemplate.execute("SELECT setval(pg_get_serial_sequence('reservations', 'reservation_id'),"
+        + " (SELECT MAX(reservation_id) FROM reservations))");
+    jdbcTemplate.update("UPDATE product_lots SET state = 'FOR_SALE',"
+        + " remaining_quantity = 1000000000 WHERE lot_id = ?", LOT_ID);
+    context.getBean(InventoryEngine.class).setStockShards(LOT_ID, shards);
+
+    reservationService = context.getBean(ReservationService.class);
+    customer = context.getBean(UserRepository.class).findByEmail(CUSTOMER);
+    ReservedProductsDto line = new ReservedProductsDto();
+    line.setProductLotId(LOT_ID);
+    line.setQuantity(1);
+    cart = new ReservationDto();
+    cart.setRecoveryDate(LocalDate.now().plusDays(1));
+    cart.setReservedProducts(List.of(line));
+  }
+
+  @TearDown(Level.Trial)
+  public void stopApplication() {
+    context.close();
+  }
+
+  /**
+   * Customer logged in on one benchmark thread.
+   */
+  @State(Scope.Thread)
+  public static class Session {
+
+    @Setup(Level.Trial)
+    public void logIn(StockShardBenchmark benchmark) {
+      SecurityContextHolder.getContext()
+          .setAuthentication(new TestingAuthenticationToken(benchmark.customer, null));
+    }
+
+    @TearDown(Level.Trial)
+    public void logOut() {
+      SecurityContextHolder.clearContext();
+    }
+  }
+
+  @Benchmark
+  public boolean reserve(Session session) {
+    return reservationService.createReservation(cart);
+  }
+
+  public static void main(String[] args) throws RunnerException {
+    new Runner(new OptionsBuilder()
+        .include(StockShardBenchmark.class.getSimpleName())
+        .build()).run();
+  }
+}
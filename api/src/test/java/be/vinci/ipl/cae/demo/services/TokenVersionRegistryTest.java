@@ -0,0 +1,38 @@
+package be.vinci.ipl.cae.demo.services;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.time.Instant;
+import org.junit.jupiter.api.Test;
+
+class TokenVersionRegistryTest {
+
+  private final TokenVersionRegistry tokenVersionRegistry =
+      new TokenVersionRegistry(new SimpleMeterRegistry());
+
+  @Test
+  void updateShouldRevokeTokensOfPreviousVersion() {
+    Instant now = Instant.now();
+    tokenVersionRegistry.update(1L, 0);
+    assertTrue(tokenVersionRegistry.isCurrent(1L, 0, now));
+
+    tokenVersionRegistry.update(1L, 1);
+    tokenVersionRegistry.update(1L, 0);
+
+    assertFalse(tokenVersionRegistry.isCurrent(1L, 0, now));
+    assertTrue(tokenVersionRegistry.isCurrent(1L, 1, now));
+  }
+
+  @Test
+  void unknownUsersShouldNotBeTrusted() {
+    assertFalse(tokenVersionRegistry.isCurrent(2L, 0, Instant.now()));
+  }
+
+  @Test
+  void tokensIssuedBeforeStartupShouldNotBeTrusted() {
+    assertFalse(tokenVersionRegistry.isCurrent(1L, 0, Instant.now().minusSeconds(60)));
+    assertFalse(tokenVersionRegistry.isCurrent(1L, 0, null));
+  }
+}
@@ -4,7 +4,9 @@ import static org.junit.jupiter.api.Assertions.assertFalse;
 import static org.junit.jupiter.api.Assertions.assertNotNull;
 import static org.junit.jupiter.api.Assertions.assertNull;
 import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
 import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
@@ -22,7 +24,11 @@ import be.vinci.ipl.cae.demo.models.entities.User;
 import be.vinci.ipl.cae.demo.repositories.AddressRepository;
 import be.vinci.ipl.cae.demo.repositories.ProducerRepository;
 import be.vinci.ipl.cae.demo.repositories.UserRepository;
+import be.vinci.ipl.cae.demo.services.VerifiedTokenCache.VerifiedToken;
+import com.auth0.jwt.JWT;
 import com.auth0.jwt.algorithms.Algorithm;
+import java.time.Instant;
+import java.util.function.Function;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
@@ -30,7 +36,6 @@ import org.junit.jupiter.api.extension.ExtendWith;
 import org.mockito.InjectMocks;
 import org.mockito.Mock;
 import org.mockito.junit.jupiter.MockitoExtension;
-import org.springframework.security.crypto.bcrypt.BCryptPasswordEncoder;
 
 @ExtendWith(MockitoExtension.class)
 class UserServiceTest {
@@ -42,14 +47,20 @@ class UserServiceTest {
   @Mock
   private ProducerRepository producerRepository;
   @Mock
-  private BCryptPasswordEncoder passwordEncoder;
+  private PasswordHashingService passwordHashingService;
+  @Mock
+  private PrincipalCache principalCache;
+  @Mock
+  private VerifiedTokenCache verifiedTokenCache;
+  @Mock
+  private TokenVersionRegistry tokenVersionRegistry;
   @InjectMocks
   private UserService userService;
   @BeforeEach
   void initAlgorithm() {
 
     var fakeSecret = "test-secret";
-    userService.algorithm = Algorithm.HMAC256(fakeSecret);
+    userService.useAlgorithm(Algorithm.HMAC256(fakeSecret));
   }
   @Test
   void loginNonExistingUser() {
@@ -75,7 +86,7 @@ class UserServiceTest {
     user.setPassword(password);
 
     when(userRepository.findByEmail(email)).thenReturn(user);
-    when(passwordEncoder.matches(password, user.getPassword())).thenReturn(true);
+    when(passwordHashingService.matches(password, user.getPassword())).thenReturn(true);
 
     // Act
     AuthenticatedUser result = userService.login(email, password);
@@ -98,7 +109,7 @@ class UserServiceTest {
     user.setPassword(correctPassword);
 
     when(userRepository.findByEmail(email)).thenReturn(user);
-    when(passwordEncoder.matches(wrongPassword, correctPassword)).thenReturn(false);
+    when(passwordHashingService.matches(wrongPassword, correctPassword)).thenReturn(false);
 
     //Act
     AuthenticatedUser result = userService.login(email, wrongPassword);
@@ -137,6 +148,116 @@ class UserServiceTest {
         () -> assertNotNull(result),
         () -> assertEquals(email, result)
     );
+    verify(verifiedTokenCache).put(eq(token), any());
+    assertFalse(userService.verifyToken(token).isStateless());
+  }
+
+  @Test
+  void verifyJwtToken_tokenIsCached() {
+    String token = "already.verified.token";
+    when(verifiedTokenCache.get(token)).thenReturn(new VerifiedToken("user@exemple.com", null,
+        null, null, Instant.now(), Instant.now().plusSeconds(60)));
+
+    assertEquals("user@exemple.com", userService.verifyJwtToken(token));
+    verify(verifiedTokenCache, never()).put(any(), any());
+  }
+
+  @Test
+  void verifyJwtToken_tokenSignedWithAnotherSecret() {
+    String token = JWT.create().withClaim("email", "user@exemple.com")
+        .sign(Algorithm.HMAC256("another-secret"));
+
+    assertNull(userService.verifyJwtToken(token));
+    verify(verifiedTokenCache, never()).put(any(), any());
+  }
+
+  @Test
+  void statelessToken_ShouldAuthenticateFromClaims() {
+    userService.statelessClaims = true;
+    User user = new User();
+    user.setUserId(4L);
+    user.setEmail("user@exemple.com");
+    user.setRole(User.Role.PRODUCER);
+    user.setTokenVersion(2);
+    when(tokenVersionRegistry.isCurrent(eq(4L), eq(2), any())).thenReturn(true);
+
+    VerifiedToken verified = userService.verifyToken(userService.createJwtToken(user).getToken());
+    User principal = userService.readPrincipal(verified);
+
+    assertAll(
+        () -> assertTrue(verified.isStateless()),
+        () -> assertEquals(4L, principal.getUserId()),
+        () -> assertEquals("user@exemple.com", principal.getEmail()),
+        () -> assertEquals(User.Role.PRODUCER, principal.getRole())
+    );
+    verify(principalCache, never()).get(any(), any());
+    verify(tokenVersionRegistry).update(4L, 2);
+  }
+
+  @Test
+  void statelessToken_ShouldFallBackToCacheWhenRevoked() {
+    userService.statelessClaims = true;
+    VerifiedToken verified = new VerifiedToken("user@exemple.com", 4L, User.Role.PRODUCER, 0,
+        Instant.now(), Instant.now().plusSeconds(60));
+    User principal = new User();
+    when(tokenVersionRegistry.isCurrent(eq(4L), eq(0), any())).thenReturn(false);
+    when(principalCache.get(eq("user@exemple.com"), any())).thenReturn(principal);
+
+    assertEquals(principal, userService.readPrincipal(verified));
+  }
+
+  private User storedUser(String email) {
+    User user = new User();
+    user.setUserId(4L);
+    user.setEmail(email);
+    user.setPassword("encodedOldPass");
+    user.setRole(User.Role.CUSTOMER);
+    when(userRepository.findByEmail(email)).thenReturn(user);
+    when(principalCache.get(eq(email), any())).thenAnswer(
+        invocation -> invocation.<Function<String, User>>getArgument(1).apply(email));
+    return user;
+  }
+
+  @Test
+  void tokenIssuedBeforePasswordChange_ShouldBeRefused() {
+    String email = "user@exemple.com";
+    User user = storedUser(email);
+    VerifiedToken verified = userService.verifyToken(userService.createJwtToken(user).getToken());
+    assertNotNull(userService.readPrincipal(verified));
+    when(passwordHashingService.matches("oldPass", "encodedOldPass")).thenReturn(true);
+    when(passwordHashingService.encode("newPass")).thenReturn("encodedNewPass");
+
+    userService.changePassword(email, "oldPass", "newPass");
+
+    assertNull(userService.readPrincipal(verified));
+    VerifiedToken renewed = userService.verifyToken(userService.createJwtToken(user).getToken());
+    assertNotNull(userService.readPrincipal(renewed));
+  }
+
+  @Test
+  void tokenIssuedBeforeDeactivation_ShouldBeRefused() {
+    String email = "user@exemple.com";
+    User user = storedUser(email);
+    userService.statelessClaims = true;
+    when(tokenVersionRegistry.isCurrent(eq(4L), eq(0), any())).thenReturn(true);
+    VerifiedToken verified = userService.verifyToken(userService.createJwtToken(user).getToken());
+    assertNotNull(userService.readPrincipal(verified));
+    when(tokenVersionRegistry.isCurrent(eq(4L), eq(0), any())).thenReturn(false);
+
+    assertTrue(userService.deactivateUserByEmail(email));
+
+    assertNull(userService.readPrincipal(verified));
+    verify(tokenVersionRegistry).update(4L, 1);
+  }
+
+  @Test
+  void tokenOfADeactivatedUser_ShouldBeRefused() {
+    String email = "user@exemple.com";
+    User user = storedUser(email);
+    VerifiedToken verified = userService.verifyToken(userService.createJwtToken(user).getToken());
+    user.setDeactivated(true);
+
+    assertNull(userService.readPrincipal(verified));
   }
 
   @Test
@@ -170,7 +291,7 @@ class UserServiceTest {
     Address savedAddress = new Address();
 
     when(userRepository.findByEmail(email)).thenReturn(null);
-    when(passwordEncoder.encode(password)).thenReturn(encodedPassword);
+    when(passwordHashingService.encode(password)).thenReturn(encodedPassword);
     when(addressRepository.save(inputAddress)).thenReturn(savedAddress);
 
     //Act
@@ -258,7 +379,7 @@ class UserServiceTest {
 
     when(userRepository.findByEmail(email)).thenReturn(null);
     when(userRepository.findByEmail(managerEmail)).thenReturn(managerUser);
-    when(passwordEncoder.encode(password)).thenReturn(encodedPassword);
+    when(passwordHashingService.encode(password)).thenReturn(encodedPassword);
     when(addressRepository.save(inputAddress)).thenReturn(savedAddress);
 
     // Act
@@ -333,7 +454,7 @@ class UserServiceTest {
     Address inputAddress = new Address();
     Address savedAddress = new Address();
   
-    when(passwordEncoder.encode(password)).thenReturn(encodedPassword);
+    when(passwordHashingService.encode(password)).thenReturn(encodedPassword);
     when(addressRepository.save(inputAddress)).thenReturn(savedAddress);
   
     NewUser newUser = new NewUser();
@@ -351,7 +472,7 @@ class UserServiceTest {
     userService.createOne(newUser);
   
     // Assert
-    verify(passwordEncoder, times(1)).encode(password);
+    verify(passwordHashingService, times(1)).encode(password);
     verify(addressRepository, times(1)).save(inputAddress);
     verify(userRepository, times(1)).save(any(User.class));
   }
@@ -458,8 +579,8 @@ class UserServiceTest {
     user.setPassword(encodedOldPass);
 
     when(userRepository.findByEmail(email)).thenReturn(user);
-    when(passwordEncoder.matches(currentPassword, encodedOldPass)).thenReturn(true);
-    when(passwordEncoder.encode(newPassword)).thenReturn(encodedNewPass);
+    when(passwordHashingService.matches(currentPassword, encodedOldPass)).thenReturn(true);
+    when(passwordHashingService.encode(newPassword)).thenReturn(encodedNewPass);
 
     // Act
    userService.changePassword(email, currentPassword, newPassword);
@@ -469,6 +590,32 @@ class UserServiceTest {
     assertEquals(encodedNewPass, user.getPassword());
 
     verify(userRepository, times(1)).save(user);
+    verify(principalCache).evict(email);
+  }
+
+  @Test
+  void deactivateUserByEmail_ShouldEvictCachedPrincipal() {
+    String email = "user@example.com";
+    User user = new User();
+    user.setEmail(email);
+    when(userRepository.findByEmail(email)).thenReturn(user);
+
+    assertTrue(userService.deactivateUserByEmail(email));
+
+    assertTrue(user.isDeactivated());
+    verify(principalCache).evict(email);
+    assertEquals(1, user.getTokenVersion());
+    verify(tokenVersionRegistry).update(user.getUserId(), 1);
+  }
+
+  @Test
+  void readPrincipalFromEmail_ShouldUseCache() {
+    String email = "user@example.com";
+    User principal = new User();
+    when(principalCache.get(eq(email), any())).thenReturn(principal);
+
+    assertEquals(principal, userService.readPrincipalFromEmail(email));
+    verify(userRepository, never()).findByEmail(email);
   }
   @Test
   void changePassword_WrongPassword() {
@@ -482,7 +629,7 @@ class UserServiceTest {
     user.setPassword(encodedOldPass);
 
     when(userRepository.findByEmail(email)).thenReturn(user);
-    when(passwordEncoder.matches(currentPassword, encodedOldPass)).thenReturn(false);
+    when(passwordHashingService.matches(currentPassword, encodedOldPass)).thenReturn(false);
 
     // Act & Assert
     assertThrows(UnauthorizedException.class, () ->
@@ -490,7 +637,7 @@ class UserServiceTest {
     );
 
     verify(userRepository, never()).save(any());
-    verify(passwordEncoder, never()).encode(any());
+    verify(passwordHashingService, never()).encode(any());
   }
 
 
@@ -506,7 +653,7 @@ class UserServiceTest {
     user.setPassword(encodedCorrectPass);
 
     when(userRepository.findByEmail(email)).thenReturn(user);
-    when(passwordEncoder.matches(wrongPassword, encodedCorrectPass)).thenReturn(false);
+    when(passwordHashingService.matches(wrongPassword, encodedCorrectPass)).thenReturn(false);
 
     // Act & Assert
     UnauthorizedException exception = assertThrows(UnauthorizedException.class,
@@ -514,7 +661,7 @@ class UserServiceTest {
 
     assertEquals("Current password is incorrect", exception.getMessage());
 
-    verify(passwordEncoder, never()).encode(any());
+    verify(passwordHashingService, never()).encode(any());
     verify(userRepository, never()).save(any());
   }
   @Test
@@ -526,7 +673,7 @@ void registerUserWithEmptyAccountCreatorManager_ShouldWork() {
   String encodedPassword = "encoded";
 
   when(userRepository.findByEmail(email)).thenReturn(null);
-  when(passwordEncoder.encode(password)).thenReturn(encodedPassword);
+  when(passwordHashingService.encode(password)).thenReturn(encodedPassword);
   when(addressRepository.save(address)).thenReturn(address);
 
   NewUser newUser = new NewUser();
@@ -562,7 +709,7 @@ void registerProducerWithBlankCompanyName_ShouldNotCreateProducer() {
   String encodedPassword = "encoded";
 
   when(userRepository.findByEmail(email)).thenReturn(null);
-  when(passwordEncoder.encode(password)).thenReturn(encodedPassword);
+  when(passwordHashingService.encode(password)).thenReturn(encodedPassword);
   when(addressRepository.save(address)).thenReturn(address);
 
   NewUser newUser = new NewUser();
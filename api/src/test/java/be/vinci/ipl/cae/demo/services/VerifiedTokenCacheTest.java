@@ -0,0 +1,56 @@
+package be.vinci.ipl.cae.demo.services;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+import be.vinci.ipl.cae.demo.services.VerifiedTokenCache.VerifiedToken;
+import java.time.Instant;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+class VerifiedTokenCacheTest {
+
+  private VerifiedTokenCache verifiedTokenCache;
+
+  private static VerifiedToken verified(String email, Instant expiresAt) {
+    return new VerifiedToken(email, null, null, null, Instant.now(), expiresAt);
+  }
+
+  @BeforeEach
+  void setUp() {
+    verifiedTokenCache = new VerifiedTokenCache(2);
+  }
+
+  @Test
+  void getShouldReturnEmailOfCachedToken() {
+    verifiedTokenCache.put("token", verified("user@example.com", Instant.now().plusSeconds(60)));
+
+    assertEquals("user@example.com", verifiedTokenCache.get("token").email());
+  }
+
+  @Test
+  void getShouldIgnoreUnknownAndNullTokens() {
+    assertNull(verifiedTokenCache.get("token"));
+    assertNull(verifiedTokenCache.get(null));
+  }
+
+  @Test
+  void getShouldNotReturnExpiredToken() {
+    verifiedTokenCache.put("token", verified("user@example.com", Instant.now().minusSeconds(1)));
+
+    assertNull(verifiedTokenCache.get("token"));
+  }
+
+  @Test
+  void putShouldReplaceExpiredTokensWhenFull() {
+    Instant later = Instant.now().plusSeconds(60);
+    verifiedTokenCache.put("expired", verified("old@example.com", Instant.now().minusSeconds(1)));
+    verifiedTokenCache.put("valid", verified("user@example.com", later));
+    verifiedTokenCache.put("new", verified("new@example.com", later));
+    verifiedTokenCache.put("rejected", verified("other@example.com", later));
+
+    assertEquals("user@example.com", verifiedTokenCache.get("valid").email());
+    assertEquals("new@example.com", verifiedTokenCache.get("new").email());
+    assertNull(verifiedTokenCache.get("rejected"));
+  }
+}